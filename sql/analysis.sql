@@ -62,6 +62,8 @@ GROUP BY UserIdentifier, RootEventId;
 SELECT COUNT(DISTINCT RootEventId) FROM LinearNonBotNonPageRefreshSequences;
 # 16,164,506 (88.48% of LinearNonBotSequences)
 
+# the following tables can also be filled while processing the sequences (--sequence-tables with -l or --fused)
+
 # sequences containing search event
 DROP TABLE IF EXISTS `LinearSearchSequences`;
 CREATE TABLE `LinearSearchSequences` (
@@ -0,0 +1,138 @@
+USE `sointernalrefs`;
+
+# output files of --bulk-output, one LOAD DATA statement per file in the order of the file numbers (Event_sequence_*.csv, Event_normalization_*.csv)
+# all values are enclosed in quotes, except NULL, which is written as unenclosed NULL and thus read as NULL, while
+# "" stays an empty string
+
+DROP TABLE IF EXISTS `EventSequence`;
+CREATE TABLE `EventSequence` (
+  Id INT NOT NULL,
+  RootEventId INT DEFAULT NULL,
+  DiffSeconds BIGINT DEFAULT NULL,
+  BotTraffic BOOLEAN DEFAULT FALSE,
+  GapInSequence BOOLEAN DEFAULT FALSE,
+  PRIMARY KEY (Id)
+);
+
+DROP TABLE IF EXISTS `EventNormalization`;
+CREATE TABLE `EventNormalization` (
+  Id INT NOT NULL,
+  Query TEXT DEFAULT NULL,
+  FragmentIdentifier TEXT DEFAULT NULL,
+  NormalizedReferrer TEXT DEFAULT NULL,
+  NormalizedUrl TEXT DEFAULT NULL,
+  PageRefresh BOOLEAN DEFAULT FALSE,
+  PRIMARY KEY (Id)
+);
+
+SET autocommit = 0;
+SET foreign_key_checks = 0;
+SET unique_checks = 0;
+SET sql_log_bin = 0;
+
+# REPLACE: rows written again after resuming a partition replace the earlier ones
+LOAD DATA INFILE 'F:/Temp/Event_sequence_0.csv'
+REPLACE INTO TABLE `EventSequence`
+FIELDS OPTIONALLY ENCLOSED BY '\"'
+ESCAPED BY '\"'
+TERMINATED BY ','
+LINES TERMINATED BY '\n'
+IGNORE 0 ROWS
+( Id,
+  RootEventId,
+  DiffSeconds,
+  BotTraffic,
+  GapInSequence);
+COMMIT;
+
+LOAD DATA INFILE 'F:/Temp/Event_normalization_0.csv'
+REPLACE INTO TABLE `EventNormalization`
+FIELDS OPTIONALLY ENCLOSED BY '\"'
+ESCAPED BY '\"'
+TERMINATED BY ','
+LINES TERMINATED BY '\n'
+IGNORE 0 ROWS
+( Id,
+  Query,
+  FragmentIdentifier,
+  NormalizedReferrer,
+  NormalizedUrl,
+  PageRefresh);
+COMMIT;
+
+UPDATE Event e JOIN `EventSequence` s ON e.Id = s.Id
+SET e.RootEventId = s.RootEventId,
+  e.DiffSeconds = s.DiffSeconds,
+  e.BotTraffic = s.BotTraffic,
+  e.GapInSequence = s.GapInSequence;
+COMMIT;
+
+UPDATE Event e JOIN `EventNormalization` n ON e.Id = n.Id
+SET e.Query = n.Query,
+  e.FragmentIdentifier = n.FragmentIdentifier,
+  e.NormalizedReferrer = n.NormalizedReferrer,
+  e.NormalizedUrl = n.NormalizedUrl,
+  e.PageRefresh = n.PageRefresh;
+COMMIT;
+
+# output files of --fused --bulk-output (Event_fused_*.csv)
+
+DROP TABLE IF EXISTS `EventFused`;
+CREATE TABLE `EventFused` (
+  Id INT NOT NULL,
+  RootEventId INT DEFAULT NULL,
+  DiffSeconds BIGINT DEFAULT NULL,
+  BotTraffic BOOLEAN DEFAULT FALSE,
+  GapInSequence BOOLEAN DEFAULT FALSE,
+  Query TEXT DEFAULT NULL,
+  FragmentIdentifier TEXT DEFAULT NULL,
+  NormalizedReferrer TEXT DEFAULT NULL,
+  NormalizedUrl TEXT DEFAULT NULL,
+  PageRefresh BOOLEAN DEFAULT FALSE,
+  PRIMARY KEY (Id)
+);
+
+LOAD DATA INFILE 'F:/Temp/Event_fused_0.csv'
+REPLACE INTO TABLE `EventFused`
+FIELDS OPTIONALLY ENCLOSED BY '\"'
+ESCAPED BY '\"'
+TERMINATED BY ','
+LINES TERMINATED BY '\n'
+IGNORE 0 ROWS
+( Id,
+  RootEventId,
+  DiffSeconds,
+  BotTraffic,
+  GapInSequence,
+  Query,
+  FragmentIdentifier,
+  NormalizedReferrer,
+  NormalizedUrl,
+  PageRefresh);
+COMMIT;
+
+UPDATE Event e JOIN `EventFused` f ON e.Id = f.Id
+SET e.RootEventId = f.RootEventId,
+  e.DiffSeconds = f.DiffSeconds,
+  e.BotTraffic = f.BotTraffic,
+  e.GapInSequence = f.GapInSequence,
+  e.Query = f.Query,
+  e.FragmentIdentifier = f.FragmentIdentifier,
+  e.NormalizedReferrer = f.NormalizedReferrer,
+  e.NormalizedUrl = f.NormalizedUrl,
+  e.PageRefresh = f.PageRefresh;
+COMMIT;
+
+# root event ids of --fused and --sequence-tables, one file per table (e.g., LinearNonBotSequences_*.csv,
+# LinearSearchSequences_*.csv), the tables have been created by the run
+# IGNORE: root event ids written again after resuming a partition
+LOAD DATA INFILE 'F:/Temp/LinearNonBotSequences_0.csv'
+IGNORE INTO TABLE `LinearNonBotSequences`
+LINES TERMINATED BY '\n'
+(RootEventId);
+COMMIT;
+
+SET autocommit = 1;
+SET foreign_key_checks = 1;
+SET unique_checks = 1;
+SET sql_log_bin = 1;
@@ -75,3 +75,5 @@ CREATE INDEX `event_index_7` ON Event(RootEventId);
 CREATE INDEX `event_index_8` ON Event(BotTraffic);
 CREATE INDEX `event_index_9` ON Event(GapInSequence);
 CREATE INDEX `event_index_10` ON Event(PageRefresh);
+# range scans of linear navigation sequences in (RootEventId, CreationDate) order
+CREATE INDEX `event_index_11` ON Event(RootEventId, CreationDate);
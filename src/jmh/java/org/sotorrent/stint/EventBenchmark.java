@@ -0,0 +1,65 @@
+package org.sotorrent.stint;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of events (once per row loaded by Hibernate) and extraction of query and fragment identifier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventBenchmark {
+
+    private static final int URL_COUNT = 4096;
+
+    private List<String> urls;
+    private List<Event> events;
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        SyntheticEvents syntheticEvents = new SyntheticEvents(42);
+        urls = new ArrayList<>(URL_COUNT);
+        events = new ArrayList<>(URL_COUNT);
+        for (int i = 0; i < URL_COUNT; i++) {
+            String url = i % 3 == 0 ? syntheticEvents.searchUrl() : syntheticEvents.postUrl();
+            urls.add(url);
+            events.add(new Event(i, null, "user", new Date(), null, "Post", "Post", "/", url,
+                    null, null, false, false, false));
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (URL_COUNT - 1);
+        return index;
+    }
+
+    @Benchmark
+    public Event construct() {
+        return new Event();
+    }
+
+    @Benchmark
+    public Event constructWithValues() {
+        return new Event(index, null, "user", null, null, "Post", "Post", "/", urls.get(next()),
+                null, null, false, false, false);
+    }
+
+    @Benchmark
+    public void extractQueryAndFragmentIdentifier(Blackhole blackhole) {
+        Event event = events.get(next());
+        event.extractQuery();
+        event.extractFragmentIdentifier();
+        blackhole.consume(event.getQuery());
+        blackhole.consume(event.getFragmentIdentifier());
+    }
+}
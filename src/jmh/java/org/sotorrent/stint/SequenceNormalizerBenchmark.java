@@ -0,0 +1,106 @@
+package org.sotorrent.stint;
+
+import org.openjdk.jmh.annotations.*;
+import org.sotorrent.util.URL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalization of linear navigation sequences (see {@link SequenceNormalizer}) and its parts: page refresh detection,
+ * resolution of truncated referrers, and normalization of Stack Overflow links.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SequenceNormalizerBenchmark {
+
+    private static final int URL_COUNT = 4096;
+
+    @Param({"10000"})
+    public int sequenceCount;
+
+    private List<List<Event>> sequences;
+    private List<Event> longestSequence;
+    private List<String> postUrls;
+    // pairs of consecutive events
+    private Event[] events;
+    private Event[] previousEvents;
+    private SequenceNormalizer sequenceNormalizer;
+    private SequenceNormalizer cachedSequenceNormalizer;
+    private int sequenceIndex = 0;
+    private int urlIndex = 0;
+    private int eventIndex = 0;
+
+    @Setup
+    public void setUp() {
+        SyntheticEvents syntheticEvents = new SyntheticEvents(42);
+        sequences = syntheticEvents.linearSequences(sequenceCount);
+        longestSequence = sequences.get(0);
+        for (List<Event> sequence : sequences) {
+            if (sequence.size() > longestSequence.size()) {
+                longestSequence = sequence;
+            }
+        }
+        postUrls = new ArrayList<>(URL_COUNT);
+        for (int i = 0; i < URL_COUNT; i++) {
+            postUrls.add("https://stackoverflow.com" + syntheticEvents.postUrl());
+        }
+        events = new Event[URL_COUNT];
+        previousEvents = new Event[URL_COUNT];
+        int pairIndex = 0;
+        for (List<Event> sequence : sequences) {
+            for (int i = 1; i < sequence.size() && pairIndex < URL_COUNT; i++, pairIndex++) {
+                events[pairIndex] = sequence.get(i);
+                previousEvents[pairIndex] = sequence.get(i - 1);
+            }
+        }
+        sequenceNormalizer = new SequenceNormalizer();
+        cachedSequenceNormalizer = new SequenceNormalizer(
+                new NormalizationCache(100000, NormalizationCache.EvictionPolicy.LRU));
+    }
+
+    /**
+     * One sequence per invocation, sequences are processed round-robin.
+     */
+    @Benchmark
+    public List<Event> normalizeSequence() {
+        sequenceIndex = (sequenceIndex + 1) % sequences.size();
+        List<Event> sequence = sequences.get(sequenceIndex);
+        sequenceNormalizer.normalize(sequence);
+        return sequence;
+    }
+
+    @Benchmark
+    public List<Event> normalizeSequenceCached() {
+        sequenceIndex = (sequenceIndex + 1) % sequences.size();
+        List<Event> sequence = sequences.get(sequenceIndex);
+        cachedSequenceNormalizer.normalize(sequence);
+        return sequence;
+    }
+
+    /**
+     * The longest (crawler-like) sequence, dominated by the resolution of truncated referrers.
+     */
+    @Benchmark
+    public List<Event> normalizeLongestSequence() {
+        sequenceNormalizer.normalize(longestSequence);
+        return longestSequence;
+    }
+
+    @Benchmark
+    public boolean isPageRefresh() {
+        eventIndex = (eventIndex + 1) & (URL_COUNT - 1);
+        return SequenceNormalizer.isPageRefresh(events[eventIndex], previousEvents[eventIndex]);
+    }
+
+    @Benchmark
+    public String normalizeStackOverflowLink() {
+        urlIndex = (urlIndex + 1) & (URL_COUNT - 1);
+        return URL.getNormalizedStackOverflowLink(postUrls.get(urlIndex)).getUrlString();
+    }
+}
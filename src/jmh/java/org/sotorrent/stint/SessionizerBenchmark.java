@@ -0,0 +1,41 @@
+package org.sotorrent.stint;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gap, bot traffic, and root event id logic (see {@link Sessionizer}), applied to the events of one user identifier
+ * per invocation. User identifiers are processed round-robin, so the average includes the few crawler-like users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionizerBenchmark {
+
+    @Param({"10000"})
+    public int userCount;
+
+    private List<List<Event>> users;
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        users = new SyntheticEvents(42).users(userCount);
+    }
+
+    @Benchmark
+    public void sessionizeUser(Blackhole blackhole) {
+        index = (index + 1) % users.size();
+        Sessionizer sessionizer = new Sessionizer(blackhole::consume);
+        for (Event event : users.get(index)) {
+            sessionizer.processEvent(event);
+        }
+        sessionizer.finish();
+    }
+}
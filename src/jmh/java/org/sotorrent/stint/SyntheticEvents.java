@@ -0,0 +1,128 @@
+package org.sotorrent.stint;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic event logs for the benchmarks. The number of events per user identifier is heavily skewed:
+ * most users trigger a handful of events, while a few crawler-like users trigger thousands of events in quick
+ * succession. URLs resemble Stack Overflow URLs, including titles, queries, fragments, and truncated referrers.
+ */
+class SyntheticEvents {
+
+    private static final String[] TITLES = {"how-to-get-parameter-value-from-url", "what-is-a-nullpointerexception",
+            "how-do-i-undo-the-most-recent-local-commits-in-git", "sort-a-map-by-values", "react-router-how-to"};
+
+    private final Random random;
+
+    SyntheticEvents(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @return events of userCount user identifiers, ordered by user identifier and creation date
+     */
+    List<List<Event>> users(int userCount) {
+        List<List<Event>> users = new ArrayList<>(userCount);
+        int id = 1;
+        for (int user = 0; user < userCount; user++) {
+            boolean crawler = random.nextInt(1000) == 0;
+            int eventCount = crawler ? 1000 + random.nextInt(4000) : 2 + (int) (-Math.log(1 - random.nextDouble()) * 8);
+
+            List<Event> events = new ArrayList<>(eventCount);
+            long milliseconds = 1512086400000L + random.nextInt(365 * 24 * 3600) * 1000L;
+            String previousUrl = "/";
+            String previousTarget = "Home";
+            for (int i = 0; i < eventCount; i++) {
+                if (crawler) {
+                    milliseconds += random.nextInt(2) * 1000L;
+                } else {
+                    // mostly short think times, sometimes a new session
+                    milliseconds += (random.nextInt(10) == 0 ? 400 + random.nextInt(7200) : random.nextInt(120)) * 1000L;
+                }
+
+                String target = random.nextInt(4) == 0 ? "Search" : "Post";
+                String url = target.equals("Search") ? searchUrl() : postUrl();
+                if (crawler && random.nextBoolean()) {
+                    url = previousUrl;
+                }
+                // referrers are often truncated
+                String referrer = random.nextInt(3) == 0
+                        ? previousUrl.substring(0, Math.max(1, random.nextInt(previousUrl.length() + 1)))
+                        : previousUrl;
+
+                events.add(new Event(id++, null, String.format("user%08d", user), new Date(milliseconds), null,
+                        previousTarget, target, referrer, url, null, null, false, false, false));
+                previousUrl = url;
+                previousTarget = target;
+            }
+            users.add(events);
+        }
+        return users;
+    }
+
+    /**
+     * @return linear navigation sequences, i.e., each referrer is a prefix of the previous URL
+     */
+    List<List<Event>> linearSequences(int sequenceCount) {
+        List<List<Event>> sequences = new ArrayList<>(sequenceCount);
+        int id = 1;
+        for (int sequence = 0; sequence < sequenceCount; sequence++) {
+            boolean crawler = random.nextInt(1000) == 0;
+            int eventCount = crawler ? 500 + random.nextInt(2000) : 2 + (int) (-Math.log(1 - random.nextDouble()) * 4);
+
+            List<Event> events = new ArrayList<>(eventCount);
+            // all events of a sequence share the id of its first event as root event id
+            int rootEventId = id;
+            long milliseconds = 1512086400000L + random.nextInt(365 * 24 * 3600) * 1000L;
+            String previousUrl = "/questions";
+            String previousTarget = "QuestionsList";
+            for (int i = 0; i < eventCount; i++) {
+                milliseconds += random.nextInt(60) * 1000L;
+                String target = random.nextInt(5) == 0 ? "Search" : "Post";
+                String url = target.equals("Search") ? searchUrl() : postUrl();
+                // page refreshes
+                if (random.nextInt(10) == 0) {
+                    url = previousUrl;
+                    target = previousTarget;
+                }
+                String referrer = random.nextInt(3) == 0
+                        ? previousUrl.substring(0, Math.max(1, random.nextInt(previousUrl.length() + 1)))
+                        : previousUrl;
+
+                events.add(new Event(id++, rootEventId, "user", new Date(milliseconds), null,
+                        previousTarget, target, referrer, url, null, null, false, false, false));
+                previousUrl = url;
+                previousTarget = target;
+            }
+            sequences.add(events);
+        }
+        return sequences;
+    }
+
+    String postUrl() {
+        int questionId = 1 + random.nextInt(50000000);
+        StringBuilder url = new StringBuilder("/questions/").append(questionId);
+        if (random.nextInt(4) != 0) {
+            url.append('/').append(TITLES[random.nextInt(TITLES.length)]);
+        }
+        if (random.nextInt(3) == 0) {
+            int answerId = questionId + 1 + random.nextInt(1000000);
+            url.append('/').append(answerId);
+            if (random.nextBoolean()) {
+                url.append('#').append(answerId);
+            }
+        }
+        return url.toString();
+    }
+
+    String searchUrl() {
+        String url = "/search?q=" + TITLES[random.nextInt(TITLES.length)].replace('-', '+');
+        if (random.nextInt(5) == 0) {
+            url += "&page=" + (2 + random.nextInt(5)) + "&tab=relevance";
+        }
+        return url;
+    }
+}
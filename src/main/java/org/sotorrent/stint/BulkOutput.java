@@ -0,0 +1,392 @@
+package org.sotorrent.stint;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.sotorrent.util.LogUtils;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Alternative to updating table Event in place: each {@link EventUpdateWriter} writes the columns of its processing
+ * phase to its own CSV file in the data directory (Event_sequence_*.csv, Event_normalization_*.csv, or Event_fused_*.csv, format
+ * {@link #CSV_FORMAT_COLUMNS}) and the root event ids of each {@link SequenceTable} to another one
+ * (e.g., LinearSearchSequences_*.csv). Afterwards, {@link #load(SessionFactory, Path, EventUpdateWriter.Columns, Set)}
+ * bulk-loads the files into a side table with LOAD DATA and joins it into table Event, and loads the root event ids
+ * directly into their tables (see also sql/import/import_bulk_output.sql).
+ * Files are numbered in the order they are created, also across runs, and loaded in that order. Checkpoints record
+ * the committed size of each file, resuming a partition truncates its files to that size (see {@link Checkpoint}).
+ * Hence, a resumed partition only writes rows again that are not in its earlier files anymore, and if a row is
+ * written twice nonetheless, the one of the later file replaces the earlier one.
+ */
+class BulkOutput {
+
+    private static Logger logger = null;
+
+    // all values are quoted, except NULL, which LOAD DATA reads as NULL if it is not enclosed, hence NULL and empty
+    // strings (e.g., the query of /search?) stay distinct, as with updates in place
+    static final CSVFormat CSV_FORMAT_COLUMNS = EventFileProcessor.CSV_FORMAT_EVENTS
+            .withQuoteMode(QuoteMode.ALL_NON_NULL)
+            .withNullString("NULL");
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(BulkOutput.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private BulkOutput() {}
+
+    private static String getFilePrefix(EventUpdateWriter.Columns columns) {
+        return "Event_" + columns.name().toLowerCase(Locale.ROOT) + "_";
+    }
+
+    private static String getFilePrefix(SequenceTable table) {
+        return table.getTableName() + "_";
+    }
+
+    private static String getSideTable(EventUpdateWriter.Columns columns) {
+        switch (columns) {
+            case SEQUENCE:
+                return "EventSequence";
+            case NORMALIZATION:
+                return "EventNormalization";
+            case FUSED:
+                return "EventFused";
+            default:
+                throw new IllegalArgumentException("Unknown columns: " + columns);
+        }
+    }
+
+    /**
+     * CSV file written by one {@link EventUpdateWriter}. Rows are only flushed at commits or if the buffer is full,
+     * the size of the file at the last commit is kept for the checkpoint.
+     */
+    static class OutputFile {
+        private final Path path;
+        private final FileChannel channel;
+        private final CSVPrinter csvPrinter;
+        private long committedSize = 0;
+
+        private OutputFile(Path path, CSVFormat csvFormat) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.csvPrinter = new CSVPrinter(new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel),
+                    StandardCharsets.UTF_8)), csvFormat);
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        CSVPrinter getPrinter() {
+            return csvPrinter;
+        }
+
+        long getCommittedSize() {
+            return committedSize;
+        }
+
+        /**
+         * Writes all buffered rows to the file.
+         */
+        void commit() throws IOException {
+            csvPrinter.flush();
+            committedSize = channel.position();
+        }
+
+        /**
+         * Discards the rows written since the last commit, also those already written because the buffer was full,
+         * and closes the file without flushing the buffer.
+         */
+        void rollback() throws IOException {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                channel.truncate(committedSize);
+            } finally {
+                channel.close();
+            }
+        }
+
+        void close() throws IOException {
+            commit();
+            csvPrinter.close();
+        }
+    }
+
+    /**
+     * @return new output file, numbered after all existing ones, so that files of a resumed run are loaded last
+     */
+    static OutputFile open(Path dataDir, EventUpdateWriter.Columns columns) throws IOException {
+        return open(dataDir, getFilePrefix(columns), CSV_FORMAT_COLUMNS);
+    }
+
+    /**
+     * @return new output file for the root event ids of the given table
+     */
+    static OutputFile open(Path dataDir, SequenceTable table) throws IOException {
+        // root event ids are never NULL
+        return open(dataDir, getFilePrefix(table), EventFileProcessor.CSV_FORMAT_EVENTS);
+    }
+
+    // synchronized: workers open their files concurrently
+    private static synchronized OutputFile open(Path dataDir, String prefix, CSVFormat csvFormat) throws IOException {
+        List<Path> files = listFiles(dataDir, prefix);
+        long number = files.isEmpty() ? 0 : getFileNumber(files.get(files.size() - 1), prefix) + 1;
+        return new OutputFile(dataDir.resolve(String.format(Locale.ROOT, "%s%09d.csv", prefix, number)), csvFormat);
+    }
+
+    /**
+     * Truncates an output file to its committed size when a partition is resumed.
+     */
+    static void truncate(Path file, long committedSize) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            if (channel.size() > committedSize) {
+                logger.info("Truncating " + file + " from " + channel.size() + " to " + committedSize + " bytes.");
+                channel.truncate(committedSize);
+            }
+        }
+    }
+
+    static void print(CSVPrinter csvPrinter, EventUpdateWriter.Columns columns, Event event) throws IOException {
+        switch (columns) {
+            case SEQUENCE:
+                csvPrinter.printRecord(
+                        event.getId(),
+                        event.getRootEventId(),
+                        event.getDiffSeconds(),
+                        event.getBotTraffic() ? 1 : 0,
+                        event.getGapInSequence() ? 1 : 0
+                );
+                break;
+            case NORMALIZATION:
+                csvPrinter.printRecord(
+                        event.getId(),
+                        event.getQuery(),
+                        event.getFragmentIdentifier(),
+                        event.getNormalizedReferrer(),
+                        event.getNormalizedUrl(),
+                        event.getPageRefresh() ? 1 : 0
+                );
+                break;
+            case FUSED:
+                csvPrinter.printRecord(
+                        event.getId(),
+                        event.getRootEventId(),
+                        event.getDiffSeconds(),
+                        event.getBotTraffic() ? 1 : 0,
+                        event.getGapInSequence() ? 1 : 0,
+                        event.getQuery(),
+                        event.getFragmentIdentifier(),
+                        event.getNormalizedReferrer(),
+                        event.getNormalizedUrl(),
+                        event.getPageRefresh() ? 1 : 0
+                );
+                break;
+        }
+    }
+
+    /**
+     * Deletes the output files of a previous run.
+     */
+    static void deleteFiles(Path dataDir, EventUpdateWriter.Columns columns, Set<SequenceTable> sequenceTables)
+            throws IOException {
+        for (Path file : listFiles(dataDir, getFilePrefix(columns))) {
+            Files.delete(file);
+        }
+        for (SequenceTable table : sequenceTables) {
+            for (Path file : listFiles(dataDir, getFilePrefix(table))) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * @return output files with the given prefix in the order of their numbers
+     */
+    private static List<Path> listFiles(Path dataDir, String prefix) throws IOException {
+        Pattern fileNamePattern = Pattern.compile(Pattern.quote(prefix) + "\\d+\\.csv");
+        try (Stream<Path> files = Files.list(dataDir)) {
+            return files
+                    .filter(file -> fileNamePattern.matcher(file.getFileName().toString()).matches())
+                    .sorted(Comparator.comparingLong(file -> getFileNumber(file, prefix)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long getFileNumber(Path file, String prefix) {
+        String fileName = file.getFileName().toString();
+        return Long.parseLong(fileName.substring(prefix.length(), fileName.length() - ".csv".length()));
+    }
+
+    /**
+     * Loads all output files into the side table and updates table Event with one joined UPDATE, then loads the root
+     * event ids into the sequence tables. Requires allowLoadLocalInfile=true in the connection URL.
+     */
+    static void load(SessionFactory sessionFactory, Path dataDir, EventUpdateWriter.Columns columns,
+                     Set<SequenceTable> sequenceTables) {
+        String sideTable = getSideTable(columns);
+        List<String> statements = new ArrayList<>();
+        statements.add("DROP TABLE IF EXISTS `" + sideTable + "`");
+
+        switch (columns) {
+            case SEQUENCE:
+                statements.add("CREATE TABLE `" + sideTable + "` (" +
+                        "Id INT NOT NULL, " +
+                        "RootEventId INT DEFAULT NULL, " +
+                        "DiffSeconds BIGINT DEFAULT NULL, " +
+                        "BotTraffic BOOLEAN DEFAULT FALSE, " +
+                        "GapInSequence BOOLEAN DEFAULT FALSE, " +
+                        "PRIMARY KEY (Id))");
+                break;
+            case NORMALIZATION:
+                statements.add("CREATE TABLE `" + sideTable + "` (" +
+                        "Id INT NOT NULL, " +
+                        "Query TEXT DEFAULT NULL, " +
+                        "FragmentIdentifier TEXT DEFAULT NULL, " +
+                        "NormalizedReferrer TEXT DEFAULT NULL, " +
+                        "NormalizedUrl TEXT DEFAULT NULL, " +
+                        "PageRefresh BOOLEAN DEFAULT FALSE, " +
+                        "PRIMARY KEY (Id))");
+                break;
+            case FUSED:
+                statements.add("CREATE TABLE `" + sideTable + "` (" +
+                        "Id INT NOT NULL, " +
+                        "RootEventId INT DEFAULT NULL, " +
+                        "DiffSeconds BIGINT DEFAULT NULL, " +
+                        "BotTraffic BOOLEAN DEFAULT FALSE, " +
+                        "GapInSequence BOOLEAN DEFAULT FALSE, " +
+                        "Query TEXT DEFAULT NULL, " +
+                        "FragmentIdentifier TEXT DEFAULT NULL, " +
+                        "NormalizedReferrer TEXT DEFAULT NULL, " +
+                        "NormalizedUrl TEXT DEFAULT NULL, " +
+                        "PageRefresh BOOLEAN DEFAULT FALSE, " +
+                        "PRIMARY KEY (Id))");
+                break;
+        }
+
+        List<Path> files;
+        try {
+            files = listFiles(dataDir, getFilePrefix(columns));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (Path file : files) {
+            statements.add(getLoadStatement(file, columns, sideTable));
+        }
+
+        switch (columns) {
+            case SEQUENCE:
+                statements.add("UPDATE Event e JOIN `" + sideTable + "` s ON e.Id = s.Id " +
+                        "SET e.RootEventId = s.RootEventId, e.DiffSeconds = s.DiffSeconds, " +
+                        "e.BotTraffic = s.BotTraffic, e.GapInSequence = s.GapInSequence");
+                break;
+            case NORMALIZATION:
+                statements.add("UPDATE Event e JOIN `" + sideTable + "` s ON e.Id = s.Id " +
+                        "SET e.Query = s.Query, e.FragmentIdentifier = s.FragmentIdentifier, " +
+                        "e.NormalizedReferrer = s.NormalizedReferrer, e.NormalizedUrl = s.NormalizedUrl, " +
+                        "e.PageRefresh = s.PageRefresh");
+                break;
+            case FUSED:
+                statements.add("UPDATE Event e JOIN `" + sideTable + "` s ON e.Id = s.Id " +
+                        "SET e.RootEventId = s.RootEventId, e.DiffSeconds = s.DiffSeconds, " +
+                        "e.BotTraffic = s.BotTraffic, e.GapInSequence = s.GapInSequence, " +
+                        "e.Query = s.Query, e.FragmentIdentifier = s.FragmentIdentifier, " +
+                        "e.NormalizedReferrer = s.NormalizedReferrer, e.NormalizedUrl = s.NormalizedUrl, " +
+                        "e.PageRefresh = s.PageRefresh");
+                break;
+        }
+        statements.add("DROP TABLE `" + sideTable + "`");
+
+        for (SequenceTable table : sequenceTables) {
+            List<Path> sequenceTableFiles;
+            try {
+                sequenceTableFiles = listFiles(dataDir, getFilePrefix(table));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (Path file : sequenceTableFiles) {
+                // IGNORE: root event ids written again by a resumed partition
+                statements.add("LOAD DATA LOCAL INFILE '" + getFileName(file) + "' " +
+                        "IGNORE INTO TABLE `" + table.getTableName() + "` " +
+                        "LINES TERMINATED BY '\\n' (RootEventId)");
+            }
+            files.addAll(sequenceTableFiles);
+        }
+
+        logger.info("Loading " + files.size() + " output files into table " + sideTable + " and joining it into table Event...");
+        Transaction t = null;
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            t = session.beginTransaction();
+            Connection connection = Jdbc.connection(session);
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : statements) {
+                    long startNanos = System.nanoTime();
+                    int rowCount = statement.executeUpdate(sql);
+                    logger.info(sql.substring(0, Math.min(sql.length(), 60)) + "...: " + rowCount + " rows ("
+                            + (System.nanoTime() - startNanos) / 1000000 + "ms)");
+                }
+            }
+            t.commit();
+        } catch (SQLException e) {
+            if (t != null && t.isActive()) {
+                t.rollback();
+            }
+            throw new IllegalStateException("Error while loading output files into table " + sideTable, e);
+        }
+        logger.info("Output files have been loaded into table Event.");
+    }
+
+    // REPLACE: rows written again by a resumed partition replace the ones of earlier files
+    // NULL values are written as unenclosed NULL (see CSV_FORMAT_COLUMNS), hence no column needs nullif
+    private static String getLoadStatement(Path file, EventUpdateWriter.Columns columns, String sideTable) {
+        String load = "LOAD DATA LOCAL INFILE '" + getFileName(file) + "' " +
+                "REPLACE INTO TABLE `" + sideTable + "` " +
+                "FIELDS OPTIONALLY ENCLOSED BY '\"' ESCAPED BY '\"' TERMINATED BY ',' " +
+                "LINES TERMINATED BY '\\n' ";
+        switch (columns) {
+            case SEQUENCE:
+                return load + "(Id, RootEventId, DiffSeconds, BotTraffic, GapInSequence)";
+            case NORMALIZATION:
+                return load + "(Id, Query, FragmentIdentifier, NormalizedReferrer, NormalizedUrl, PageRefresh)";
+            case FUSED:
+                return load + "(Id, RootEventId, DiffSeconds, BotTraffic, GapInSequence, Query, FragmentIdentifier, " +
+                        "NormalizedReferrer, NormalizedUrl, PageRefresh)";
+            default:
+                throw new IllegalArgumentException("Unknown columns: " + columns);
+        }
+    }
+
+    private static String getFileName(Path file) {
+        return file.toAbsolutePath().toString().replace('\\', '/').replace("'", "\\'");
+    }
+}
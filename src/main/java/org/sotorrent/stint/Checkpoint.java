@@ -0,0 +1,162 @@
+package org.sotorrent.stint;
+
+import org.sotorrent.util.LogUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.IntFunction;
+import java.util.logging.Logger;
+
+/**
+ * Durable progress of one partition: the number of records of the partition file whose updates have been committed
+ * and the last committed key. Checkpoints are only saved right after a commit, so resuming never skips uncommitted
+ * updates. Records processed after the last checkpoint are processed again, which is safe, because all updates are
+ * idempotent. With bulk output, the checkpoint also contains the committed size of each output file, resuming
+ * truncates the files to it (see {@link BulkOutput}).
+ */
+class Checkpoint {
+
+    private static Logger logger = null;
+
+    private static final String FILE_EXTENSION = ".checkpoint";
+    private static final String OUTPUT_FILE_PREFIX = "outputFile.";
+
+    private final Path file;
+    private int committedRecordCount = 0;
+    private String lastCommittedKey = null;
+    // committed size of each bulk output file of the partition in bytes
+    private Map<Path, Long> committedOutputFileSizes = new LinkedHashMap<>();
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(Checkpoint.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param partitionFile CSV file with the keys of the partition
+     */
+    Checkpoint(File partitionFile) {
+        this.file = partitionFile.toPath().resolveSibling(partitionFile.getName() + FILE_EXTENSION);
+    }
+
+    int getCommittedRecordCount() {
+        return committedRecordCount;
+    }
+
+    String getLastCommittedKey() {
+        return lastCommittedKey;
+    }
+
+    /**
+     * Loads the checkpoint of a partition and skips its committed records when resuming, otherwise removes a stale
+     * checkpoint.
+     * @param skip skips the given number of records of the partition file, returns the last skipped key
+     * @param keyName name of the keys in log messages, e.g., "user identifier"
+     * @return index of the first record to process
+     */
+    int start(boolean resume, int partition, int recordCount, IntFunction<String> skip, String keyName)
+            throws IOException {
+        if (!resume) {
+            delete();
+            return 0;
+        }
+        if (!load(recordCount)) {
+            logger.info("Thread " + partition + ": No checkpoint found, starting with first record.");
+            return 0;
+        }
+        validate(skip.apply(committedRecordCount));
+        for (Map.Entry<Path, Long> committedOutputFileSize : committedOutputFileSizes.entrySet()) {
+            BulkOutput.truncate(committedOutputFileSize.getKey(), committedOutputFileSize.getValue());
+        }
+        logger.info("Thread " + partition + ": Resuming after record " + committedRecordCount + " of " + recordCount
+                + " (last committed " + keyName + ": " + lastCommittedKey + ").");
+        return committedRecordCount;
+    }
+
+    /**
+     * Loads a previously saved checkpoint, if one exists. Afterwards, call {@link #validate(String)} with the key of
+     * the last committed record to ensure that the partition file did not change.
+     * @return true if a checkpoint was loaded
+     */
+    private boolean load(int recordCount) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        int count = Integer.parseInt(properties.getProperty("committedRecordCount"));
+        String key = properties.getProperty("lastCommittedKey");
+
+        if (count > recordCount) {
+            throw new IllegalStateException("Checkpoint " + file + " does not match partition file (record "
+                    + count + " of " + recordCount + ").");
+        }
+
+        committedRecordCount = count;
+        lastCommittedKey = key;
+        committedOutputFileSizes = new LinkedHashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(OUTPUT_FILE_PREFIX)) {
+                committedOutputFileSizes.put(Paths.get(name.substring(OUTPUT_FILE_PREFIX.length())),
+                        Long.parseLong(properties.getProperty(name)));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param key key of record committedRecordCount - 1 in the partition file (null if committedRecordCount is 0)
+     */
+    private void validate(String key) {
+        if (committedRecordCount > 0 && !lastCommittedKey.equals(key)) {
+            throw new IllegalStateException("Checkpoint " + file + " does not match partition file (record "
+                    + committedRecordCount + ": expected key " + lastCommittedKey + ", found " + key + ").");
+        }
+    }
+
+    /**
+     * Saves the checkpoint atomically, must only be called right after the updates of the first
+     * committedRecordCount records have been committed.
+     * @param committedOutputFileSizes see {@link EventUpdateWriter#getCommittedOutputFileSizes()}
+     */
+    void save(int committedRecordCount, String lastCommittedKey, Map<Path, Long> committedOutputFileSizes)
+            throws IOException {
+        this.committedRecordCount = committedRecordCount;
+        this.lastCommittedKey = lastCommittedKey;
+        this.committedOutputFileSizes = new LinkedHashMap<>(committedOutputFileSizes);
+
+        Properties properties = new Properties();
+        properties.setProperty("committedRecordCount", String.valueOf(committedRecordCount));
+        if (lastCommittedKey != null) {
+            properties.setProperty("lastCommittedKey", lastCommittedKey);
+        }
+        for (Map.Entry<Path, Long> committedOutputFileSize : committedOutputFileSizes.entrySet()) {
+            properties.setProperty(OUTPUT_FILE_PREFIX + committedOutputFileSize.getKey().toAbsolutePath(),
+                    String.valueOf(committedOutputFileSize.getValue()));
+        }
+
+        // write to temporary file first, a crash while writing must not corrupt the last checkpoint
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile)) {
+            properties.store(writer, "checkpoint");
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
@@ -2,17 +2,19 @@ package org.sotorrent.stint;
 
 import javax.persistence.*;
 import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @Entity
 @Table(name="Event")
 public class Event {
 
+    // marks a missing creation date
+    private static final long NO_CREATION_TIME = Long.MIN_VALUE;
+
     private int id;
     private Integer rootEventId;
     private String userIdentifier;
-    private Date creationDate;
+    // epoch milliseconds instead of a Date, events read with EventReader never materialize a Date
+    private long creationTime = NO_CREATION_TIME;
     private Long diffSeconds;
     private String eventSource;
     private String eventTarget;
@@ -25,9 +27,8 @@ public class Event {
     private boolean botTraffic;
     private boolean gapInSequence;
     private boolean pageRefresh;
-
-    private Pattern queryPattern = Pattern.compile("\\?[^#]*");
-    private Pattern fragmentIdentifierPattern = Pattern.compile("#.*");
+    // bits of the sequence tables the event's sequence belongs to (see SequenceTable), not a column of table Event
+    private int sequenceTables;
 
     public Event() {}
 
@@ -38,7 +39,7 @@ public class Event {
         this.id = id;
         this.rootEventId = rootEventId;
         this.userIdentifier = userIdentifier;
-        this.creationDate = creationDate;
+        setCreationDate(creationDate);
         this.diffSeconds = diffSeconds;
         this.eventSource = eventSource;
         this.eventTarget = eventTarget;
@@ -84,11 +85,23 @@ public class Event {
     @Basic
     @Column(name = "CreationDate")
     public Date getCreationDate() {
-        return creationDate;
+        return creationTime == NO_CREATION_TIME ? null : new Date(creationTime);
     }
 
     public void setCreationDate(Date creationDate) {
-        this.creationDate = creationDate;
+        this.creationTime = creationDate == null ? NO_CREATION_TIME : creationDate.getTime();
+    }
+
+    /**
+     * @return creation date in epoch milliseconds
+     */
+    @Transient
+    long getCreationTime() {
+        return creationTime;
+    }
+
+    void setCreationTime(long creationTime) {
+        this.creationTime = creationTime;
     }
 
     @Basic
@@ -103,7 +116,7 @@ public class Event {
 
     @Transient
     void setDiffSeconds(Event previousEvent) {
-        setDiffSeconds((creationDate.getTime()-previousEvent.getCreationDate().getTime())/1000);
+        setDiffSeconds((creationTime-previousEvent.creationTime)/1000);
     }
 
     @Basic
@@ -164,17 +177,17 @@ public class Event {
 
     @Transient
     public void extractQuery() {
-        Matcher queryMatcher = queryPattern.matcher(url);
-        if (queryMatcher.find()) {
-            setQuery(queryMatcher.group(0).substring(1));
+        String query = UrlParts.query(url);
+        if (query != null) {
+            setQuery(query);
         }
     }
 
     @Transient
     public void extractFragmentIdentifier() {
-        Matcher fragmentIdentifierMather = fragmentIdentifierPattern.matcher(url);
-        if (fragmentIdentifierMather.find()) {
-            setFragmentIdentifier(fragmentIdentifierMather.group(0).substring(1));
+        String fragmentIdentifier = UrlParts.fragmentIdentifier(url);
+        if (fragmentIdentifier != null) {
+            setFragmentIdentifier(fragmentIdentifier);
         }
     }
 
@@ -230,4 +243,17 @@ public class Event {
     public void setPageRefresh(boolean pageRefresh) {
         this.pageRefresh = pageRefresh;
     }
+
+    @Transient
+    int getSequenceTables() {
+        return sequenceTables;
+    }
+
+    void setSequenceTables(int sequenceTables) {
+        this.sequenceTables = sequenceTables;
+    }
+
+    boolean isInSequenceTable(SequenceTable table) {
+        return (sequenceTables & table.mask()) != 0;
+    }
 }
@@ -0,0 +1,375 @@
+package org.sotorrent.stint;
+
+import org.apache.commons.csv.*;
+import org.sotorrent.util.LogUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Database-free alternative to {@link EventIterator} and {@link LinearSequenceIterator}: reads the export of table
+ * Event (see sql/export/export_events.sql) from the data directory, sorts it externally by
+ * (UserIdentifier, CreationDate, Id), and writes an enriched CSV file that sql/import/import_events.sql can load.
+ * Linear non-bot sequences are identified and normalized in the same pass as in fused mode (see
+ * {@link SequenceClassifier}).
+ */
+public class EventFileProcessor {
+
+    private static Logger logger = null;
+
+    static final CSVFormat CSV_FORMAT_EVENTS;
+    static final DateTimeFormatter CREATION_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    static final Comparator<Event> USER_ORDER = Comparator
+            .comparing(Event::getUserIdentifier, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparingLong(Event::getCreationTime)
+            .thenComparingInt(Event::getId);
+
+    private static final int LOG_PACE = 1000000;
+    static final String EVENTS_FILENAME = "Event.csv";
+    private static final String OUTPUT_FILENAME = "Event_processed.csv";
+    private static final String RUN_BASE_FILENAME = "event_run";
+
+    private final File dataDir;
+    private final int threadCount;
+    private final int runSize;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(EventFileProcessor.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for in- and output (no header, see sql/export/export_events.sql)
+        CSV_FORMAT_EVENTS = CSVFormat.DEFAULT
+                .withDelimiter(',')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withRecordSeparator('\n')
+                .withNullString("");
+    }
+
+    public EventFileProcessor(Path dataDirPath, int threadCount, int runSize) {
+        this.threadCount = threadCount;
+        this.runSize = runSize;
+        this.dataDir = dataDirPath.toFile();
+
+        if (!Files.exists(dataDirPath)) {
+            throw new IllegalArgumentException("Data directory does not exist: " + dataDirPath);
+        }
+    }
+
+    void processEventFile() {
+        File outputFile = Paths.get(dataDir.toString(), OUTPUT_FILENAME).toFile();
+        try (CSVPrinter csvPrinter = new CSVPrinter(new BufferedWriter(new FileWriter(outputFile)), CSV_FORMAT_EVENTS)) {
+            // the events of each user identifier are classified once the user identifier is finished
+            SequenceClassifier classifier = new SequenceClassifier(new OutputSink(csvPrinter), new SequenceNormalizer());
+            UserStreamSessionizer userStreamSessionizer = new UserStreamSessionizer(new Sessionizer(classifier));
+
+            logger.info("Identifying navigation sequences and writing " + outputFile.getName() + " ...");
+            forEachEventInUserOrder(userStreamSessionizer);
+            userStreamSessionizer.finish();
+
+            logger.info(userStreamSessionizer.eventCount + " events have been processed, "
+                    + classifier.getLinearNonBotSequenceCount() + " linear navigation sequences normalized.");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sorts the input file externally and passes all events to the consumer, ordered by
+     * (UserIdentifier, CreationDate, Id).
+     */
+    void forEachEventInUserOrder(Consumer<Event> consumer) {
+        List<File> runFiles = sortRuns();
+        try {
+            mergeRuns(runFiles, consumer);
+        } finally {
+            deleteRunFiles(runFiles.size());
+        }
+    }
+
+    /**
+     * Reads the input file sequentially and writes sorted runs of at most runSize events, sorting up to threadCount
+     * runs in parallel. At most threadCount + 1 runs are held in memory.
+     */
+    private List<File> sortRuns() {
+        File inputFile = Paths.get(dataDir.toString(), EVENTS_FILENAME).toFile();
+        if (!inputFile.exists()) {
+            throw new IllegalArgumentException("Error while reading input file: " + inputFile);
+        }
+        logger.info("Reading file " + inputFile.getName() + " and writing sorted runs of " + runSize + " events...");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        Semaphore runsInMemory = new Semaphore(threadCount);
+        List<Future<File>> runs = new ArrayList<>();
+        boolean sorted = false;
+
+        try (CSVParser csvParser = new CSVParser(new BufferedReader(new FileReader(inputFile)), CSV_FORMAT_EVENTS)) {
+            List<Event> run = new ArrayList<>(runSize);
+            for (CSVRecord record : csvParser) {
+                run.add(parseEvent(record));
+                if (run.size() == runSize) {
+                    runs.add(submitRun(executor, runsInMemory, run, runs.size()));
+                    run = new ArrayList<>(runSize);
+                }
+            }
+            if (!run.isEmpty()) {
+                runs.add(submitRun(executor, runsInMemory, run, runs.size()));
+            }
+
+            List<File> runFiles = new ArrayList<>(runs.size());
+            for (Future<File> future : runs) {
+                runFiles.add(future.get());
+            }
+            logger.info(runFiles.size() + " sorted runs written.");
+            sorted = true;
+            return runFiles;
+        } catch (IOException | ExecutionException | RuntimeException e) {
+            throw new IllegalStateException("Error while sorting input file: " + inputFile, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sorting input file: " + inputFile, e);
+        } finally {
+            executor.shutdown();
+            if (!sorted) {
+                // runs that are still sorted would write their files after the deletion
+                executor.shutdownNow();
+                try {
+                    executor.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                deleteRunFiles(runs.size());
+            }
+        }
+    }
+
+    private Future<File> submitRun(ExecutorService executor, Semaphore runsInMemory, List<Event> run, int runIndex)
+            throws InterruptedException {
+        runsInMemory.acquire();
+        return executor.submit(() -> {
+            try {
+                run.sort(USER_ORDER);
+                File runFile = getRunFile(runIndex);
+                try (CSVPrinter csvPrinter = new CSVPrinter(
+                        new BufferedWriter(new FileWriter(runFile)), CSV_FORMAT_EVENTS)) {
+                    for (Event event : run) {
+                        printEvent(csvPrinter, event);
+                    }
+                }
+                return runFile;
+            } finally {
+                runsInMemory.release();
+            }
+        });
+    }
+
+    private File getRunFile(int runIndex) {
+        return Paths.get(dataDir.toString(), RUN_BASE_FILENAME + "_" + runIndex + ".csv").toFile();
+    }
+
+    private void deleteRunFiles(int runCount) {
+        for (int runIndex=0; runIndex<runCount; runIndex++) {
+            File runFile = getRunFile(runIndex);
+            if (runFile.exists() && !runFile.delete()) {
+                logger.warning("Error while deleting run file: " + runFile);
+            }
+        }
+    }
+
+    /**
+     * Merges the sorted runs into one ordered event stream.
+     */
+    private void mergeRuns(List<File> runFiles, Consumer<Event> consumer) {
+        logger.info("Merging " + runFiles.size() + " runs...");
+
+        PriorityQueue<RunReader> runReaders = new PriorityQueue<>(Math.max(1, runFiles.size()),
+                (r1, r2) -> USER_ORDER.compare(r1.head, r2.head));
+
+        try {
+            for (File runFile : runFiles) {
+                RunReader runReader = new RunReader(runFile);
+                if (runReader.advance()) {
+                    runReaders.add(runReader);
+                } else {
+                    runReader.close();
+                }
+            }
+
+            while (!runReaders.isEmpty()) {
+                RunReader runReader = runReaders.poll();
+                Event event = runReader.head;
+                if (runReader.advance()) {
+                    runReaders.add(runReader);
+                } else {
+                    runReader.close();
+                }
+                consumer.accept(event);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            for (RunReader runReader : runReaders) {
+                runReader.close();
+            }
+        }
+    }
+
+    static Event parseEvent(CSVRecord record) {
+        Event event = new Event(
+                Integer.parseInt(record.get(0)),
+                parseInteger(record.get(1)),
+                record.get(2),
+                parseCreationDate(record.get(3)),
+                parseLong(record.get(4)),
+                record.get(5),
+                record.get(6),
+                nonNull(record.get(7)),
+                nonNull(record.get(8)),
+                record.get(11),
+                record.get(12),
+                parseBoolean(record.get(13)),
+                parseBoolean(record.get(14)),
+                parseBoolean(record.get(15))
+        );
+        event.setQuery(record.get(9));
+        event.setFragmentIdentifier(record.get(10));
+        return event;
+    }
+
+    static void printEvent(CSVPrinter csvPrinter, Event event) throws IOException {
+        csvPrinter.printRecord(
+                event.getId(),
+                event.getRootEventId(),
+                event.getUserIdentifier(),
+                formatCreationDate(event.getCreationDate()),
+                event.getDiffSeconds(),
+                event.getEventSource(),
+                event.getEventTarget(),
+                event.getReferrer(),
+                event.getUrl(),
+                event.getQuery(),
+                event.getFragmentIdentifier(),
+                event.getNormalizedReferrer(),
+                event.getNormalizedUrl(),
+                event.getBotTraffic() ? 1 : 0,
+                event.getGapInSequence() ? 1 : 0,
+                event.getPageRefresh() ? 1 : 0
+        );
+    }
+
+    // CreationDate is interpreted as UTC, only differences between timestamps matter
+    static Date parseCreationDate(String value) {
+        return Date.from(LocalDateTime.parse(value, CREATION_DATE_FORMATTER).toInstant(ZoneOffset.UTC));
+    }
+
+    static String formatCreationDate(Date creationDate) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(creationDate.getTime()), ZoneOffset.UTC)
+                .format(CREATION_DATE_FORMATTER);
+    }
+
+    private static Integer parseInteger(String value) {
+        return value == null ? null : Integer.valueOf(value);
+    }
+
+    private static Long parseLong(String value) {
+        return value == null ? null : Long.valueOf(value);
+    }
+
+    private static boolean parseBoolean(String value) {
+        return "1".equals(value);
+    }
+
+    // Url and Referrer are never NULL in table Event, but may be empty
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Detects user boundaries in an event stream ordered by user identifier.
+     */
+    private static class UserStreamSessionizer implements Consumer<Event> {
+        private final Sessionizer sessionizer;
+        private String currentUserIdentifier = null;
+        private long eventCount = 0;
+
+        UserStreamSessionizer(Sessionizer sessionizer) {
+            this.sessionizer = sessionizer;
+        }
+
+        @Override
+        public void accept(Event event) {
+            if (eventCount == 0 || !Objects.equals(event.getUserIdentifier(), currentUserIdentifier)) {
+                sessionizer.finish();
+                currentUserIdentifier = event.getUserIdentifier();
+            }
+            sessionizer.processEvent(event);
+
+            eventCount++;
+            if (eventCount % LOG_PACE == 0) {
+                logger.info(eventCount + " events processed (current user identifier: " + currentUserIdentifier + ")");
+            }
+        }
+
+        void finish() {
+            sessionizer.finish();
+        }
+    }
+
+    private static class RunReader {
+        private final CSVParser csvParser;
+        private final Iterator<CSVRecord> records;
+        private Event head;
+
+        RunReader(File runFile) throws IOException {
+            this.csvParser = new CSVParser(new BufferedReader(new FileReader(runFile)), CSV_FORMAT_EVENTS);
+            this.records = csvParser.iterator();
+        }
+
+        boolean advance() {
+            head = records.hasNext() ? parseEvent(records.next()) : null;
+            return head != null;
+        }
+
+        void close() {
+            try {
+                csvParser.close();
+            } catch (IOException e) {
+                logger.warning("Error while closing run file: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes final events to the output file.
+     */
+    private static class OutputSink implements Sessionizer.EventSink {
+        private final CSVPrinter csvPrinter;
+
+        OutputSink(CSVPrinter csvPrinter) {
+            this.csvPrinter = csvPrinter;
+        }
+
+        @Override
+        public void write(Event event) {
+            try {
+                printEvent(csvPrinter, event);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -4,22 +4,22 @@ import org.apache.commons.csv.*;
 import org.hibernate.*;
 import org.hibernate.cfg.Configuration;
 import org.sotorrent.util.LogUtils;
-import org.sotorrent.util.collections.CollectionUtils;
 import org.sotorrent.util.exceptions.ErrorUtils;
 
-import javax.persistence.TypedQuery;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Locale;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class EventIterator {
 
@@ -29,11 +29,20 @@ public class EventIterator {
     private static final CSVFormat CSV_FORMAT_USER_IDENTIFIERS;
     private static final int LOG_PACE = 1000;
     private static final String USER_IDENTIFIERS_BASE_FILENAME = "user_identifiers";
-    private static final int NAVIGATION_SEQUENCE_THRESHOLD_SECONDS = 360;
-    private static final int BOT_TRAFFIC_THRESHOLD_SECONDS = 1;
 
     private final File dataDir;
     private final int partitionCount;
+    private final ProcessingOptions options;
+    // fused mode only, null if disabled
+    private NormalizationCache normalizationCache;
+    // shared by the worker threads of the current run, null if disabled
+    private KeyProfiler.SlowKeyLog slowKeyLog = null;
+    // events processed by the current run (see beginRun)
+    private final Watermark watermark;
+    // the watermark only advances if all workers of the current run completed, workers that exit abnormally
+    // (e.g., because of a missing partition file) are never counted
+    private int workerCount = 0;
+    private final AtomicInteger completedWorkerCount = new AtomicInteger(0);
 
     static {
         // configure logger
@@ -54,8 +63,17 @@ public class EventIterator {
     }
 
     public EventIterator(Path dataDirPath, int partitionCount) {
+        this(dataDirPath, partitionCount, new ProcessingOptions());
+    }
+
+    EventIterator(Path dataDirPath, int partitionCount, ProcessingOptions options) {
         this.partitionCount = partitionCount;
+        this.options = options;
         this.dataDir = dataDirPath.toFile();
+        this.watermark = new Watermark(dataDir);
+        if (options.fused && options.normalizationCacheSize > 0) {
+            this.normalizationCache = new NormalizationCache(options.normalizationCacheSize, options.normalizationCachePolicy);
+        }
 
         // ensure that data dir exists
         try {
@@ -78,111 +96,380 @@ public class EventIterator {
                 .buildSessionFactory();
     }
 
+    /**
+     * Records the latest creation date in table Event as pending watermark. In incremental mode, only events created
+     * after the watermark of the last complete run and up to the pending watermark are processed. A resumed run keeps
+     * the pending watermark of the interrupted run.
+     */
+    void beginRun() throws IOException {
+        if (sessionFactory == null) {
+            throw new IllegalStateException("Static session factory not created yet.");
+        }
+
+        watermark.load();
+        if (options.incremental && watermark.getCreationTime() == Watermark.NONE) {
+            throw new IllegalStateException("No watermark found in " + dataDir + ", process all events first.");
+        }
+        if (!options.resume || watermark.getPendingCreationTime() == Watermark.NONE) {
+            try (StatelessSession session = sessionFactory.openStatelessSession()) {
+                watermark.begin(EventReader.readMaxCreationTime(session));
+            }
+        }
+        if (options.incremental) {
+            logger.info("Processing events created after " + Instant.ofEpochSecond(watermark.getCreationTime())
+                    + " up to " + Instant.ofEpochSecond(watermark.getPendingCreationTime()) + "...");
+        }
+    }
+
+    /**
+     * Advances the watermark once all workers have committed their events. Failed retrievals of user identifiers
+     * throw an exception, hence the run ends before.
+     */
+    void endRun() throws IOException {
+        if (workerCount == 0) {
+            logger.warning("No events have been processed, watermark has not been advanced.");
+            return;
+        }
+        if (completedWorkerCount.get() < workerCount) {
+            logger.warning((workerCount - completedWorkerCount.get()) + " of " + workerCount
+                    + " workers did not complete, watermark has not been advanced.");
+            return;
+        }
+        watermark.commit();
+    }
+
     void extractSaveAndSplitUserIdentifiers() {
         if (sessionFactory == null) {
             throw new IllegalStateException("Static session factory not created yet.");
         }
+        if (options.incremental) {
+            extractSaveAndSplitNewUserIdentifiers();
+            return;
+        }
 
         Transaction t = null; // see https://docs.jboss.org/hibernate/orm/3.3/reference/en/html/transactions.html
         try (StatelessSession session = sessionFactory.openStatelessSession()) {
             logger.info("Retrieving user identifiers with more than one event from table Event...");
+            // ordered, because scan mode derives contiguous key ranges from the partitions
             String userIdentifiersQueryString = "SELECT userIdentifier FROM Event " +
-                    "GROUP BY userIdentifier HAVING COUNT(*) > 1";
-
-            t = session.beginTransaction();
-            TypedQuery<String> userIdentifiersQuery = session.createQuery(userIdentifiersQueryString, String.class);
-            List<String> userIdentifiers = userIdentifiersQuery.getResultList();
-            logger.info(userIdentifiers.size() + " user identifiers retrieved.");
-            t.commit();
-
-            writeUserIdentifiersToCSV(userIdentifiers, USER_IDENTIFIERS_BASE_FILENAME + ".csv");
-        } catch (RuntimeException e) {
-            if (t != null) {
+                    "GROUP BY userIdentifier HAVING COUNT(*) > 1 ORDER BY userIdentifier ASC";
+
+            // stream user identifiers into the key files instead of loading all of them into memory
+            try (KeyPartitioner partitioner = new KeyPartitioner(dataDir, USER_IDENTIFIERS_BASE_FILENAME,
+                    CSV_FORMAT_USER_IDENTIFIERS, partitionCount, options.keyRouting)) {
+                t = session.beginTransaction();
+                ScrollableResults userIdentifiers = session.createQuery(userIdentifiersQueryString, String.class)
+                        .setFetchSize(Integer.MIN_VALUE) // MySQL: stream rows
+                        .setReadOnly(true)
+                        .scroll(ScrollMode.FORWARD_ONLY);
+                while (userIdentifiers.next()) {
+                    partitioner.add(userIdentifiers.get(0));
+                }
+                userIdentifiers.close();
+                partitioner.complete();
+                t.commit();
+                logger.info(partitioner.getKeyCount() + " user identifiers retrieved.");
+            }
+        } catch (RuntimeException | IOException e) {
+            if (t != null && t.isActive()) {
                 t.rollback();
-                e.printStackTrace();
             }
+            // processing incomplete key files would advance the watermark past the events of missing user identifiers
+            throw new IllegalStateException("Error while retrieving user identifiers, "
+                    + "watermark has not been advanced.", e);
         }
-
-        // split up retrieved user identifiers into partitions
-        splitUserIdentifiers();
     }
 
-    private void writeUserIdentifiersToCSV(List<String> userIdentifiers, String filename) {
-        File outputFile = Paths.get(dataDir.toString(), filename).toFile();
-        if (outputFile.exists()) {
-            if (!outputFile.delete()) {
-                throw new IllegalStateException("Error while deleting output file: " + outputFile);
+    /**
+     * Incremental mode: retrieves the user identifiers with events created after the watermark. Like a full
+     * retrieval, fails instead of continuing with incomplete key files.
+     */
+    private void extractSaveAndSplitNewUserIdentifiers() {
+        Transaction t = null;
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            logger.info("Retrieving user identifiers with new events from table Event...");
+            String userIdentifiersQueryString = "SELECT DISTINCT UserIdentifier FROM Event " +
+                    "WHERE CreationDate > TIMESTAMPADD(SECOND, ?, '1970-01-01 00:00:00') " +
+                    "AND CreationDate <= TIMESTAMPADD(SECOND, ?, '1970-01-01 00:00:00') " +
+                    "ORDER BY UserIdentifier ASC";
+
+            try (KeyPartitioner partitioner = new KeyPartitioner(dataDir, USER_IDENTIFIERS_BASE_FILENAME,
+                    CSV_FORMAT_USER_IDENTIFIERS, partitionCount, options.keyRouting)) {
+                t = session.beginTransaction();
+                try (PreparedStatement statement = Jdbc.connection(session).prepareStatement(userIdentifiersQueryString,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    statement.setFetchSize(Integer.MIN_VALUE); // MySQL: stream rows
+                    statement.setLong(1, watermark.getCreationTime());
+                    statement.setLong(2, watermark.getPendingCreationTime());
+                    try (ResultSet userIdentifiers = statement.executeQuery()) {
+                        while (userIdentifiers.next()) {
+                            partitioner.add(userIdentifiers.getString(1));
+                        }
+                    }
+                }
+                partitioner.complete();
+                t.commit();
+                logger.info(partitioner.getKeyCount() + " user identifiers retrieved.");
             }
-        }
-        logger.info("Writing data to CSV file " + outputFile.getName() + " ...");
-        try (CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(outputFile), CSV_FORMAT_USER_IDENTIFIERS)) {
-            // header is automatically written
-            for (String userIdentifier : userIdentifiers) {
-                csvPrinter.printRecord(userIdentifier);
+        } catch (RuntimeException | IOException | SQLException e) {
+            if (t != null && t.isActive()) {
+                t.rollback();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            // the new events of missing user identifiers would never be processed once the watermark advances
+            throw new IllegalStateException("Error while retrieving user identifiers with new events, "
+                    + "watermark has not been advanced.", e);
         }
     }
 
     private List<String> readUserIdentifiersFromCSV() {
-        List<String> userIdentifiers = null;
+        // one chunk with all user identifiers
+        List<List<String>> chunks = readUserIdentifierChunks(Integer.MAX_VALUE);
+        return chunks.isEmpty() ? new ArrayList<>() : chunks.get(0);
+    }
 
+    /**
+     * Streams the complete user identifier file into chunks of at most chunkSize user identifiers, without loading
+     * its records into memory first.
+     */
+    private List<List<String>> readUserIdentifierChunks(int chunkSize) {
         File inputFile = Paths.get(dataDir.toString(), USER_IDENTIFIERS_BASE_FILENAME + ".csv").toFile();
         if (!inputFile.exists()) {
             throw new IllegalArgumentException("Error while reading input file: " + inputFile);
         }
         logger.info("Reading file " + inputFile.getName() + " ...");
 
-        try (CSVParser csvParser = new CSVParser(new FileReader(inputFile), CSV_FORMAT_USER_IDENTIFIERS.withFirstRecordAsHeader())) {
-            // read all records into memory
-            List<CSVRecord> records = csvParser.getRecords();
-            userIdentifiers = records.stream()
-                    .map(r -> r.get("UserIdentifier"))
-                    .collect(Collectors.toList());
+        List<List<String>> chunks = new ArrayList<>();
+        try (KeyFileReader reader = new KeyFileReader(inputFile, CSV_FORMAT_USER_IDENTIFIERS)) {
+            List<String> chunk = new ArrayList<>();
+            String userIdentifier;
+            while ((userIdentifier = reader.next()) != null) {
+                chunk.add(userIdentifier);
+                if (chunk.size() == chunkSize) {
+                    chunks.add(chunk);
+                    chunk = new ArrayList<>();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                chunks.add(chunk);
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("Error while reading input file: " + inputFile, e);
+        }
+        return chunks;
+    }
+
+    void processEvents() {
+        List<Thread> extractionThreads = new LinkedList<>();
+        for (int i=0; i<partitionCount; i++) {
+            extractionThreads.add(new ExtractionThread(i));
         }
 
-        return userIdentifiers;
+        logger.info("Starting parallel processing of events...");
+        openSlowKeyLog();
+        workerCount += extractionThreads.size();
+        WorkerThreads.startAndJoin(extractionThreads);
+        closeSlowKeyLog();
+        logger.info("Parallel processing of events finished.");
     }
 
-    private void splitUserIdentifiers() {
-        List<String> userIdentifiers;
-        List<String>[] subLists;
+    /**
+     * Streams each partition once in (UserIdentifier, CreationDate) order instead of issuing one query per user
+     * identifier. Requires partitions with contiguous key ranges, i.e., an ordered user identifier file.
+     */
+    void processEventsByScan() {
+        try {
+            KeyPartitioner.requireRangeRouting(dataDir, USER_IDENTIFIERS_BASE_FILENAME, ".csv", partitionCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
-        logger.info("Splitting user identifiers...");
-        userIdentifiers = readUserIdentifiersFromCSV();
-        subLists = CollectionUtils.split(userIdentifiers, partitionCount);
-        for (int i=0; i<subLists.length; i++) {
-            List<String> list = subLists[i];
-            writeUserIdentifiersToCSV(list, USER_IDENTIFIERS_BASE_FILENAME + "_" + i + ".csv");
+        List<Thread> scanThreads = new LinkedList<>();
+        for (int i=0; i<partitionCount; i++) {
+            scanThreads.add(new ScanThread(i));
         }
-        logger.info("Splitting of user identifiers complete.");
-    }
 
-    void processEvents() {
-        List<ExtractionThread> extractionThreads = new LinkedList<>();
+        logger.info("Starting parallel scan of events...");
+        workerCount += scanThreads.size();
+        WorkerThreads.startAndJoin(scanThreads);
+        logger.info("Parallel scan of events finished.");
+    }
 
-        logger.info("Starting parallel processing of events...");
+    /**
+     * Processes all user identifiers in chunks of chunkSize keys, which partitionCount worker threads take from a
+     * work-stealing scheduler instead of owning one static partition each.
+     */
+    void processEventsDynamically(int chunkSize) {
+        List<List<String>> chunks = readUserIdentifierChunks(chunkSize);
+        WorkScheduler<List<String>> scheduler = new WorkScheduler<>(chunks, partitionCount);
+        int userIdentifierCount = 0;
+        for (List<String> chunk : chunks) {
+            userIdentifierCount += chunk.size();
+        }
+        logger.info(userIdentifierCount + " user identifiers split into " + chunks.size() + " chunks.");
 
+        List<Thread> workerThreads = new LinkedList<>();
         for (int i=0; i<partitionCount; i++) {
-            ExtractionThread thread = new ExtractionThread(i);
-            extractionThreads.add(thread);
-            thread.start();
-            logger.info("Thread " + i + " started...");
+            workerThreads.add(new ChunkWorkerThread(i, scheduler));
+        }
+
+        logger.info("Starting dynamically scheduled processing of events...");
+        openSlowKeyLog();
+        workerCount += workerThreads.size();
+        WorkerThreads.startAndJoin(workerThreads);
+        closeSlowKeyLog();
+        if (scheduler.getCompletedCount() < scheduler.getChunkCount()) {
+            logger.warning((scheduler.getChunkCount() - scheduler.getCompletedCount()) + " chunks have not been completed.");
         }
+        logger.info("Dynamically scheduled processing of events finished.");
+    }
 
+    /**
+     * Overlaps retrieval, sessionization, and updates of events in separate stages (see {@link EventPipeline}).
+     */
+    void processEventsPipelined() {
+        List<String> userIdentifiers = readUserIdentifiersFromCSV();
+        EventPipeline<String> pipeline = new EventPipeline<>(sessionFactory, getColumns(), options);
+
+        logger.info("Starting pipelined processing of events...");
+        boolean completed = pipeline.run(userIdentifiers, EventIterator::readUserEvents, () -> events -> {
+            List<Event> updatedEvents = new ArrayList<>(events.size());
+            Sessionizer sessionizer = new Sessionizer(createSink(updatedEvents::add));
+            for (Event event : events) {
+                sessionizer.processEvent(event);
+            }
+            sessionizer.finish();
+            return updatedEvents;
+        });
+        // the pipeline counts as one worker
+        workerCount++;
+        if (completed) {
+            completedWorkerCount.incrementAndGet();
+        }
+        logger.info("Pipelined processing of events finished.");
+    }
+
+    private EventUpdateWriter.Columns getColumns() {
+        return options.fused ? EventUpdateWriter.Columns.FUSED : EventUpdateWriter.Columns.SEQUENCE;
+    }
+
+    /**
+     * @return sink that also classifies and normalizes linear navigation sequences in fused mode
+     */
+    private Sessionizer.EventSink createSink(Sessionizer.EventSink sink) {
+        return options.fused ? new SequenceClassifier(sink, new SequenceNormalizer(normalizationCache)) : sink;
+    }
+
+    private static List<Event> readUserEvents(StatelessSession session, String userIdentifier) {
+        long startNanos = System.nanoTime();
+        List<Event> events = EventReader.read(session, EventReader.Projection.SEQUENCE,
+                Collections.singletonList(userIdentifier));
+        Metrics.FETCH_LATENCY.recordSince(startNanos);
+        return events;
+    }
+
+    private void openSlowKeyLog() {
         try {
-            for (int i=0; i<extractionThreads.size(); i++) {
-                extractionThreads.get(i).join();
-                logger.info("Thread " + i + " terminated.");
+            slowKeyLog = KeyProfiler.SlowKeyLog.open(dataDir, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void closeSlowKeyLog() {
+        if (slowKeyLog != null) {
+            try {
+                slowKeyLog.close();
+            } catch (IOException e) {
+                logger.warning(ErrorUtils.exceptionStackTraceToString(e));
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            slowKeyLog = null;
         }
+    }
 
-        logger.info("Parallel processing of events finished.");
+    /**
+     * Retrieves all events of the given user identifier and passes them to the sessionizer.
+     * @return number of processed events
+     */
+    private int processUserIdentifier(StatelessSession session, Sessionizer sessionizer, KeyProfiler profiler,
+                                      String userIdentifier) {
+        // get all events for current user identifier
+        List<Event> events = readUserEvents(session, userIdentifier);
+        profiler.fetched();
+
+        // update events in database as soon as their values are final
+        return processUserEvents(sessionizer, events);
+    }
+
+    /**
+     * Incremental mode: retrieves the new events of the given user identifier together with the events of its last
+     * navigation sequence before the watermark, so that the new events are stitched onto that sequence if they
+     * follow it within NAVIGATION_SEQUENCE_THRESHOLD_SECONDS. Only this sequence and the new ones are updated.
+     * @param classifier classifier of the sessionizer's sink in fused mode, otherwise null
+     * @return number of processed events
+     */
+    private int processNewUserEvents(StatelessSession session, Sessionizer sessionizer, SequenceClassifier classifier,
+                                     EventUpdateWriter writer, KeyProfiler profiler, String userIdentifier)
+            throws SQLException {
+        long fetchStartNanos = System.nanoTime();
+        long sequenceStart = EventReader.readLastSequenceStart(session, userIdentifier, watermark.getCreationTime());
+        List<Event> events = EventReader.readBetween(session, userIdentifier, sequenceStart,
+                watermark.getPendingCreationTime());
+        // a user identifier with bot traffic in any of its events is a possible bot (see SequenceClassifier)
+        boolean priorBotTraffic = classifier != null && sequenceStart != Watermark.NONE
+                && EventReader.readBotTrafficBefore(session, userIdentifier, sequenceStart);
+        Metrics.FETCH_LATENCY.recordSince(fetchStartNanos);
+        profiler.fetched();
+
+        if (classifier != null) {
+            classifier.setPriorBotTraffic(priorBotTraffic);
+        }
+        int eventCount = processUserEvents(sessionizer, events);
+        if (classifier != null && classifier.isBotTraffic() && !priorBotTraffic) {
+            // the earlier sequences of the user identifier are not linear non-bot sequences anymore
+            writer.deleteFromSequenceTables(userIdentifier);
+        }
+        return eventCount;
+    }
+
+    /**
+     * Retrieves the events of several user identifiers with one query.
+     * @return events of each requested user identifier in chronological order (user identifiers without events are
+     * missing)
+     */
+    private static Map<String, List<Event>> fetchUserEvents(StatelessSession session, List<String> userIdentifiers) {
+        long startNanos = System.nanoTime();
+        List<Event> events = EventReader.read(session, EventReader.Projection.SEQUENCE, userIdentifiers);
+        Metrics.FETCH_LATENCY.recordSince(startNanos);
+
+        // UserIdentifier IN (...) matches like UserIdentifier = ? under the collation of the column, i.e., also stored
+        // identifiers that differ from the requested one by case or trailing spaces, hence the events are mapped back
+        // to the requested identifier with the same semantics instead of grouping them by the stored identifier
+        Map<String, String> requestedUserIdentifiers = new HashMap<>();
+        for (String userIdentifier : userIdentifiers) {
+            requestedUserIdentifiers.put(UserIdentifierCollation.key(userIdentifier), userIdentifier);
+        }
+        Map<String, List<Event>> eventsByUserIdentifier = new HashMap<>();
+        for (Event event : events) {
+            String userIdentifier = requestedUserIdentifiers.get(UserIdentifierCollation.key(event.getUserIdentifier()));
+            if (userIdentifier == null) {
+                throw new IllegalStateException("Event " + event.getId() + " does not belong to any requested user "
+                        + "identifier: " + event.getUserIdentifier());
+            }
+            eventsByUserIdentifier.computeIfAbsent(userIdentifier, k -> new ArrayList<>()).add(event);
+        }
+        return eventsByUserIdentifier;
+    }
+
+    /**
+     * Passes already retrieved events of one user identifier to the sessionizer.
+     * @return number of processed events
+     */
+    private static int processUserEvents(Sessionizer sessionizer, List<Event> events) {
+        for (Event event : events) {
+            sessionizer.processEvent(event);
+        }
+        sessionizer.finish();
+        return events.size();
     }
 
     private class ExtractionThread extends Thread {
@@ -214,24 +501,37 @@ public class EventIterator {
             logger.info("Thread " + partition + ": Reading file " + inputFile.getName() + " ...");
             logger.info("Thread " + partition + ": Identifying navigation sequences and setting root events...");
 
-            // read all user identifiers from the CSV file and extract navigation sequences from table Event
-            Transaction t = null; // see https://docs.jboss.org/hibernate/orm/3.3/reference/en/html/transactions.html
+            // stream user identifiers from the CSV file and extract navigation sequences from table Event
+            Checkpoint checkpoint = new Checkpoint(inputFile);
+            EventUpdateWriter writer = null;
             try (StatelessSession session = sessionFactory.openStatelessSession()) {
-                try (CSVParser csvParser = new CSVParser(
-                        new FileReader(inputFile), CSV_FORMAT_USER_IDENTIFIERS.withFirstRecordAsHeader())) {
-
-                    // read all records into memory
-                    List<CSVRecord> records = csvParser.getRecords();
-                    int recordCount = records.size();
-
-                    logger.info("Thread " + partition + ": " + recordCount + " user identifiers read.");
-
+                writer = new EventUpdateWriter(session, getColumns(), options);
+                Sessionizer.EventSink sink = createSink(writer);
+                Sessionizer sessionizer = new Sessionizer(sink);
+                SequenceClassifier classifier = sink instanceof SequenceClassifier ? (SequenceClassifier) sink : null;
+
+                int recordCount = KeyFileReader.count(inputFile, CSV_FORMAT_USER_IDENTIFIERS);
+                logger.info("Thread " + partition + ": " + recordCount + " user identifiers in file.");
+
+                try (KeyFileReader reader = new KeyFileReader(inputFile, CSV_FORMAT_USER_IDENTIFIERS)) {
+                    int startIndex = checkpoint.start(options.resume, partition, recordCount, reader::skip, "user identifier");
+                    if (options.bulkOutputDir != null) {
+                        // records the new output files, so that resuming also truncates rows written before the first commit
+                        checkpoint.save(startIndex, checkpoint.getLastCommittedKey(), writer.getCommittedOutputFileSizes());
+                    }
+                    WorkerMetrics workerMetrics = Metrics.registerWorker("EventIterator-" + partition,
+                            recordCount - startIndex);
+                    KeyProfiler profiler = new KeyProfiler("EventIterator", writer, slowKeyLog);
                     int eventCount = 0;
 
+                    // events of the user identifiers [recordIndex, prefetchedUntil) if fetched in batches
+                    Map<String, List<Event>> prefetchedEvents = null;
+                    int prefetchedUntil = startIndex;
+                    String userIdentifier = checkpoint.getLastCommittedKey();
+
                     // iterate over records
-                    for (int recordIndex = 0; recordIndex < recordCount; recordIndex++) {
-                        CSVRecord record = records.get(recordIndex);
-                        String userIdentifier = record.get("UserIdentifier");
+                    for (int recordIndex = startIndex; recordIndex < recordCount; recordIndex++) {
+                        userIdentifier = reader.next();
 
                         // log only every LOG_PACE record
                         if (recordIndex == 0 || recordIndex == recordCount - 1 || recordIndex % LOG_PACE == 0) {
@@ -241,89 +541,213 @@ public class EventIterator {
                                     + " (record " + (recordIndex + 1) + " of " + recordCount + "; " + progress + ")");
                         }
 
-                        // get all events for current user identifier
-                        String currentUserIdentifierQuery = String.format("FROM Event " +
-                                        "WHERE UserIdentifier='%s' ORDER BY CreationDate ASC", userIdentifier
-                        );
-
-                        t = session.beginTransaction();
-
-                        ScrollableResults eventIterator = session.createQuery(currentUserIdentifierQuery)
-                                .scroll(ScrollMode.FORWARD_ONLY);
-
-
-                        LinkedList<Event> currentSequence = new LinkedList<>();
-
-                        while (eventIterator.next()) {
-                            Event currentEvent = (Event) eventIterator.get(0);
-                            currentSequence.add(currentEvent);
-
-                            // set root event id
-                            currentEvent.setRootEventId(currentSequence.getFirst().getId());
-
-                            if (currentSequence.size() == 1 && eventIterator.isLast()) {
-                                // not a sequence
-                                currentEvent.setRootEventId(null);
-                            } else if (currentSequence.size() > 1) {
-                                Event previousEvent = currentSequence.get(currentSequence.size()-2);
-
-                                // determine time difference to predecessor
-                                currentEvent.setDiffSeconds(previousEvent);
-
-                                // gap in event stream -> start new event sequence
-                                if (currentEvent.getDiffSeconds() > NAVIGATION_SEQUENCE_THRESHOLD_SECONDS) {
-                                    // check whether previous sequence had more than one event
-                                    if (currentSequence.size() == 2) {
-                                        // not a sequence
-                                        previousEvent.setRootEventId(null);
-                                        session.update(previousEvent);
-                                    }
-                                    // check whether new sequence has more than one event
-                                    if (eventIterator.isLast()) {
-                                        // not a sequence
-                                        currentEvent.setRootEventId(null);
-                                    } else {
-                                        // set correct root event id for new sequence
-                                        currentEvent.setRootEventId(currentEvent.getId());
-                                    }
-                                    // start new sequence
-                                    currentSequence.clear();
-                                    currentSequence.add(currentEvent);
-                                } else {
-                                    // determine whether sequence could be bot traffic
-                                    // (access to same URL in short time frame)
-                                    currentEvent.setBotTraffic(
-                                            currentEvent.getDiffSeconds() < BOT_TRAFFIC_THRESHOLD_SECONDS
-                                                    && currentEvent.getUrl().trim().equals(previousEvent.getUrl().trim())
-                                    );
-                                    // determine whether there is a gap in the sequence
-                                    // (traffic not covered by the dataset or non-linear sequence)
-                                    // check prefix, because referrers are often truncated
-                                    currentEvent.setGapInSequence(
-                                            !previousEvent.getEventTarget().equals(currentEvent.getEventSource())
-                                                    || !previousEvent.getUrl().startsWith(currentEvent.getReferrer())
-                                    );
-                                }
+                        profiler.start(userIdentifier);
+                        int userEventCount;
+                        if (options.incremental) {
+                            userEventCount = processNewUserEvents(session, sessionizer, classifier, writer, profiler,
+                                    userIdentifier);
+                        } else if (options.fetchBatchSize > 1) {
+                            // the fetch time of a batch is attributed to its first user identifier
+                            if (recordIndex >= prefetchedUntil) {
+                                List<String> batch = new ArrayList<>(options.fetchBatchSize);
+                                batch.add(userIdentifier);
+                                batch.addAll(reader.lookAhead(options.fetchBatchSize - 1));
+                                prefetchedUntil = recordIndex + batch.size();
+                                prefetchedEvents = fetchUserEvents(session, batch);
                             }
-
-                            // update event in database
-                            session.update(currentEvent);
-
-                            eventCount++;
+                            profiler.fetched();
+                            userEventCount = processUserEvents(sessionizer,
+                                    prefetchedEvents.getOrDefault(userIdentifier, Collections.emptyList()));
+                        } else {
+                            userEventCount = processUserIdentifier(session, sessionizer, profiler, userIdentifier);
                         }
+                        eventCount += userEventCount;
+                        workerMetrics.keyProcessed(userEventCount);
 
-                        // commit transaction
-                        t.commit();
+                        // commit transaction once enough events have been updated, the checkpoint follows the commit
+                        if (writer.commitIfDue()) {
+                            checkpoint.save(recordIndex + 1, userIdentifier, writer.getCommittedOutputFileSizes());
+                        }
+                        profiler.finish(userEventCount);
                     }
 
+                    writer.close();
+                    if (recordCount > 0) {
+                        checkpoint.save(recordCount, userIdentifier, writer.getCommittedOutputFileSizes());
+                    }
                     logger.info("Thread " + partition + ": " + eventCount + " events have been processed.");
+                    completedWorkerCount.incrementAndGet();
                 }
             } catch (Exception e) {
                 logger.warning(ErrorUtils.exceptionStackTraceToString(e));
-                if (t != null) {
-                    t.rollback();
+                if (writer != null) {
+                    writer.rollback();
                 }
             }
         }
     }
+
+    private class ChunkWorkerThread extends Thread {
+        private final int worker;
+        private final WorkScheduler<List<String>> scheduler;
+
+        ChunkWorkerThread(int worker, WorkScheduler<List<String>> scheduler) {
+            this.worker = worker;
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void run() {
+            if (sessionFactory == null) {
+                throw new IllegalStateException("Static session factory not created yet.");
+            }
+
+            EventUpdateWriter writer = null;
+            try (StatelessSession session = sessionFactory.openStatelessSession()) {
+                writer = new EventUpdateWriter(session, getColumns(), options);
+                Sessionizer sessionizer = new Sessionizer(createSink(writer));
+                WorkerMetrics workerMetrics = Metrics.registerWorker("EventIterator-" + worker, 0);
+                KeyProfiler profiler = new KeyProfiler("EventIterator", writer, slowKeyLog);
+                int chunkCount = 0;
+                int eventCount = 0;
+
+                WorkScheduler.Chunk<List<String>> chunk;
+                while ((chunk = scheduler.next(worker)) != null) {
+                    for (String userIdentifier : chunk.keys) {
+                        profiler.start(userIdentifier);
+                        int userEventCount = processUserIdentifier(session, sessionizer, profiler, userIdentifier);
+                        eventCount += userEventCount;
+                        workerMetrics.keyProcessed(userEventCount);
+                        writer.commitIfDue();
+                        profiler.finish(userEventCount);
+                    }
+                    // a chunk is only complete once its updates are committed
+                    writer.commit();
+                    scheduler.complete(chunk);
+                    chunkCount++;
+                }
+
+                writer.close();
+                logger.info("Thread " + worker + ": " + chunkCount + " chunks with " + eventCount
+                        + " events have been processed.");
+                completedWorkerCount.incrementAndGet();
+            } catch (Exception e) {
+                logger.warning(ErrorUtils.exceptionStackTraceToString(e));
+                if (writer != null) {
+                    writer.rollback();
+                }
+            }
+        }
+    }
+
+    private class ScanThread extends RangeScanThread {
+        private String firstUserIdentifier = null;
+        private String lastUserIdentifier = null;
+        private int recordCount;
+        private Sessionizer sessionizer;
+        private WorkerMetrics workerMetrics;
+        private Event firstEventOfUser = null;
+        private int userEventCount = 0;
+        private int userCount = 0;
+        private int eventCount = 0;
+
+        ScanThread(int partition) {
+            super(sessionFactory, Paths.get(dataDir.toString(), USER_IDENTIFIERS_BASE_FILENAME + "_" + partition + ".csv").toFile(),
+                    partition, getColumns(), options);
+        }
+
+        // read first and last user identifier of the partition (file is ordered by user identifier)
+        @Override
+        int readPartition(File inputFile) throws IOException {
+            try (CSVParser csvParser = new CSVParser(
+                    new FileReader(inputFile), CSV_FORMAT_USER_IDENTIFIERS.withFirstRecordAsHeader())) {
+                for (CSVRecord record : csvParser) {
+                    String userIdentifier = record.get("UserIdentifier");
+                    // overlapping ranges of unordered partitions would process user identifiers in several threads
+                    if (lastUserIdentifier != null
+                            && UserIdentifierCollation.compare(userIdentifier, lastUserIdentifier) <= 0) {
+                        throw new IllegalStateException("Thread " + partition + ": User identifiers in " + inputFile.getName()
+                                + " are not ordered, retrieve them again with range routing.");
+                    }
+                    lastUserIdentifier = userIdentifier;
+                    if (firstUserIdentifier == null) {
+                        firstUserIdentifier = lastUserIdentifier;
+                    }
+                    recordCount++;
+                }
+            }
+            if (recordCount > 0) {
+                logger.info("Thread " + partition + ": " + recordCount + " user identifiers read (range "
+                        + firstUserIdentifier + " to " + lastUserIdentifier + ").");
+            }
+            return recordCount;
+        }
+
+        @Override
+        EventReader.Cursor openCursor(StatelessSession readSession) {
+            logger.info("Thread " + partition + ": Scanning events, identifying navigation sequences and setting root events...");
+            // ordered by index event_index_5 (UserIdentifier, CreationDate), id makes the order deterministic
+            return EventReader.scan(readSession, EventReader.Projection.SEQUENCE, firstUserIdentifier, lastUserIdentifier);
+        }
+
+        @Override
+        void startScan(EventUpdateWriter writer, int recordCount) {
+            sessionizer = new Sessionizer(createSink(writer));
+            workerMetrics = Metrics.registerWorker("EventIterator-" + partition, recordCount);
+        }
+
+        @Override
+        boolean isSameKey(Event previousEvent, Event event) {
+            return event.getUserIdentifier().equals(previousEvent.getUserIdentifier());
+        }
+
+        @Override
+        void startKey(Event event) {
+            firstEventOfUser = event;
+            userEventCount = 0;
+        }
+
+        @Override
+        void processEvent(Event event) {
+            userEventCount++;
+
+            // user identifiers with only one event are not processed (see extractSaveAndSplitUserIdentifiers)
+            if (userEventCount == 2) {
+                // log only every LOG_PACE user identifier
+                if (userCount % LOG_PACE == 0) {
+                    // Locale.ROOT -> force '.' as decimal separator
+                    String progress = String.format(Locale.ROOT, "%.2f%%", (((double) (userCount + 1)) / recordCount * 100));
+                    logger.info("Thread " + partition + ": Current user identifier: " + event.getUserIdentifier()
+                            + " (user " + (userCount + 1) + " of " + recordCount + "; " + progress + ")");
+                }
+
+                sessionizer.processEvent(firstEventOfUser);
+                eventCount++;
+            }
+            if (userEventCount >= 2) {
+                sessionizer.processEvent(event);
+                eventCount++;
+            }
+        }
+
+        @Override
+        void finishKey() {
+            if (userEventCount > 1) {
+                sessionizer.finish();
+                workerMetrics.keyProcessed(userEventCount);
+                userCount++;
+            }
+        }
+
+        @Override
+        void finishScan() {
+            logger.info("Thread " + partition + ": " + userCount + " user identifiers with "
+                    + eventCount + " events have been processed.");
+        }
+
+        @Override
+        void completed() {
+            completedWorkerCount.incrementAndGet();
+        }
+    }
 }
@@ -0,0 +1,265 @@
+package org.sotorrent.stint;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.sotorrent.util.LogUtils;
+import org.sotorrent.util.exceptions.ErrorUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Processes keys (user identifiers or root event ids) in three stages connected by bounded queues: reader threads
+ * retrieve the events of one key each, compute threads sessionize or normalize them, and writer threads send the
+ * updates to the database. Thus, database reads, computation, and database writes overlap, and a full queue slows
+ * down the preceding stage (backpressure). Each reader and writer thread uses its own session.
+ *
+ * @param <K> type of the keys
+ */
+class EventPipeline<K> {
+
+    private static Logger logger = null;
+
+    private static final int LOG_PACE = 1000;
+    private static final long POLL_TIMEOUT_MILLISECONDS = 100;
+    // marks the end of a queue, compared by identity
+    private static final List<Event> END_OF_QUEUE = new ArrayList<>(0);
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(EventPipeline.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    interface Reader<K> {
+        /**
+         * @return events of the given key in chronological order
+         */
+        List<Event> read(StatelessSession session, K key);
+    }
+
+    interface Processor {
+        /**
+         * @return events that need to be updated
+         */
+        List<Event> process(List<Event> events);
+    }
+
+    private final SessionFactory sessionFactory;
+    private final EventUpdateWriter.Columns columns;
+    private final ProcessingOptions options;
+
+    private final BlockingQueue<List<Event>> readQueue;
+    private final BlockingQueue<List<Event>> writeQueue;
+    private final AtomicInteger nextKeyIndex = new AtomicInteger(0);
+    private final AtomicInteger runningReaders;
+    private final AtomicInteger runningProcessors;
+    private final AtomicInteger writtenKeyCount = new AtomicInteger(0);
+    private final AtomicInteger writtenEventCount = new AtomicInteger(0);
+    private volatile boolean failed = false;
+    private WorkerMetrics workerMetrics;
+
+    EventPipeline(SessionFactory sessionFactory, EventUpdateWriter.Columns columns, ProcessingOptions options) {
+        this.sessionFactory = sessionFactory;
+        this.columns = columns;
+        this.options = options;
+        this.readQueue = new ArrayBlockingQueue<>(options.queueCapacity);
+        this.writeQueue = new ArrayBlockingQueue<>(options.queueCapacity);
+        this.runningReaders = new AtomicInteger(options.readerThreads);
+        this.runningProcessors = new AtomicInteger(options.computeThreads);
+    }
+
+    /**
+     * Runs all stages until every key has been processed or one stage failed.
+     * @param processorFactory called once per compute thread
+     * @return false if a stage failed (the failed writer's uncommitted updates are rolled back)
+     */
+    boolean run(List<K> keys, Reader<K> reader, Supplier<Processor> processorFactory) {
+        if (sessionFactory == null) {
+            throw new IllegalStateException("Static session factory not created yet.");
+        }
+
+        logger.info("Processing " + keys.size() + " keys with " + options.readerThreads + " reader, "
+                + options.computeThreads + " compute, and " + options.writerThreads + " writer threads (queue capacity: "
+                + options.queueCapacity + ")...");
+
+        workerMetrics = Metrics.registerWorker("EventPipeline", keys.size());
+        Metrics.registerQueue("read", readQueue);
+        Metrics.registerQueue("write", writeQueue);
+
+        List<Thread> threads = new LinkedList<>();
+        for (int i=0; i<options.readerThreads; i++) {
+            threads.add(new ReaderThread(i, keys, reader));
+        }
+        for (int i=0; i<options.computeThreads; i++) {
+            threads.add(new ComputeThread(i, processorFactory.get()));
+        }
+        for (int i=0; i<options.writerThreads; i++) {
+            threads.add(new WriterThread(i, keys.size()));
+        }
+
+        WorkerThreads.startAndJoin(threads);
+
+        logger.info(writtenKeyCount.get() + " keys with " + writtenEventCount.get() + " events have been processed"
+                + (failed ? " before a stage failed." : "."));
+        return !failed;
+    }
+
+    /**
+     * Waits until the queue has space or a stage failed.
+     * @return false if a stage failed
+     */
+    private boolean put(BlockingQueue<List<Event>> queue, List<Event> events) throws InterruptedException {
+        while (!failed) {
+            if (queue.offer(events, POLL_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits until the queue has an element or a stage failed.
+     * @return null if a stage failed
+     */
+    private List<Event> take(BlockingQueue<List<Event>> queue) throws InterruptedException {
+        while (!failed) {
+            List<Event> events = queue.poll(POLL_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+            if (events != null) {
+                return events;
+            }
+        }
+        return null;
+    }
+
+    private void fail(String stage, Exception e) {
+        failed = true;
+        logger.warning(stage + ": " + ErrorUtils.exceptionStackTraceToString(e));
+    }
+
+    private class ReaderThread extends Thread {
+        private final int index;
+        private final List<K> keys;
+        private final Reader<K> reader;
+
+        ReaderThread(int index, List<K> keys, Reader<K> reader) {
+            this.index = index;
+            this.keys = keys;
+            this.reader = reader;
+        }
+
+        @Override
+        public void run() {
+            try (StatelessSession session = sessionFactory.openStatelessSession()) {
+                int keyIndex;
+                while (!failed && (keyIndex = nextKeyIndex.getAndIncrement()) < keys.size()) {
+                    if (!put(readQueue, reader.read(session, keys.get(keyIndex)))) {
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                fail("Reader " + index, e);
+                return;
+            }
+
+            try {
+                // the last reader tells all compute threads that no more events follow
+                if (runningReaders.decrementAndGet() == 0) {
+                    for (int i=0; i<options.computeThreads; i++) {
+                        put(readQueue, END_OF_QUEUE);
+                    }
+                }
+            } catch (InterruptedException e) {
+                fail("Reader " + index, e);
+            }
+        }
+    }
+
+    private class ComputeThread extends Thread {
+        private final int index;
+        private final Processor processor;
+
+        ComputeThread(int index, Processor processor) {
+            this.index = index;
+            this.processor = processor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<Event> events;
+                while ((events = take(readQueue)) != null && events != END_OF_QUEUE) {
+                    if (!put(writeQueue, processor.process(events))) {
+                        return;
+                    }
+                }
+
+                // the last compute thread tells all writers that no more updates follow
+                if (events == END_OF_QUEUE && runningProcessors.decrementAndGet() == 0) {
+                    for (int i=0; i<options.writerThreads; i++) {
+                        put(writeQueue, END_OF_QUEUE);
+                    }
+                }
+            } catch (Exception e) {
+                fail("Compute thread " + index, e);
+            }
+        }
+    }
+
+    private class WriterThread extends Thread {
+        private final int index;
+        private final int keyCount;
+
+        WriterThread(int index, int keyCount) {
+            this.index = index;
+            this.keyCount = keyCount;
+        }
+
+        @Override
+        public void run() {
+            EventUpdateWriter writer = null;
+            try (StatelessSession session = sessionFactory.openStatelessSession()) {
+                writer = new EventUpdateWriter(session, columns, options);
+
+                List<Event> events;
+                while ((events = take(writeQueue)) != null && events != END_OF_QUEUE) {
+                    for (Event event : events) {
+                        writer.write(event);
+                    }
+                    // commit transaction once enough events have been updated
+                    writer.commitIfDue();
+
+                    writtenEventCount.addAndGet(events.size());
+                    workerMetrics.keyProcessed(events.size());
+                    int writtenKeys = writtenKeyCount.incrementAndGet();
+                    if (writtenKeys % LOG_PACE == 0) {
+                        logger.info(writtenKeys + " of " + keyCount + " keys written (read queue: " + readQueue.size()
+                                + ", write queue: " + writeQueue.size() + ")");
+                    }
+                }
+
+                if (events == END_OF_QUEUE) {
+                    writer.close();
+                } else {
+                    writer.rollback();
+                }
+            } catch (Exception e) {
+                fail("Writer " + index, e);
+                if (writer != null) {
+                    writer.rollback();
+                }
+            }
+        }
+    }
+}
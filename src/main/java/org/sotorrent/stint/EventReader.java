@@ -0,0 +1,244 @@
+package org.sotorrent.stint;
+
+import org.hibernate.StatelessSession;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads events from table Event with plain JDBC instead of HQL. Only the columns needed by the respective processing
+ * phase are selected (e.g., no TEXT columns written by the other phase), CreationDate is read as epoch seconds, and
+ * the events are not managed by Hibernate. Events are ordered by key, CreationDate, and Id.
+ */
+class EventReader {
+
+    enum Projection {
+        // columns read by EventIterator (Sessionizer), keyed by UserIdentifier
+        SEQUENCE("Id, UserIdentifier, TIMESTAMPDIFF(SECOND, '1970-01-01 00:00:00', CreationDate), " +
+                "EventSource, EventTarget, Referrer, Url", "UserIdentifier"),
+        // columns read by LinearSequenceIterator (SequenceNormalizer), keyed by RootEventId
+        NORMALIZATION("Id, RootEventId, TIMESTAMPDIFF(SECOND, '1970-01-01 00:00:00', CreationDate), " +
+                "EventSource, EventTarget, Referrer, Url", "RootEventId"),
+        // SEQUENCE and DiffSeconds, which the Sessionizer does not set for the first event of a resumed sequence
+        INCREMENTAL("Id, UserIdentifier, TIMESTAMPDIFF(SECOND, '1970-01-01 00:00:00', CreationDate), " +
+                "EventSource, EventTarget, Referrer, Url, DiffSeconds", "UserIdentifier");
+
+        private final String columns;
+        private final String keyColumn;
+
+        Projection(String columns, String keyColumn) {
+            this.columns = columns;
+            this.keyColumn = keyColumn;
+        }
+    }
+
+    // counterpart of TIMESTAMPDIFF for epoch seconds
+    private static final String FROM_EPOCH_SECONDS = "TIMESTAMPADD(SECOND, ?, '1970-01-01 00:00:00')";
+
+    private EventReader() {}
+
+    /**
+     * @return events of the given keys (user identifiers or root event ids)
+     */
+    static List<Event> read(StatelessSession session, Projection projection, List<?> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // TIMESTAMPDIFF instead of UNIX_TIMESTAMP: independent of the session time zone, like DATETIME differences
+        String sql = "SELECT " + projection.columns + " FROM Event WHERE " + projection.keyColumn + " IN ("
+                + String.join(",", Collections.nCopies(keys.size(), "?")) + ") "
+                + "ORDER BY " + projection.keyColumn + ", CreationDate, Id";
+
+        Connection connection = Jdbc.connection(session);
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < keys.size(); i++) {
+                statement.setObject(i + 1, keys.get(i));
+            }
+            List<Event> events = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    events.add(toEvent(resultSet, projection));
+                }
+            }
+            return events;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error while reading events of " + keys.size() + " keys", e);
+        }
+    }
+
+    /**
+     * Streams all events with a key in [firstKey, lastKey]. A streaming result set blocks its connection, hence the
+     * session must not be used for anything else until the cursor is closed.
+     */
+    static Cursor scan(StatelessSession session, Projection projection, Object firstKey, Object lastKey) {
+        String sql = "SELECT " + projection.columns + " FROM Event "
+                + "WHERE " + projection.keyColumn + " >= ? AND " + projection.keyColumn + " <= ? "
+                + "ORDER BY " + projection.keyColumn + ", CreationDate, Id";
+
+        Connection connection = Jdbc.connection(session);
+        try {
+            PreparedStatement statement = connection.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(Integer.MIN_VALUE); // MySQL: stream rows instead of loading the whole range
+            statement.setObject(1, firstKey);
+            statement.setObject(2, lastKey);
+            return new Cursor(statement, statement.executeQuery(), projection);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error while scanning events from " + firstKey + " to " + lastKey, e);
+        }
+    }
+
+    /**
+     * @return latest creation time (epoch seconds) in table Event, {@link Watermark#NONE} if it is empty
+     */
+    static long readMaxCreationTime(StatelessSession session) {
+        String sql = "SELECT TIMESTAMPDIFF(SECOND, '1970-01-01 00:00:00', MAX(CreationDate)) FROM Event";
+        try (PreparedStatement statement = Jdbc.connection(session).prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            long creationTime = resultSet.getLong(1);
+            return resultSet.wasNull() ? Watermark.NONE : creationTime;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error while reading latest creation date", e);
+        }
+    }
+
+    /**
+     * @return creation time of the first event of the last navigation sequence (or single event) of the given user
+     * identifier that started at or before the watermark, {@link Watermark#NONE} if there is none
+     */
+    static long readLastSequenceStart(StatelessSession session, String userIdentifier, long watermark) {
+        // the root event of the user's last event before the watermark, or that event itself if it is no sequence
+        String sql = "SELECT TIMESTAMPDIFF(SECOND, '1970-01-01 00:00:00', r.CreationDate) "
+                + "FROM Event l JOIN Event r ON r.Id = COALESCE(l.RootEventId, l.Id) "
+                + "WHERE l.UserIdentifier = ? AND l.CreationDate <= " + FROM_EPOCH_SECONDS + " "
+                + "ORDER BY l.CreationDate DESC, l.Id DESC LIMIT 1";
+        try (PreparedStatement statement = Jdbc.connection(session).prepareStatement(sql)) {
+            statement.setString(1, userIdentifier);
+            statement.setLong(2, watermark);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : Watermark.NONE;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error while reading last sequence of user identifier " + userIdentifier, e);
+        }
+    }
+
+    /**
+     * @return true if an event of the given user identifier created before the given time is bot traffic
+     */
+    static boolean readBotTrafficBefore(StatelessSession session, String userIdentifier, long creationTime) {
+        String sql = "SELECT EXISTS(SELECT 1 FROM Event WHERE UserIdentifier = ? "
+                + "AND CreationDate < " + FROM_EPOCH_SECONDS + " AND BotTraffic = TRUE)";
+        try (PreparedStatement statement = Jdbc.connection(session).prepareStatement(sql)) {
+            statement.setString(1, userIdentifier);
+            statement.setLong(2, creationTime);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getBoolean(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error while reading bot traffic of user identifier " + userIdentifier, e);
+        }
+    }
+
+    /**
+     * @return events of the given user identifier created in [fromCreationTime, toCreationTime] (epoch seconds,
+     * {@link Watermark#NONE} for no lower bound), with projection {@link Projection#INCREMENTAL}
+     */
+    static List<Event> readBetween(StatelessSession session, String userIdentifier,
+                                   long fromCreationTime, long toCreationTime) {
+        String sql = "SELECT " + Projection.INCREMENTAL.columns + " FROM Event WHERE UserIdentifier = ? "
+                + (fromCreationTime == Watermark.NONE ? "" : "AND CreationDate >= " + FROM_EPOCH_SECONDS + " ")
+                + "AND CreationDate <= " + FROM_EPOCH_SECONDS + " "
+                + "ORDER BY UserIdentifier, CreationDate, Id";
+        try (PreparedStatement statement = Jdbc.connection(session).prepareStatement(sql)) {
+            int parameterIndex = 1;
+            statement.setString(parameterIndex++, userIdentifier);
+            if (fromCreationTime != Watermark.NONE) {
+                statement.setLong(parameterIndex++, fromCreationTime);
+            }
+            statement.setLong(parameterIndex, toCreationTime);
+            List<Event> events = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    events.add(toEvent(resultSet, Projection.INCREMENTAL));
+                }
+            }
+            return events;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error while reading new events of user identifier " + userIdentifier, e);
+        }
+    }
+
+    static class Cursor implements Closeable {
+        private final PreparedStatement statement;
+        private final ResultSet resultSet;
+        private final Projection projection;
+
+        private Cursor(PreparedStatement statement, ResultSet resultSet, Projection projection) {
+            this.statement = statement;
+            this.resultSet = resultSet;
+            this.projection = projection;
+        }
+
+        /**
+         * @return next event or null if there are no more events
+         */
+        Event next() {
+            try {
+                return resultSet.next() ? toEvent(resultSet, projection) : null;
+            } catch (SQLException e) {
+                throw new IllegalStateException("Error while scanning events", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                resultSet.close();
+                statement.close();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Error while closing event cursor", e);
+            }
+        }
+    }
+
+    private static Event toEvent(ResultSet resultSet, Projection projection) throws SQLException {
+        Event event = new Event();
+        event.setId(resultSet.getInt(1));
+        switch (projection) {
+            case SEQUENCE:
+            case INCREMENTAL:
+                event.setUserIdentifier(resultSet.getString(2));
+                event.setCreationTime(resultSet.getLong(3) * 1000);
+                event.setEventSource(resultSet.getString(4));
+                event.setEventTarget(resultSet.getString(5));
+                event.setReferrer(resultSet.getString(6));
+                event.setUrl(resultSet.getString(7));
+                if (projection == Projection.INCREMENTAL) {
+                    long diffSeconds = resultSet.getLong(8);
+                    event.setDiffSeconds(resultSet.wasNull() ? null : diffSeconds);
+                }
+                break;
+            case NORMALIZATION:
+                int rootEventId = resultSet.getInt(2);
+                event.setRootEventId(resultSet.wasNull() ? null : rootEventId);
+                // needed to classify sequences by their last event (see SequenceTable)
+                event.setCreationTime(resultSet.getLong(3) * 1000);
+                event.setEventSource(resultSet.getString(4));
+                event.setEventTarget(resultSet.getString(5));
+                event.setReferrer(resultSet.getString(6));
+                event.setUrl(resultSet.getString(7));
+                break;
+        }
+        return event;
+    }
+}
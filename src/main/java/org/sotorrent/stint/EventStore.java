@@ -0,0 +1,223 @@
+package org.sotorrent.stint;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Columnar, memory-mapped copy of the Event columns read by the sessionization, sorted by
+ * (UserIdentifier, CreationDate, Id). Written by {@link EventStoreWriter}.
+ *
+ * Layout of the store directory (all numbers big-endian):
+ *   store.properties               row count, user count, and format version
+ *   id.bin                         int Id per row
+ *   user_offsets.bin               long first row per user code (userCount + 1 entries), codes are assigned in
+ *                                  stream order, i.e., the rows of a user code are contiguous
+ *   users.txt                      UserIdentifier per user code, one per line
+ *   creation.bin                   long CreationDate per row (seconds since epoch, UTC)
+ *   source.bin, target.bin         byte EventSource/EventTarget code per row, 0 is NULL
+ *   event_types.txt                EventSource/EventTarget per code (starting at 1), one per line
+ *   url.offsets, referrer.offsets  long offset per row into the byte file (rowCount + 1 entries)
+ *   url.bytes, referrer.bytes      UTF-8 bytes of Url/Referrer
+ */
+class EventStore {
+
+    static final String DEFAULT_DIRNAME = "event_store";
+    static final int FORMAT_VERSION = 1;
+
+    static final String PROPERTIES_FILENAME = "store.properties";
+    static final String ID_FILENAME = "id.bin";
+    static final String USER_OFFSETS_FILENAME = "user_offsets.bin";
+    static final String USERS_FILENAME = "users.txt";
+    static final String CREATION_FILENAME = "creation.bin";
+    static final String SOURCE_FILENAME = "source.bin";
+    static final String TARGET_FILENAME = "target.bin";
+    static final String EVENT_TYPES_FILENAME = "event_types.txt";
+    static final String URL_BASE_FILENAME = "url";
+    static final String REFERRER_BASE_FILENAME = "referrer";
+
+    private final Path storeDir;
+    private final int rowCount;
+    private final int userCount;
+
+    private final MappedColumn ids;
+    private final MappedColumn userOffsets;
+    private final MappedColumn creationDates;
+    private final MappedColumn eventSources;
+    private final MappedColumn eventTargets;
+    private final MappedColumn urlOffsets;
+    private final MappedColumn urlBytes;
+    private final MappedColumn referrerOffsets;
+    private final MappedColumn referrerBytes;
+    private final String[] eventTypes;
+
+    EventStore(Path storeDir) throws IOException {
+        this.storeDir = storeDir;
+
+        Properties properties = new Properties();
+        try (FileReader reader = new FileReader(storeDir.resolve(PROPERTIES_FILENAME).toFile())) {
+            properties.load(reader);
+        }
+        int version = Integer.parseInt(properties.getProperty("version"));
+        if (version != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported event store version " + version + " in " + storeDir);
+        }
+        rowCount = Integer.parseInt(properties.getProperty("rowCount"));
+        userCount = Integer.parseInt(properties.getProperty("userCount"));
+
+        ids = new MappedColumn(storeDir.resolve(ID_FILENAME));
+        userOffsets = new MappedColumn(storeDir.resolve(USER_OFFSETS_FILENAME));
+        creationDates = new MappedColumn(storeDir.resolve(CREATION_FILENAME));
+        eventSources = new MappedColumn(storeDir.resolve(SOURCE_FILENAME));
+        eventTargets = new MappedColumn(storeDir.resolve(TARGET_FILENAME));
+        urlOffsets = new MappedColumn(storeDir.resolve(URL_BASE_FILENAME + ".offsets"));
+        urlBytes = new MappedColumn(storeDir.resolve(URL_BASE_FILENAME + ".bytes"));
+        referrerOffsets = new MappedColumn(storeDir.resolve(REFERRER_BASE_FILENAME + ".offsets"));
+        referrerBytes = new MappedColumn(storeDir.resolve(REFERRER_BASE_FILENAME + ".bytes"));
+
+        List<String> eventTypeList = Files.readAllLines(storeDir.resolve(EVENT_TYPES_FILENAME), StandardCharsets.UTF_8);
+        eventTypes = new String[eventTypeList.size() + 1];
+        for (int i=0; i<eventTypeList.size(); i++) {
+            eventTypes[i + 1] = eventTypeList.get(i);
+        }
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    int getUserCount() {
+        return userCount;
+    }
+
+    /**
+     * @return first row of the given user code; for userCode == userCount, the row count
+     */
+    int getFirstRow(int userCode) {
+        return (int) userOffsets.getLong(userCode);
+    }
+
+    /**
+     * Splits the user codes into partitionCount contiguous ranges with approximately the same number of rows.
+     * @return partitionCount + 1 boundaries, partition i covers user codes [boundaries[i], boundaries[i+1])
+     */
+    int[] splitUserCodes(int partitionCount) {
+        int[] boundaries = new int[partitionCount + 1];
+        boundaries[partitionCount] = userCount;
+        for (int i=1; i<partitionCount; i++) {
+            long targetRow = (long) rowCount * i / partitionCount;
+            // first user code starting at or after the target row
+            int low = boundaries[i - 1];
+            int high = userCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (getFirstRow(middle) < targetRow) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            boundaries[i] = low;
+        }
+        return boundaries;
+    }
+
+    int getId(int row) {
+        return ids.getInt(row);
+    }
+
+    long getCreationSeconds(int row) {
+        return creationDates.getLong(row);
+    }
+
+    byte getEventSourceCode(int row) {
+        return eventSources.getByte(row);
+    }
+
+    byte getEventTargetCode(int row) {
+        return eventTargets.getByte(row);
+    }
+
+    String getEventType(byte code) {
+        return eventTypes[code & 0xFF];
+    }
+
+    String getUrl(int row) {
+        return getString(urlOffsets, urlBytes, row);
+    }
+
+    String getReferrer(int row) {
+        return getString(referrerOffsets, referrerBytes, row);
+    }
+
+    /**
+     * Equivalent to url(row).trim().equals(url(otherRow).trim()) without decoding: String.trim() removes characters
+     * up to ' ', which in UTF-8 are exactly the bytes up to 0x20.
+     */
+    boolean urlsEqualTrimmed(int row, int otherRow) {
+        long start = trimStart(urlBytes, urlOffsets.getLong(row), urlOffsets.getLong(row + 1));
+        long end = trimEnd(urlBytes, start, urlOffsets.getLong(row + 1));
+        long otherStart = trimStart(urlBytes, urlOffsets.getLong(otherRow), urlOffsets.getLong(otherRow + 1));
+        long otherEnd = trimEnd(urlBytes, otherStart, urlOffsets.getLong(otherRow + 1));
+        if (end - start != otherEnd - otherStart) {
+            return false;
+        }
+        for (long i=0; i<end-start; i++) {
+            if (urlBytes.getByte(start + i) != urlBytes.getByte(otherStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Equivalent to url(urlRow).startsWith(referrer(referrerRow)) without decoding (UTF-8 preserves prefixes).
+     */
+    boolean urlStartsWithReferrer(int urlRow, int referrerRow) {
+        long urlStart = urlOffsets.getLong(urlRow);
+        long urlLength = urlOffsets.getLong(urlRow + 1) - urlStart;
+        long referrerStart = referrerOffsets.getLong(referrerRow);
+        long referrerLength = referrerOffsets.getLong(referrerRow + 1) - referrerStart;
+        if (referrerLength > urlLength) {
+            return false;
+        }
+        for (long i=0; i<referrerLength; i++) {
+            if (urlBytes.getByte(urlStart + i) != referrerBytes.getByte(referrerStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the user identifier dictionary (only needed for output, not for processing).
+     */
+    List<String> readUserIdentifiers() throws IOException {
+        return Files.readAllLines(storeDir.resolve(USERS_FILENAME), StandardCharsets.UTF_8);
+    }
+
+    private static String getString(MappedColumn offsets, MappedColumn bytes, int row) {
+        long start = offsets.getLong(row);
+        byte[] value = new byte[(int) (offsets.getLong(row + 1) - start)];
+        bytes.getBytes(start, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static long trimStart(MappedColumn bytes, long start, long end) {
+        while (start < end && (bytes.getByte(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static long trimEnd(MappedColumn bytes, long start, long end) {
+        while (end > start && (bytes.getByte(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+}
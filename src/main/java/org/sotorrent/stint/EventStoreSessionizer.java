@@ -0,0 +1,169 @@
+package org.sotorrent.stint;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.util.LogUtils;
+import org.sotorrent.util.exceptions.ErrorUtils;
+
+import java.io.*;
+import java.nio.file.Paths;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Applies the rules of {@link Sessionizer} directly to the columns of an {@link EventStore}, without creating
+ * objects per row. Partitions are contiguous user code ranges with approximately the same number of events.
+ * Thresholds are configurable to support experiments.
+ */
+class EventStoreSessionizer {
+
+    static final int NULL_ROOT_EVENT_ID = -1;
+    static final long NULL_DIFF_SECONDS = Long.MIN_VALUE;
+
+    private static Logger logger = null;
+
+    private static final CSVFormat CSV_FORMAT_SEQUENCES;
+    private static final int LOG_PACE = 1000000;
+    private static final String SEQUENCES_BASE_FILENAME = "event_store_sequences";
+
+    private final EventStore eventStore;
+    private final File dataDir;
+    private final int partitionCount;
+    private final int navigationSequenceThresholdSeconds;
+    private final int botTrafficThresholdSeconds;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(EventStoreSessionizer.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for output
+        CSV_FORMAT_SEQUENCES = CSVFormat.DEFAULT
+                .withHeader("Id", "RootEventId", "DiffSeconds", "BotTraffic", "GapInSequence")
+                .withDelimiter(',')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("");
+    }
+
+    interface RowSink {
+        void write(int row, int rootEventId, long diffSeconds, boolean botTraffic, boolean gapInSequence);
+    }
+
+    EventStoreSessionizer(EventStore eventStore, File dataDir, int partitionCount, ProcessingOptions options) {
+        this.eventStore = eventStore;
+        this.dataDir = dataDir;
+        this.partitionCount = partitionCount;
+        this.navigationSequenceThresholdSeconds = options.navigationSequenceThresholdSeconds;
+        this.botTrafficThresholdSeconds = options.botTrafficThresholdSeconds;
+    }
+
+    void processEventStore() {
+        int[] boundaries = eventStore.splitUserCodes(partitionCount);
+        List<Thread> threads = new LinkedList<>();
+
+        logger.info("Starting parallel sessionization of " + eventStore.getRowCount() + " events (thresholds: "
+                + navigationSequenceThresholdSeconds + "s navigation sequence, " + botTrafficThresholdSeconds + "s bot traffic)...");
+
+        for (int i=0; i<partitionCount; i++) {
+            threads.add(new PartitionThread(i, boundaries[i], boundaries[i + 1]));
+        }
+        WorkerThreads.startAndJoin(threads);
+
+        logger.info("Parallel sessionization of event store finished.");
+    }
+
+    /**
+     * Sessionizes the events of the user codes [fromUserCode, toUserCode) and passes each row to the sink once,
+     * in row order.
+     */
+    void sessionizeUsers(int fromUserCode, int toUserCode, RowSink sink) {
+        for (int userCode = fromUserCode; userCode < toUserCode; userCode++) {
+            int firstRow = eventStore.getFirstRow(userCode);
+            int endRow = eventStore.getFirstRow(userCode + 1);
+
+            int sequenceStartRow = firstRow;
+            // values of the previous row, which is written once its sequence continues or ends
+            long pendingDiffSeconds = NULL_DIFF_SECONDS;
+            boolean pendingBotTraffic = false;
+            boolean pendingGapInSequence = false;
+
+            for (int row = firstRow + 1; row < endRow; row++) {
+                long diffSeconds = eventStore.getCreationSeconds(row) - eventStore.getCreationSeconds(row - 1);
+                boolean botTraffic = false;
+                boolean gapInSequence = false;
+
+                if (diffSeconds > navigationSequenceThresholdSeconds) {
+                    // gap in event stream -> close sequence, single events are not a sequence
+                    int rootEventId = row - 1 == sequenceStartRow ? NULL_ROOT_EVENT_ID : eventStore.getId(sequenceStartRow);
+                    sink.write(row - 1, rootEventId, pendingDiffSeconds, pendingBotTraffic, pendingGapInSequence);
+                    sequenceStartRow = row;
+                } else {
+                    botTraffic = diffSeconds < botTrafficThresholdSeconds && eventStore.urlsEqualTrimmed(row, row - 1);
+                    byte previousTarget = eventStore.getEventTargetCode(row - 1);
+                    gapInSequence = previousTarget == 0 || previousTarget != eventStore.getEventSourceCode(row)
+                            || !eventStore.urlStartsWithReferrer(row - 1, row);
+                    sink.write(row - 1, eventStore.getId(sequenceStartRow),
+                            pendingDiffSeconds, pendingBotTraffic, pendingGapInSequence);
+                }
+
+                pendingDiffSeconds = diffSeconds;
+                pendingBotTraffic = botTraffic;
+                pendingGapInSequence = gapInSequence;
+            }
+
+            if (endRow > firstRow) {
+                int rootEventId = endRow - 1 == sequenceStartRow ? NULL_ROOT_EVENT_ID : eventStore.getId(sequenceStartRow);
+                sink.write(endRow - 1, rootEventId, pendingDiffSeconds, pendingBotTraffic, pendingGapInSequence);
+            }
+        }
+    }
+
+    private class PartitionThread extends Thread {
+        private final int partition;
+        private final int fromUserCode;
+        private final int toUserCode;
+
+        PartitionThread(int partition, int fromUserCode, int toUserCode) {
+            this.partition = partition;
+            this.fromUserCode = fromUserCode;
+            this.toUserCode = toUserCode;
+        }
+
+        @Override
+        public void run() {
+            File outputFile = Paths.get(dataDir.toString(), SEQUENCES_BASE_FILENAME + "_" + partition + ".csv").toFile();
+            logger.info("Thread " + partition + ": Processing user codes " + fromUserCode + " to " + (toUserCode - 1)
+                    + ", writing " + outputFile.getName() + " ...");
+
+            try (CSVPrinter csvPrinter = new CSVPrinter(new BufferedWriter(new FileWriter(outputFile)), CSV_FORMAT_SEQUENCES)) {
+                int[] rowCount = {0};
+                sessionizeUsers(fromUserCode, toUserCode, (row, rootEventId, diffSeconds, botTraffic, gapInSequence) -> {
+                    try {
+                        csvPrinter.printRecord(
+                                eventStore.getId(row),
+                                rootEventId == NULL_ROOT_EVENT_ID ? null : rootEventId,
+                                diffSeconds == NULL_DIFF_SECONDS ? null : diffSeconds,
+                                botTraffic ? 1 : 0,
+                                gapInSequence ? 1 : 0
+                        );
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    if (++rowCount[0] % LOG_PACE == 0) {
+                        logger.info("Thread " + partition + ": " + rowCount[0] + " events processed.");
+                    }
+                });
+                logger.info("Thread " + partition + ": " + rowCount[0] + " events have been processed.");
+            } catch (IOException | UncheckedIOException e) {
+                logger.warning(ErrorUtils.exceptionStackTraceToString(e));
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.sotorrent.stint;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.sotorrent.util.LogUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Writes an {@link EventStore}. Events must be added grouped by user identifier and ordered by
+ * (CreationDate, Id) within each user identifier.
+ */
+class EventStoreWriter implements Closeable {
+
+    private static Logger logger = null;
+    private static final int LOG_PACE = 10000000;
+
+    private final Path storeDir;
+    private final DataOutputStream ids;
+    private final DataOutputStream userOffsets;
+    private final BufferedWriter users;
+    private final DataOutputStream creationDates;
+    private final DataOutputStream eventSources;
+    private final DataOutputStream eventTargets;
+    private final DataOutputStream urlOffsets;
+    private final DataOutputStream urlBytes;
+    private final DataOutputStream referrerOffsets;
+    private final DataOutputStream referrerBytes;
+    private final Map<String, Integer> eventTypeCodes = new LinkedHashMap<>();
+
+    private String currentUserIdentifier = null;
+    private int rowCount = 0;
+    private int userCount = 0;
+    private long urlOffset = 0;
+    private long referrerOffset = 0;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(EventStoreWriter.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    EventStoreWriter(Path storeDir) throws IOException {
+        this.storeDir = storeDir;
+        Files.createDirectories(storeDir);
+
+        ids = open(EventStore.ID_FILENAME);
+        userOffsets = open(EventStore.USER_OFFSETS_FILENAME);
+        users = Files.newBufferedWriter(storeDir.resolve(EventStore.USERS_FILENAME), StandardCharsets.UTF_8);
+        creationDates = open(EventStore.CREATION_FILENAME);
+        eventSources = open(EventStore.SOURCE_FILENAME);
+        eventTargets = open(EventStore.TARGET_FILENAME);
+        urlOffsets = open(EventStore.URL_BASE_FILENAME + ".offsets");
+        urlBytes = open(EventStore.URL_BASE_FILENAME + ".bytes");
+        referrerOffsets = open(EventStore.REFERRER_BASE_FILENAME + ".offsets");
+        referrerBytes = open(EventStore.REFERRER_BASE_FILENAME + ".bytes");
+    }
+
+    void add(Event event) throws IOException {
+        add(event.getId(), event.getUserIdentifier(), event.getCreationTime() / 1000,
+                event.getEventSource(), event.getEventTarget(), event.getReferrer(), event.getUrl());
+    }
+
+    void add(int id, String userIdentifier, long creationSeconds, String eventSource, String eventTarget,
+             String referrer, String url) throws IOException {
+        if (rowCount == 0 || !Objects.equals(userIdentifier, currentUserIdentifier)) {
+            currentUserIdentifier = userIdentifier;
+            userOffsets.writeLong(rowCount);
+            users.write(userIdentifier == null ? "" : userIdentifier);
+            users.newLine();
+            userCount++;
+        }
+
+        ids.writeInt(id);
+        creationDates.writeLong(creationSeconds);
+        eventSources.writeByte(getEventTypeCode(eventSource));
+        eventTargets.writeByte(getEventTypeCode(eventTarget));
+
+        urlOffsets.writeLong(urlOffset);
+        urlOffset += writeString(urlBytes, url);
+        referrerOffsets.writeLong(referrerOffset);
+        referrerOffset += writeString(referrerBytes, referrer);
+
+        rowCount++;
+        if (rowCount % LOG_PACE == 0) {
+            logger.info(rowCount + " events written to event store.");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // terminating offsets
+        userOffsets.writeLong(rowCount);
+        urlOffsets.writeLong(urlOffset);
+        referrerOffsets.writeLong(referrerOffset);
+
+        for (Closeable closeable : Arrays.asList(ids, userOffsets, users, creationDates, eventSources, eventTargets,
+                urlOffsets, urlBytes, referrerOffsets, referrerBytes)) {
+            closeable.close();
+        }
+
+        Files.write(storeDir.resolve(EventStore.EVENT_TYPES_FILENAME), eventTypeCodes.keySet(), StandardCharsets.UTF_8);
+
+        Properties properties = new Properties();
+        properties.setProperty("version", String.valueOf(EventStore.FORMAT_VERSION));
+        properties.setProperty("rowCount", String.valueOf(rowCount));
+        properties.setProperty("userCount", String.valueOf(userCount));
+        try (FileWriter writer = new FileWriter(storeDir.resolve(EventStore.PROPERTIES_FILENAME).toFile())) {
+            properties.store(writer, "event store");
+        }
+
+        logger.info("Event store with " + rowCount + " events of " + userCount + " user identifiers written to "
+                + storeDir);
+    }
+
+    /**
+     * Converts the export of table Event in the data directory (see {@link EventFileProcessor}).
+     */
+    static void convertEventFile(EventFileProcessor eventFileProcessor, Path storeDir) {
+        try (EventStoreWriter writer = new EventStoreWriter(storeDir)) {
+            eventFileProcessor.forEachEventInUserOrder(event -> {
+                try {
+                    writer.add(event);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Converts table Event by streaming it in (UserIdentifier, CreationDate, Id) order (index event_index_5).
+     */
+    static void convertDatabase(SessionFactory sessionFactory, Path storeDir) {
+        // TIMESTAMPDIFF instead of UNIX_TIMESTAMP: independent of the session time zone, like DATETIME differences
+        String query = "SELECT Id, UserIdentifier, TIMESTAMPDIFF(SECOND, '1970-01-01 00:00:00', CreationDate), " +
+                "EventSource, EventTarget, Referrer, Url FROM Event ORDER BY UserIdentifier, CreationDate, Id";
+
+        try (StatelessSession session = sessionFactory.openStatelessSession();
+             EventStoreWriter writer = new EventStoreWriter(storeDir)) {
+            Connection connection = Jdbc.connection(session);
+            try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(Integer.MIN_VALUE); // MySQL: stream rows
+                try (ResultSet resultSet = statement.executeQuery(query)) {
+                    while (resultSet.next()) {
+                        writer.add(resultSet.getInt(1), resultSet.getString(2), resultSet.getLong(3),
+                                resultSet.getString(4), resultSet.getString(5),
+                                resultSet.getString(6), resultSet.getString(7));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error while reading table Event", e);
+        }
+    }
+
+    private DataOutputStream open(String filename) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(storeDir.resolve(filename)), 1 << 16));
+    }
+
+    private int getEventTypeCode(String eventType) {
+        if (eventType == null) {
+            return 0;
+        }
+        Integer code = eventTypeCodes.get(eventType);
+        if (code == null) {
+            code = eventTypeCodes.size() + 1;
+            if (code > 255) {
+                throw new IllegalStateException("More than 255 distinct event types.");
+            }
+            eventTypeCodes.put(eventType, code);
+        }
+        return code;
+    }
+
+    private static int writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            return 0;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        return bytes.length;
+    }
+}
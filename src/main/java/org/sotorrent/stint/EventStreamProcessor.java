@@ -0,0 +1,180 @@
+package org.sotorrent.stint;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.sotorrent.util.LogUtils;
+import org.sotorrent.util.exceptions.ErrorUtils;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Reads an unbounded stream of events from stdin or a local socket and writes each navigation sequence as soon as it
+ * is closed (see {@link StreamingSessionizer}). Input lines are either in the format of the export of table Event (see
+ * sql/export/export_events.sql) or only contain Id, UserIdentifier, CreationDate, EventSource, EventTarget, Referrer,
+ * and Url. Output lines have the format of the export, like Event_processed.csv of {@link EventFileProcessor}.
+ * Malformed lines are skipped. While the input is idle, the watermark advances with processing time (see
+ * {@link StreamingSessionizer#advanceIdle(long)}).
+ */
+public class EventStreamProcessor {
+
+    private static Logger logger = null;
+
+    private static final int LOG_PACE = 1000000;
+    // number of columns of the export of table Event
+    private static final int EXPORT_COLUMN_COUNT = 16;
+    // interval of checking whether the input is idle
+    private static final long IDLE_CHECK_MILLIS = 1000;
+
+    private final int outOfOrderToleranceSeconds;
+    private final int idleTimeoutSeconds;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(EventStreamProcessor.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    EventStreamProcessor(ProcessingOptions options) {
+        this.outOfOrderToleranceSeconds = options.outOfOrderToleranceSeconds;
+        this.idleTimeoutSeconds = options.idleTimeoutSeconds;
+    }
+
+    /**
+     * @param source "-" for stdin and stdout, otherwise the port of a socket on the loopback address, which accepts
+     *               one connection and writes the sequences back to it
+     */
+    void processStream(String source) {
+        if (source.equals("-")) {
+            processStream(System.in, System.out);
+            return;
+        }
+
+        int port = Integer.parseInt(source);
+        try (ServerSocket serverSocket = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+            logger.info("Waiting for a connection on port " + port + "...");
+            try (Socket socket = serverSocket.accept()) {
+                logger.info("Connection from " + socket.getRemoteSocketAddress() + " accepted.");
+                processStream(socket.getInputStream(), socket.getOutputStream());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void processStream(InputStream inputStream, OutputStream outputStream) {
+        ScheduledExecutorService idleChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "EventStreamProcessor-idle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (CSVParser csvParser = new CSVParser(new InputStreamReader(inputStream, StandardCharsets.UTF_8),
+                EventFileProcessor.CSV_FORMAT_EVENTS);
+             CSVPrinter csvPrinter = new CSVPrinter(new BufferedWriter(
+                     new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)), EventFileProcessor.CSV_FORMAT_EVENTS)) {
+
+            StreamingSessionizer sessionizer = new StreamingSessionizer(sequence -> {
+                try {
+                    for (Event event : sequence) {
+                        EventFileProcessor.printEvent(csvPrinter, event);
+                    }
+                    // sequences are labeled live, do not hold them back in the buffer
+                    csvPrinter.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, outOfOrderToleranceSeconds, idleTimeoutSeconds);
+
+            logger.info("Processing event stream (out-of-order tolerance: " + outOfOrderToleranceSeconds
+                    + "s, idle timeout: " + idleTimeoutSeconds + "s)...");
+            // the reading thread blocks while the input is idle, hence the sessionizer is shared with the idle checker
+            long[] lastArrivalNanos = {System.nanoTime()};
+            idleChecker.scheduleWithFixedDelay(() -> {
+                synchronized (sessionizer) {
+                    long idleMillis = (System.nanoTime() - lastArrivalNanos[0]) / 1000000;
+                    if (idleMillis >= IDLE_CHECK_MILLIS) {
+                        try {
+                            sessionizer.advanceIdle(idleMillis);
+                        } catch (RuntimeException e) {
+                            logger.warning(ErrorUtils.exceptionStackTraceToString(e));
+                        }
+                    }
+                }
+            }, IDLE_CHECK_MILLIS, IDLE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+
+            long eventCount = 0;
+            long malformedLineCount = 0;
+            for (CSVRecord record : csvParser) {
+                Event event;
+                try {
+                    event = parseEvent(record);
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    malformedLineCount++;
+                    logger.warning("Skipping malformed line " + record.getRecordNumber() + ": " + e.getMessage());
+                    continue;
+                }
+                synchronized (sessionizer) {
+                    sessionizer.processEvent(event);
+                    lastArrivalNanos[0] = System.nanoTime();
+                }
+                eventCount++;
+
+                // log only every LOG_PACE events
+                if (eventCount % LOG_PACE == 0) {
+                    synchronized (sessionizer) {
+                        logger.info(eventCount + " events read, watermark: " + Instant.ofEpochMilli(sessionizer.getWatermark())
+                                + ", " + sessionizer.getUserCount() + " user identifiers in memory, "
+                                + sessionizer.getDroppedEventCount() + " late events dropped, "
+                                + malformedLineCount + " malformed lines skipped.");
+                    }
+                }
+            }
+            idleChecker.shutdownNow();
+            synchronized (sessionizer) {
+                sessionizer.close();
+            }
+
+            logger.info(eventCount + " events have been processed, " + sessionizer.getSequenceCount()
+                    + " sequences written, " + sessionizer.getDroppedEventCount() + " late events dropped, "
+                    + sessionizer.getEvictedUserCount() + " idle user identifiers evicted, "
+                    + malformedLineCount + " malformed lines skipped.");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            idleChecker.shutdownNow();
+        }
+    }
+
+    static Event parseEvent(CSVRecord record) {
+        if (record.size() == EXPORT_COLUMN_COUNT) {
+            return EventFileProcessor.parseEvent(record);
+        }
+        if (record.size() != 7) {
+            throw new IllegalArgumentException("Expected 7 or " + EXPORT_COLUMN_COUNT + " columns in line "
+                    + record.getRecordNumber() + ", found " + record.size() + ".");
+        }
+        Event event = new Event();
+        event.setId(Integer.parseInt(record.get(0)));
+        event.setUserIdentifier(record.get(1));
+        event.setCreationDate(EventFileProcessor.parseCreationDate(record.get(2)));
+        event.setEventSource(record.get(3));
+        event.setEventTarget(record.get(4));
+        // Url and Referrer are never NULL in table Event, but may be empty
+        event.setReferrer(record.get(5) == null ? "" : record.get(5));
+        event.setUrl(record.get(6) == null ? "" : record.get(6));
+        return event;
+    }
+}
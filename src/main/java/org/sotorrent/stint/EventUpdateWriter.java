@@ -0,0 +1,359 @@
+package org.sotorrent.stint;
+
+import org.apache.commons.csv.CSVPrinter;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes events back to table Event using batched JDBC updates that only contain the columns changed by the
+ * respective processing phase (instead of rewriting all columns, including Url and Referrer, per event).
+ * Transactions are committed once at least commitSize events have been written, see {@link #commitIfDue()}.
+ * With bulk output (see {@link BulkOutput}), the columns are written to a CSV file instead, which is flushed
+ * whenever a transaction would be committed, and truncated to the last commit on rollback.
+ */
+class EventUpdateWriter implements Sessionizer.EventSink {
+
+    enum Columns {
+        // columns set by EventIterator
+        SEQUENCE("UPDATE Event SET RootEventId=?, DiffSeconds=?, BotTraffic=?, GapInSequence=? WHERE Id=?"),
+        // columns set by LinearSequenceIterator
+        NORMALIZATION("UPDATE Event SET Query=?, FragmentIdentifier=?, NormalizedReferrer=?, NormalizedUrl=?, " +
+                "PageRefresh=? WHERE Id=?"),
+        // columns set by EventIterator in fused mode (see SequenceClassifier)
+        FUSED("UPDATE Event SET RootEventId=?, DiffSeconds=?, BotTraffic=?, GapInSequence=?, Query=?, " +
+                "FragmentIdentifier=?, NormalizedReferrer=?, NormalizedUrl=?, PageRefresh=? WHERE Id=?");
+
+        private final String sql;
+
+        Columns(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    private final StatelessSession session;
+    private final Columns columns;
+    private final int batchSize;
+    private final int commitSize;
+
+    // null if table Event is updated in place
+    private final BulkOutput.OutputFile outputFile;
+    private final CSVPrinter csvPrinter;
+
+    private Transaction transaction;
+    private PreparedStatement statement;
+    // root event ids of classified sequences (see SequenceTable), IGNORE makes resumed partitions idempotent
+    private final Set<SequenceTable> sequenceTables;
+    private final Map<SequenceTable, PreparedStatement> sequenceTableStatements = new EnumMap<>(SequenceTable.class);
+    // incremental mode: a resumed sequence may have left a table, e.g., if new events introduced a gap
+    private final boolean incremental;
+    private final Map<SequenceTable, PreparedStatement> sequenceTableDeleteStatements = new EnumMap<>(SequenceTable.class);
+    // bulk output: one file of root event ids per sequence table
+    private final Map<SequenceTable, BulkOutput.OutputFile> sequenceTableFiles = new EnumMap<>(SequenceTable.class);
+    private int batchedCount = 0;
+    private int uncommittedCount = 0;
+    // time spent executing batches and commits
+    private long databaseNanos = 0;
+
+    EventUpdateWriter(StatelessSession session, Columns columns, ProcessingOptions options) throws SQLException {
+        this.session = session;
+        this.columns = columns;
+        this.batchSize = options.batchSize;
+        this.commitSize = options.commitSize;
+        this.sequenceTables = SequenceTable.filledBy(columns, options);
+        this.incremental = options.incremental;
+
+        if (options.bulkOutputDir != null) {
+            try {
+                outputFile = BulkOutput.open(options.bulkOutputDir, columns);
+                csvPrinter = outputFile.getPrinter();
+                for (SequenceTable table : sequenceTables) {
+                    sequenceTableFiles.put(table, BulkOutput.open(options.bulkOutputDir, table));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            outputFile = null;
+            csvPrinter = null;
+            begin();
+        }
+    }
+
+    @Override
+    public void write(Event event) {
+        if (csvPrinter != null) {
+            try {
+                BulkOutput.print(csvPrinter, columns, event);
+                writeSequenceTables(event);
+                uncommittedCount++;
+            } catch (SQLException e) {
+                throw new IllegalStateException("Error while writing event " + event.getId(), e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+
+        try {
+            switch (columns) {
+                case SEQUENCE:
+                    setInteger(1, event.getRootEventId());
+                    setLong(2, event.getDiffSeconds());
+                    statement.setBoolean(3, event.getBotTraffic());
+                    statement.setBoolean(4, event.getGapInSequence());
+                    statement.setInt(5, event.getId());
+                    break;
+                case NORMALIZATION:
+                    statement.setString(1, event.getQuery());
+                    statement.setString(2, event.getFragmentIdentifier());
+                    statement.setString(3, event.getNormalizedReferrer());
+                    statement.setString(4, event.getNormalizedUrl());
+                    statement.setBoolean(5, event.getPageRefresh());
+                    statement.setInt(6, event.getId());
+                    break;
+                case FUSED:
+                    setInteger(1, event.getRootEventId());
+                    setLong(2, event.getDiffSeconds());
+                    statement.setBoolean(3, event.getBotTraffic());
+                    statement.setBoolean(4, event.getGapInSequence());
+                    statement.setString(5, event.getQuery());
+                    statement.setString(6, event.getFragmentIdentifier());
+                    statement.setString(7, event.getNormalizedReferrer());
+                    statement.setString(8, event.getNormalizedUrl());
+                    statement.setBoolean(9, event.getPageRefresh());
+                    statement.setInt(10, event.getId());
+                    break;
+            }
+            statement.addBatch();
+            writeSequenceTables(event);
+            batchedCount++;
+            uncommittedCount++;
+
+            if (batchedCount >= batchSize) {
+                flush();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error while updating event " + event.getId(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeSequenceTables(Event event) throws SQLException, IOException {
+        if (event.getSequenceTables() == 0 && !incremental) {
+            return;
+        }
+        // the root event is the first event of its sequence
+        if (event.getRootEventId() == null || event.getRootEventId() != event.getId()) {
+            return;
+        }
+        for (SequenceTable table : sequenceTables) {
+            if (!event.isInSequenceTable(table)) {
+                if (incremental) {
+                    PreparedStatement deleteStatement = sequenceTableDeleteStatements.get(table);
+                    deleteStatement.setInt(1, event.getId());
+                    deleteStatement.addBatch();
+                }
+                continue;
+            }
+            if (csvPrinter != null) {
+                sequenceTableFiles.get(table).getPrinter().printRecord(event.getId());
+            } else {
+                PreparedStatement sequenceTableStatement = sequenceTableStatements.get(table);
+                sequenceTableStatement.setInt(1, event.getId());
+                sequenceTableStatement.addBatch();
+            }
+        }
+    }
+
+    /**
+     * Commits the current transaction if at least commitSize events have been written since the last commit.
+     * Must only be called at key boundaries (user identifier or root event id) to keep keys atomic.
+     * @return true if a commit took place
+     */
+    boolean commitIfDue() throws SQLException {
+        if (uncommittedCount < commitSize) {
+            return false;
+        }
+        commit();
+        return true;
+    }
+
+    /**
+     * Commits the current transaction regardless of the number of written events and starts a new one.
+     */
+    void commit() throws SQLException {
+        commitTransaction();
+        if (csvPrinter == null) {
+            begin();
+        }
+    }
+
+    /**
+     * @return total time spent executing batches and commits in nanoseconds
+     */
+    long getDatabaseNanos() {
+        return databaseNanos;
+    }
+
+    /**
+     * @return committed size of each output file in bytes, empty if table Event is updated in place
+     */
+    Map<Path, Long> getCommittedOutputFileSizes() {
+        Map<Path, Long> committedSizes = new LinkedHashMap<>();
+        if (outputFile != null) {
+            committedSizes.put(outputFile.getPath(), outputFile.getCommittedSize());
+            for (BulkOutput.OutputFile sequenceTableFile : sequenceTableFiles.values()) {
+                committedSizes.put(sequenceTableFile.getPath(), sequenceTableFile.getCommittedSize());
+            }
+        }
+        return committedSizes;
+    }
+
+    /**
+     * With bulk output, the rows written since the last commit are removed from the files.
+     */
+    void rollback() {
+        if (outputFile != null) {
+            try {
+                outputFile.rollback();
+                for (BulkOutput.OutputFile sequenceTableFile : sequenceTableFiles.values()) {
+                    sequenceTableFile.rollback();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        if (transaction != null && transaction.isActive()) {
+            transaction.rollback();
+        }
+    }
+
+    /**
+     * Sends remaining updates and commits.
+     */
+    void close() throws SQLException {
+        commitTransaction();
+        if (outputFile != null) {
+            try {
+                outputFile.close();
+                for (BulkOutput.OutputFile sequenceTableFile : sequenceTableFiles.values()) {
+                    sequenceTableFile.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Incremental mode: removes all sequences of the given user identifier from the sequence tables, e.g., once new
+     * events turn it into a possible bot.
+     */
+    void deleteFromSequenceTables(String userIdentifier) throws SQLException {
+        Connection connection = Jdbc.connection(session);
+        for (SequenceTable table : sequenceTables) {
+            try (PreparedStatement deleteStatement = connection.prepareStatement(
+                    "DELETE FROM `" + table.getTableName() + "` WHERE RootEventId IN " +
+                            "(SELECT Id FROM Event WHERE UserIdentifier = ? AND RootEventId = Id)")) {
+                deleteStatement.setString(1, userIdentifier);
+                deleteStatement.executeUpdate();
+            }
+        }
+    }
+
+    private void begin() throws SQLException {
+        transaction = session.beginTransaction();
+        // Hibernate may release the JDBC connection after a commit, hence one statement per transaction
+        Connection connection = Jdbc.connection(session);
+        statement = connection.prepareStatement(columns.sql);
+        for (SequenceTable table : sequenceTables) {
+            sequenceTableStatements.put(table, connection.prepareStatement(
+                    "INSERT IGNORE INTO `" + table.getTableName() + "` (RootEventId) VALUES (?)"));
+            if (incremental) {
+                sequenceTableDeleteStatements.put(table, connection.prepareStatement(
+                        "DELETE FROM `" + table.getTableName() + "` WHERE RootEventId = ?"));
+            }
+        }
+    }
+
+    private void commitTransaction() throws SQLException {
+        if (csvPrinter != null) {
+            long startNanos = System.nanoTime();
+            try {
+                outputFile.commit();
+                for (BulkOutput.OutputFile sequenceTableFile : sequenceTableFiles.values()) {
+                    sequenceTableFile.commit();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            long nanos = System.nanoTime() - startNanos;
+            Metrics.COMMIT_LATENCY.record(nanos);
+            databaseNanos += nanos;
+            uncommittedCount = 0;
+            return;
+        }
+
+        flush();
+        statement.close();
+        for (PreparedStatement sequenceTableStatement : sequenceTableStatements.values()) {
+            sequenceTableStatement.close();
+        }
+        for (PreparedStatement deleteStatement : sequenceTableDeleteStatements.values()) {
+            deleteStatement.close();
+        }
+        long startNanos = System.nanoTime();
+        transaction.commit();
+        long nanos = System.nanoTime() - startNanos;
+        Metrics.COMMIT_LATENCY.record(nanos);
+        databaseNanos += nanos;
+        uncommittedCount = 0;
+    }
+
+    private void flush() throws SQLException {
+        if (batchedCount > 0) {
+            long startNanos = System.nanoTime();
+            statement.executeBatch();
+            for (PreparedStatement sequenceTableStatement : sequenceTableStatements.values()) {
+                sequenceTableStatement.executeBatch();
+            }
+            for (PreparedStatement deleteStatement : sequenceTableDeleteStatements.values()) {
+                deleteStatement.executeBatch();
+            }
+            long nanos = System.nanoTime() - startNanos;
+            Metrics.UPDATE_LATENCY.record(nanos);
+            databaseNanos += nanos;
+            batchedCount = 0;
+        }
+    }
+
+    private void setInteger(int parameterIndex, Integer value) throws SQLException {
+        if (value == null) {
+            statement.setNull(parameterIndex, Types.INTEGER);
+        } else {
+            statement.setInt(parameterIndex, value);
+        }
+    }
+
+    private void setLong(int parameterIndex, Long value) throws SQLException {
+        if (value == null) {
+            statement.setNull(parameterIndex, Types.BIGINT);
+        } else {
+            statement.setLong(parameterIndex, value);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.sotorrent.stint;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Growable list of primitive ints, e.g., for millions of root event ids, which would take about four times the
+ * memory as boxed Integers in an ArrayList.
+ */
+class IntList {
+
+    private static final int DEFAULT_CAPACITY = 1 << 10;
+
+    private int[] values;
+    private int size = 0;
+
+    IntList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    IntList(int capacity) {
+        values = new int[Math.max(1, capacity)];
+    }
+
+    private IntList(int[] values, int size) {
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * @return list backed by the given array
+     */
+    static IntList wrap(int[] values) {
+        return new IntList(values, values.length);
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void sort() {
+        Arrays.sort(values, 0, size);
+    }
+
+    /**
+     * @return backing array, only the first size() values are valid
+     */
+    int[] values() {
+        return values;
+    }
+
+    /**
+     * @return read-only view, which boxes values only when they are accessed (e.g., for subList chunks)
+     */
+    List<Integer> asList() {
+        return new IntListView();
+    }
+
+    private class IntListView extends AbstractList<Integer> implements RandomAccess {
+        @Override
+        public Integer get(int index) {
+            return IntList.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.sotorrent.stint;
+
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+import java.sql.Connection;
+
+/**
+ * Access to the JDBC connection of a stateless session, which Hibernate 5 only offers through the deprecated
+ * StatelessSession.connection() (StatelessSession has no doWork). The connection is taken from the session's
+ * logical connection, as Session.doWork does, and belongs to the current transaction of the session.
+ */
+final class Jdbc {
+
+    private Jdbc() {}
+
+    static Connection connection(StatelessSession session) {
+        return ((SharedSessionContractImplementor) session).getJdbcCoordinator().getLogicalConnection()
+                .getPhysicalConnection();
+    }
+}
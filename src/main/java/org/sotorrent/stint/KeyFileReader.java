@@ -0,0 +1,91 @@
+package org.sotorrent.stint;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Streams the keys in the first column of a key file (e.g., user_identifiers_0.csv) instead of loading all records
+ * into memory. Supports looking ahead, e.g., to fetch the events of several keys with one query.
+ */
+class KeyFileReader implements Closeable {
+
+    private final CSVParser csvParser;
+    private final Iterator<CSVRecord> records;
+    private final ArrayDeque<String> lookAheadBuffer = new ArrayDeque<>();
+
+    /**
+     * @param csvFormat format with header, the header is skipped
+     */
+    KeyFileReader(File file, CSVFormat csvFormat) throws IOException {
+        csvParser = new CSVParser(new BufferedReader(new FileReader(file)), csvFormat.withFirstRecordAsHeader());
+        records = csvParser.iterator();
+    }
+
+    /**
+     * @return number of keys in the given file, determined by streaming it once
+     */
+    static int count(File file, CSVFormat csvFormat) throws IOException {
+        int count = 0;
+        try (KeyFileReader reader = new KeyFileReader(file, csvFormat)) {
+            while (reader.records.hasNext()) {
+                reader.records.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return next key or null if there are no more keys
+     */
+    String next() {
+        if (!lookAheadBuffer.isEmpty()) {
+            return lookAheadBuffer.poll();
+        }
+        return records.hasNext() ? records.next().get(0) : null;
+    }
+
+    /**
+     * @return the next (at most) n keys, which are still returned by subsequent calls of {@link #next()}
+     */
+    List<String> lookAhead(int n) {
+        while (lookAheadBuffer.size() < n && records.hasNext()) {
+            lookAheadBuffer.add(records.next().get(0));
+        }
+        List<String> keys = new ArrayList<>(Math.min(n, lookAheadBuffer.size()));
+        for (String key : lookAheadBuffer) {
+            if (keys.size() == n) {
+                break;
+            }
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Skips n keys.
+     * @return last skipped key or null if no key was skipped
+     */
+    String skip(int n) {
+        String key = null;
+        for (int i = 0; i < n; i++) {
+            key = next();
+            if (key == null) {
+                break;
+            }
+        }
+        return key;
+    }
+
+    @Override
+    public void close() throws IOException {
+        csvParser.close();
+    }
+}
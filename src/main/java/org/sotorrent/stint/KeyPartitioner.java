@@ -0,0 +1,227 @@
+package org.sotorrent.stint;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.sotorrent.util.LogUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Writes streamed keys to the complete key file (baseFilename.csv) and to partitionCount partition files
+ * (baseFilename_i.csv) without holding the keys in memory. Routing:
+ * RANGE: contiguous ranges of equal size, required by scan mode (written in a second pass over the complete file),
+ * HASH: by hash code of the key, ROUND_ROBIN: by position of the key.
+ * Once all files have been written, the routing and the partition count are recorded in baseFilename_split.properties,
+ * which later runs check instead of trusting their own command line (see {@link #requireRangeRouting}).
+ */
+class KeyPartitioner implements Closeable {
+
+    enum Routing { RANGE, HASH, ROUND_ROBIN }
+
+    private static Logger logger = null;
+
+    private static final String SPLIT_FILE_SUFFIX = "_split.properties";
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(KeyPartitioner.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private final File dataDir;
+    private final String baseFilename;
+    private final CSVFormat csvFormat;
+    private final int partitionCount;
+    private final Routing routing;
+
+    private final CSVPrinter allKeysPrinter;
+    private final CSVPrinter[] partitionPrinters;
+    private int keyCount = 0;
+    // set once the caller has added all keys, otherwise close deletes the incomplete files
+    private boolean complete = false;
+
+    /**
+     * @param csvFormat format with header, which is written to each file
+     */
+    KeyPartitioner(File dataDir, String baseFilename, CSVFormat csvFormat, int partitionCount, Routing routing)
+            throws IOException {
+        this.dataDir = dataDir;
+        this.baseFilename = baseFilename;
+        this.csvFormat = csvFormat;
+        this.partitionCount = partitionCount;
+        this.routing = routing;
+
+        // the key files are about to change, an interrupted retrieval must not leave the old split behind
+        deleteSplit(dataDir, baseFilename);
+        allKeysPrinter = open(baseFilename + ".csv");
+        partitionPrinters = new CSVPrinter[partitionCount];
+        if (routing != Routing.RANGE) {
+            for (int i = 0; i < partitionCount; i++) {
+                partitionPrinters[i] = open(baseFilename + "_" + i + ".csv");
+            }
+        }
+    }
+
+    void add(Object key) throws IOException {
+        allKeysPrinter.printRecord(key);
+        if (routing == Routing.HASH) {
+            partitionPrinters[(key.hashCode() & 0x7fffffff) % partitionCount].printRecord(key);
+        } else if (routing == Routing.ROUND_ROBIN) {
+            partitionPrinters[keyCount % partitionCount].printRecord(key);
+        }
+        keyCount++;
+    }
+
+    /**
+     * Same as {@link #add(Object)} for an int key (routed by {@link Integer#hashCode(int)}), but without boxing it.
+     */
+    void add(int key) throws IOException {
+        String value = Integer.toString(key);
+        printRecord(allKeysPrinter, value);
+        if (routing == Routing.HASH) {
+            printRecord(partitionPrinters[(key & 0x7fffffff) % partitionCount], value);
+        } else if (routing == Routing.ROUND_ROBIN) {
+            printRecord(partitionPrinters[keyCount % partitionCount], value);
+        }
+        keyCount++;
+    }
+
+    // an int key never needs quoting, hence it is written directly instead of passing it as varargs record
+    private static void printRecord(CSVPrinter printer, String value) throws IOException {
+        printer.getOut().append(value);
+        printer.println();
+    }
+
+    /**
+     * Marks that all keys have been added. Must be called before close, otherwise, e.g., if the cursor over the keys
+     * failed, close deletes the output files instead of splitting an incomplete key file into partitions.
+     */
+    void complete() {
+        complete = true;
+    }
+
+    int getKeyCount() {
+        return keyCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        allKeysPrinter.close();
+
+        if (!complete) {
+            for (CSVPrinter printer : partitionPrinters) {
+                if (printer != null) {
+                    printer.close();
+                }
+            }
+            delete(baseFilename + ".csv");
+            for (int partition = 0; partition < partitionCount; partition++) {
+                delete(baseFilename + "_" + partition + ".csv");
+            }
+            logger.warning("Retrieval of keys incomplete, " + baseFilename + ".csv and its partitions have been deleted.");
+            return;
+        }
+
+        if (routing == Routing.RANGE) {
+            // the number of keys is only known now
+            try (KeyFileReader reader = new KeyFileReader(Paths.get(dataDir.toString(), baseFilename + ".csv").toFile(),
+                    csvFormat)) {
+                for (int partition = 0; partition < partitionCount; partition++) {
+                    int partitionEnd = (int) ((long) keyCount * (partition + 1) / partitionCount);
+                    int index = (int) ((long) keyCount * partition / partitionCount);
+                    try (CSVPrinter printer = open(baseFilename + "_" + partition + ".csv")) {
+                        for (; index < partitionEnd; index++) {
+                            printer.printRecord(reader.next());
+                        }
+                    }
+                }
+            }
+        } else {
+            for (CSVPrinter printer : partitionPrinters) {
+                printer.close();
+            }
+        }
+
+        writeSplit(dataDir, baseFilename, ".csv", partitionCount, routing);
+        logger.info(keyCount + " keys written to " + baseFilename + ".csv and split into " + partitionCount
+                + " partitions (routing: " + routing + ").");
+    }
+
+    /**
+     * Records how the key files baseFilename(_i)fileExtension have been split. Call it after all of them have been
+     * written.
+     */
+    static void writeSplit(File dataDir, String baseFilename, String fileExtension, int partitionCount,
+                           Routing routing) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("fileExtension", fileExtension);
+        properties.setProperty("partitionCount", String.valueOf(partitionCount));
+        properties.setProperty("routing", routing.name());
+        try (Writer writer = Files.newBufferedWriter(getSplitPath(dataDir, baseFilename))) {
+            properties.store(writer, "split of " + baseFilename + fileExtension);
+        }
+    }
+
+    static void deleteSplit(File dataDir, String baseFilename) throws IOException {
+        Files.deleteIfExists(getSplitPath(dataDir, baseFilename));
+    }
+
+    /**
+     * Scan mode derives contiguous key ranges from the partitions. Checks that the key files
+     * baseFilename(_i)fileExtension have been split into partitionCount partitions by range routing, as recorded by the
+     * run that wrote them. The routing of the current command line does not matter if the retrieval is skipped.
+     */
+    static void requireRangeRouting(File dataDir, String baseFilename, String fileExtension, int partitionCount)
+            throws IOException {
+        Path splitFile = getSplitPath(dataDir, baseFilename);
+        if (!Files.exists(splitFile)) {
+            throw new IllegalStateException("Split of " + baseFilename + fileExtension + " unknown (" + splitFile
+                    + " missing), retrieve the keys again with range routing.");
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(splitFile)) {
+            properties.load(reader);
+        }
+        String splitFileExtension = properties.getProperty("fileExtension");
+        int splitPartitionCount = Integer.parseInt(properties.getProperty("partitionCount"));
+        Routing splitRouting = Routing.valueOf(properties.getProperty("routing"));
+
+        if (!fileExtension.equals(splitFileExtension) || splitPartitionCount != partitionCount) {
+            throw new IllegalStateException("Key files " + baseFilename + "_i" + fileExtension + " do not match "
+                    + splitFile + " (" + splitPartitionCount + " partitions of " + baseFilename + splitFileExtension
+                    + "), retrieve the keys again.");
+        }
+        if (splitRouting != Routing.RANGE) {
+            throw new IllegalStateException("Scan mode requires range routing, but " + baseFilename + fileExtension
+                    + " has been split with routing " + splitRouting + ", retrieve the keys again with range routing.");
+        }
+    }
+
+    private static Path getSplitPath(File dataDir, String baseFilename) {
+        return Paths.get(dataDir.toString(), baseFilename + SPLIT_FILE_SUFFIX);
+    }
+
+    private CSVPrinter open(String filename) throws IOException {
+        File outputFile = delete(filename);
+        // header is automatically written
+        return new CSVPrinter(new BufferedWriter(new FileWriter(outputFile)), csvFormat);
+    }
+
+    private File delete(String filename) {
+        File outputFile = Paths.get(dataDir.toString(), filename).toFile();
+        if (outputFile.exists()) {
+            if (!outputFile.delete()) {
+                throw new IllegalStateException("Error while deleting output file: " + outputFile);
+            }
+        }
+        return outputFile;
+    }
+}
@@ -0,0 +1,36 @@
+package org.sotorrent.stint;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event emitted for each processed user identifier or root event id, see {@link KeyProfiler}.
+ * Enable with -XX:StartFlightRecording (the event is enabled by default, without stack traces).
+ */
+@Name("org.sotorrent.stint.KeyProcessed")
+@Label("Key Processed")
+@Category({"Stint"})
+@Description("Processing of one user identifier or root event id")
+@StackTrace(false)
+class KeyProcessedEvent extends jdk.jfr.Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Key")
+    String key;
+
+    @Label("Event Count")
+    int eventCount;
+
+    @Label("Fetch Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long fetchTime;
+
+    @Label("Compute Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long computeTime;
+
+    @Label("Write Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long writeTime;
+}
@@ -0,0 +1,167 @@
+package org.sotorrent.stint;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.util.LogUtils;
+import org.sotorrent.util.exceptions.ErrorUtils;
+
+import java.io.*;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+import jdk.jfr.EventType;
+
+/**
+ * Measures fetch, compute, and write time of each key processed by one worker thread. The times are emitted as
+ * {@link KeyProcessedEvent}s to the flight recorder and keys exceeding the slow key threshold are written to
+ * slow_keys.csv in the data directory. Write time is the time spent sending batches and commits
+ * (see {@link EventUpdateWriter#getDatabaseNanos()}), compute time is the remainder. Events are only allocated
+ * while a recording enables them.
+ * Usage per key: {@link #start(String)}, {@link #fetched()}, {@link #finish(int)}.
+ */
+class KeyProfiler {
+
+    static final String SLOW_KEYS_FILENAME = "slow_keys.csv";
+
+    private static Logger logger = null;
+
+    private static final CSVFormat CSV_FORMAT_SLOW_KEYS;
+
+    private static final EventType KEY_PROCESSED_EVENT_TYPE = EventType.getEventType(KeyProcessedEvent.class);
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(KeyProfiler.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for output
+        CSV_FORMAT_SLOW_KEYS = CSVFormat.DEFAULT
+                .withHeader("Phase", "Key", "EventCount", "TotalMillis", "FetchMillis", "ComputeMillis", "WriteMillis")
+                .withDelimiter(',')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("");
+    }
+
+    /**
+     * Slow keys of all worker threads of one run.
+     */
+    static class SlowKeyLog implements Closeable {
+        private final CSVPrinter csvPrinter;
+        private final long thresholdNanos;
+        private int slowKeyCount = 0;
+
+        /**
+         * @return null if the slow key threshold is not set
+         */
+        static SlowKeyLog open(File dataDir, ProcessingOptions options) throws IOException {
+            if (options.slowKeyThresholdMillis <= 0) {
+                return null;
+            }
+            File outputFile = Paths.get(dataDir.toString(), SLOW_KEYS_FILENAME).toFile();
+            logger.info("Writing keys taking more than " + options.slowKeyThresholdMillis + "ms to "
+                    + outputFile.getName() + " ...");
+            return new SlowKeyLog(new CSVPrinter(new BufferedWriter(new FileWriter(outputFile)), CSV_FORMAT_SLOW_KEYS),
+                    options.slowKeyThresholdMillis * 1000000);
+        }
+
+        private SlowKeyLog(CSVPrinter csvPrinter, long thresholdNanos) {
+            this.csvPrinter = csvPrinter;
+            this.thresholdNanos = thresholdNanos;
+        }
+
+        private synchronized void write(String phase, String key, int eventCount, long totalNanos,
+                                        long fetchNanos, long computeNanos, long writeNanos) throws IOException {
+            csvPrinter.printRecord(phase, key, eventCount, toMillis(totalNanos), toMillis(fetchNanos),
+                    toMillis(computeNanos), toMillis(writeNanos));
+            // slow keys are rare, flush to have them on disk if the run fails
+            csvPrinter.flush();
+            slowKeyCount++;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            csvPrinter.close();
+            logger.info(slowKeyCount + " slow keys have been written.");
+        }
+
+        private static String toMillis(long nanos) {
+            // Locale.ROOT -> force '.' as decimal separator
+            return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+        }
+    }
+
+    private final String phase;
+    private final EventUpdateWriter writer;
+    private final SlowKeyLog slowKeyLog;
+
+    private String key;
+    private KeyProcessedEvent event; // null if no recording enables KeyProcessedEvent
+    private long startNanos;
+    private long fetchedNanos;
+    private long startDatabaseNanos;
+
+    /**
+     * @param slowKeyLog may be null
+     */
+    KeyProfiler(String phase, EventUpdateWriter writer, SlowKeyLog slowKeyLog) {
+        this.phase = phase;
+        this.writer = writer;
+        this.slowKeyLog = slowKeyLog;
+    }
+
+    void start(String key) {
+        this.key = key;
+        if (KEY_PROCESSED_EVENT_TYPE.isEnabled()) {
+            event = new KeyProcessedEvent();
+            event.begin();
+        } else {
+            event = null;
+        }
+        startNanos = System.nanoTime();
+        fetchedNanos = startNanos;
+        startDatabaseNanos = writer.getDatabaseNanos();
+    }
+
+    /**
+     * Marks the end of the query retrieving the events of the current key.
+     */
+    void fetched() {
+        fetchedNanos = System.nanoTime();
+    }
+
+    void finish(int eventCount) {
+        long totalNanos = System.nanoTime() - startNanos;
+        long fetchNanos = fetchedNanos - startNanos;
+        long writeNanos = writer.getDatabaseNanos() - startDatabaseNanos;
+        long computeNanos = Math.max(0, totalNanos - fetchNanos - writeNanos);
+
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase;
+                event.key = key;
+                event.eventCount = eventCount;
+                event.fetchTime = fetchNanos;
+                event.computeTime = computeNanos;
+                event.writeTime = writeNanos;
+                event.commit();
+            }
+            event = null;
+        }
+
+        if (slowKeyLog != null && totalNanos >= slowKeyLog.thresholdNanos) {
+            try {
+                slowKeyLog.write(phase, key, eventCount, totalNanos, fetchNanos, computeNanos, writeNanos);
+            } catch (IOException e) {
+                logger.warning(ErrorUtils.exceptionStackTraceToString(e));
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.sotorrent.stint;
+
+/**
+ * JMX view of a {@link LatencyHistogram}, values in milliseconds.
+ */
+public interface LatencyHistogramMXBean {
+    long getCount();
+    double getMeanMillis();
+    double getP50Millis();
+    double getP90Millis();
+    double getP99Millis();
+    double getMaxMillis();
+}
@@ -4,18 +4,19 @@ import org.apache.commons.csv.*;
 import org.hibernate.*;
 import org.hibernate.cfg.Configuration;
 import org.sotorrent.util.LogUtils;
-import org.sotorrent.util.URL;
-import org.sotorrent.util.collections.CollectionUtils;
 import org.sotorrent.util.exceptions.ErrorUtils;
 
-import javax.persistence.TypedQuery;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -31,6 +32,10 @@ public class LinearSequenceIterator {
 
     private File dataDir;
     private int partitionCount;
+    private ProcessingOptions options;
+    private NormalizationCache normalizationCache;
+    // shared by the worker threads of the current run, null if disabled
+    private KeyProfiler.SlowKeyLog slowKeyLog = null;
 
     static {
         // configure logger
@@ -51,8 +56,16 @@ public class LinearSequenceIterator {
     }
 
     public LinearSequenceIterator(Path dataDirPath, int partitionCount) {
+        this(dataDirPath, partitionCount, new ProcessingOptions());
+    }
+
+    LinearSequenceIterator(Path dataDirPath, int partitionCount, ProcessingOptions options) {
         this.partitionCount = partitionCount;
+        this.options = options;
         this.dataDir = dataDirPath.toFile();
+        if (options.normalizationCacheSize > 0) {
+            this.normalizationCache = new NormalizationCache(options.normalizationCacheSize, options.normalizationCachePolicy);
+        }
 
         // ensure that data dir exists
         try {
@@ -81,105 +94,444 @@ public class LinearSequenceIterator {
             throw new IllegalStateException("Static session factory not created yet.");
         }
 
-        Transaction t = null; // see https://docs.jboss.org/hibernate/orm/3.3/reference/en/html/transactions.html
         try (StatelessSession session = sessionFactory.openStatelessSession()) {
             logger.info("Retrieving linear navigation sequences from table LinearNonBotSequences...");
-            String rootEventIdQueryString = "SELECT rootEventId FROM LinearNonBotSequences";
-
-            t = session.beginTransaction();
-            TypedQuery<Integer> rootEventIdQuery = session.createQuery(rootEventIdQueryString, Integer.class);
-            List<Integer> rootEventIds = rootEventIdQuery.getResultList();
-            logger.info(rootEventIds.size() + " linear navigation sequences retrieved.");
-            t.commit();
-
-            writeRootEventIdsToCSV(rootEventIds, ROOT_EVENT_IDS_BASE_FILENAME + ".csv");
-        } catch (RuntimeException e) {
-            if (t != null) {
-                t.rollback();
-                e.printStackTrace();
+            // ordered, because scan mode derives contiguous key ranges from the partitions
+            String rootEventIdQueryString = "SELECT RootEventId FROM LinearNonBotSequences ORDER BY RootEventId ASC";
+
+            // stream root event ids as primitive ints, binary work lists keep them in an IntList, CSV key files
+            // are written without holding the root event ids in memory
+            IntList rootEventIds = options.binaryWorkLists ? new IntList() : null;
+            try (KeyPartitioner partitioner = options.binaryWorkLists ? null : new KeyPartitioner(dataDir,
+                    ROOT_EVENT_IDS_BASE_FILENAME, CSV_FORMAT_ROOT_EVENT_IDS, partitionCount, options.keyRouting)) {
+                Connection connection = Jdbc.connection(session);
+                try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    statement.setFetchSize(Integer.MIN_VALUE); // MySQL: stream rows
+                    try (ResultSet resultSet = statement.executeQuery(rootEventIdQueryString)) {
+                        int rootEventIdCount = 0;
+                        while (resultSet.next()) {
+                            int rootEventId = resultSet.getInt(1);
+                            if (rootEventIds != null) {
+                                rootEventIds.add(rootEventId);
+                            } else {
+                                partitioner.add(rootEventId);
+                            }
+                            rootEventIdCount++;
+                        }
+                        logger.info(rootEventIdCount + " linear navigation sequences retrieved.");
+                    }
+                }
+                if (partitioner != null) {
+                    partitioner.complete();
+                }
             }
-        }
 
-        // split up retrieved root event ids into partitions
-        splitRootEventIds();
+            if (rootEventIds != null) {
+                writeWorkLists(rootEventIds);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error while reading table LinearNonBotSequences", e);
+        }
     }
 
-    private void writeRootEventIdsToCSV(List<Integer> rootEventIds, String filename) {
-        File outputFile = Paths.get(dataDir.toString(), filename).toFile();
-        if (outputFile.exists()) {
-            if (!outputFile.delete()) {
-                throw new IllegalStateException("Error while deleting output file: " + outputFile);
+    /**
+     * Sorts the root event ids and writes them to the complete work list and to partitionCount partition work lists
+     * (see {@link WorkListFile}), routed like the CSV key files (see {@link KeyPartitioner}).
+     */
+    private void writeWorkLists(IntList rootEventIds) throws IOException {
+        KeyPartitioner.deleteSplit(dataDir, ROOT_EVENT_IDS_BASE_FILENAME);
+        rootEventIds.sort();
+        int[] sortedRootEventIds = rootEventIds.values();
+        int rootEventIdCount = rootEventIds.size();
+        WorkListFile.write(Paths.get(dataDir.toString(), ROOT_EVENT_IDS_BASE_FILENAME + WorkListFile.FILE_EXTENSION),
+                sortedRootEventIds, 0, rootEventIdCount);
+
+        if (options.keyRouting == KeyPartitioner.Routing.RANGE) {
+            for (int partition = 0; partition < partitionCount; partition++) {
+                int from = (int) ((long) rootEventIdCount * partition / partitionCount);
+                int to = (int) ((long) rootEventIdCount * (partition + 1) / partitionCount);
+                WorkListFile.write(getWorkListPath(partition), sortedRootEventIds, from, to);
             }
-        }
-        logger.info("Writing data to CSV file " + outputFile.getName() + " ...");
-        try (CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(outputFile), CSV_FORMAT_ROOT_EVENT_IDS)) {
-            // header is automatically written
-            for (Integer rootEventId : rootEventIds) {
-                csvPrinter.printRecord(rootEventId);
+        } else {
+            // each partition is a subsequence of the sorted root event ids and thus sorted as well
+            IntList[] partitions = new IntList[partitionCount];
+            for (int partition = 0; partition < partitionCount; partition++) {
+                partitions[partition] = new IntList(rootEventIdCount / partitionCount + 1);
+            }
+            for (int i = 0; i < rootEventIdCount; i++) {
+                int partition = options.keyRouting == KeyPartitioner.Routing.HASH
+                        ? (Integer.hashCode(sortedRootEventIds[i]) & 0x7fffffff) % partitionCount
+                        : i % partitionCount;
+                partitions[partition].add(sortedRootEventIds[i]);
+            }
+            for (int partition = 0; partition < partitionCount; partition++) {
+                WorkListFile.write(getWorkListPath(partition), partitions[partition].values(), 0,
+                        partitions[partition].size());
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+
+        KeyPartitioner.writeSplit(dataDir, ROOT_EVENT_IDS_BASE_FILENAME, WorkListFile.FILE_EXTENSION, partitionCount,
+                options.keyRouting);
+        logger.info(rootEventIdCount + " root event ids written to " + ROOT_EVENT_IDS_BASE_FILENAME
+                + WorkListFile.FILE_EXTENSION + " and split into " + partitionCount + " partitions (routing: "
+                + options.keyRouting + ").");
     }
 
-    private List<Integer> readRootEventIdsFromCSV() {
-        List<Integer> rootEventIds = null;
+    private Path getWorkListPath(int partition) {
+        return Paths.get(dataDir.toString(), ROOT_EVENT_IDS_BASE_FILENAME + "_" + partition + WorkListFile.FILE_EXTENSION);
+    }
+
+    private IntList readRootEventIds() {
+        if (options.binaryWorkLists) {
+            Path inputFile = Paths.get(dataDir.toString(), ROOT_EVENT_IDS_BASE_FILENAME + WorkListFile.FILE_EXTENSION);
+            logger.info("Reading file " + inputFile.getFileName() + " ...");
+            try {
+                return IntList.wrap(WorkListFile.read(inputFile));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return readRootEventIdsFromCSV();
+    }
 
+    private IntList readRootEventIdsFromCSV() {
         File inputFile = Paths.get(dataDir.toString(), ROOT_EVENT_IDS_BASE_FILENAME + ".csv").toFile();
         if (!inputFile.exists()) {
             throw new IllegalArgumentException("Error while reading input file: " + inputFile);
         }
         logger.info("Reading file " + inputFile.getName() + " ...");
 
-        try (CSVParser csvParser = new CSVParser(new FileReader(inputFile), CSV_FORMAT_ROOT_EVENT_IDS.withFirstRecordAsHeader())) {
-            // read all records into memory
-            List<CSVRecord> records = csvParser.getRecords();
-            rootEventIds = records.stream()
-                    .map(r -> Integer.parseInt(r.get("RootEventId")))
-                    .collect(Collectors.toList());
+        IntList rootEventIds = new IntList();
+        try (KeyFileReader reader = new KeyFileReader(inputFile, CSV_FORMAT_ROOT_EVENT_IDS)) {
+            String key;
+            while ((key = reader.next()) != null) {
+                rootEventIds.add(Integer.parseInt(key));
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
-
         return rootEventIds;
     }
 
-    private void splitRootEventIds() {
-        List<Integer> rootEventIds;
-        List<Integer>[] subLists;
-
-        logger.info("Splitting root event ids...");
-        rootEventIds = readRootEventIdsFromCSV();
-        subLists = CollectionUtils.split(rootEventIds, partitionCount);
-        for (int i=0; i<subLists.length; i++) {
-            List<Integer> list = subLists[i];
-            writeRootEventIdsToCSV(list, ROOT_EVENT_IDS_BASE_FILENAME + "_" + i + ".csv");
-        }
-        logger.info("Splitting of root event ids complete.");
-    }
-
     void processLinearNavigationSequences() {
         List<WorkerThread> workerThreads = new LinkedList<>();
 
         logger.info("Starting parallel processing of linear navigation sequences...");
+        openSlowKeyLog();
 
         for (int i=0; i<partitionCount; i++) {
             WorkerThread thread = new WorkerThread(i);
             workerThreads.add(thread);
-            thread.start();
-            logger.info("Thread " + i + " started...");
         }
+        WorkerThreads.startAndJoin(workerThreads);
+
+        closeSlowKeyLog();
+        logger.info("Parallel processing of linear navigation sequences finished.");
+        logNormalizationCacheStatistics();
+    }
 
+    /**
+     * Streams the root event id range of each partition once in (RootEventId, CreationDate) order instead of issuing
+     * one query per root event id. Requires partitions with contiguous key ranges, i.e., ordered root event id files.
+     */
+    void processLinearNavigationSequencesByScan() {
         try {
-            for (int i=0; i<workerThreads.size(); i++) {
-                workerThreads.get(i).join();
-                logger.info("Thread " + i + " terminated.");
+            KeyPartitioner.requireRangeRouting(dataDir, ROOT_EVENT_IDS_BASE_FILENAME,
+                    options.binaryWorkLists ? WorkListFile.FILE_EXTENSION : ".csv", partitionCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<ScanThread> scanThreads = new LinkedList<>();
+
+        logger.info("Starting parallel scan of linear navigation sequences...");
+
+        for (int i=0; i<partitionCount; i++) {
+            ScanThread thread = new ScanThread(i);
+            scanThreads.add(thread);
+        }
+        WorkerThreads.startAndJoin(scanThreads);
+
+        logger.info("Parallel scan of linear navigation sequences finished.");
+        logNormalizationCacheStatistics();
+    }
+
+    /**
+     * Overlaps retrieval, normalization, and updates of linear navigation sequences in separate stages
+     * (see {@link EventPipeline}).
+     */
+    void processLinearNavigationSequencesPipelined() {
+        IntList rootEventIds = readRootEventIds();
+        EventPipeline<Integer> pipeline = new EventPipeline<>(sessionFactory, EventUpdateWriter.Columns.NORMALIZATION, options);
+
+        logger.info("Starting pipelined processing of linear navigation sequences...");
+        pipeline.run(rootEventIds.asList(), LinearSequenceIterator::readNavigationSequence, () -> {
+            SequenceNormalizer sequenceNormalizer = new SequenceNormalizer(normalizationCache);
+            return navigationSequence -> {
+                sequenceNormalizer.normalize(navigationSequence);
+                return navigationSequence;
+            };
+        });
+        logger.info("Pipelined processing of linear navigation sequences finished.");
+        logNormalizationCacheStatistics();
+    }
+
+    /**
+     * @return all events of the navigation sequence with the given root event id in chronological order
+     */
+    private static List<Event> readNavigationSequence(StatelessSession session, int rootEventId) {
+        long startNanos = System.nanoTime();
+        List<Event> navigationSequence = EventReader.read(session, EventReader.Projection.NORMALIZATION,
+                Collections.singletonList(rootEventId));
+        Metrics.FETCH_LATENCY.recordSince(startNanos);
+        return navigationSequence;
+    }
+
+    private void openSlowKeyLog() {
+        try {
+            slowKeyLog = KeyProfiler.SlowKeyLog.open(dataDir, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void closeSlowKeyLog() {
+        if (slowKeyLog != null) {
+            try {
+                slowKeyLog.close();
+            } catch (IOException e) {
+                logger.warning(ErrorUtils.exceptionStackTraceToString(e));
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            slowKeyLog = null;
         }
+    }
 
-        logger.info("Parallel processing of linear navigation sequences finished.");
+    private void logNormalizationCacheStatistics() {
+        if (normalizationCache != null) {
+            logger.info(normalizationCache.toString());
+        }
+    }
+
+    /**
+     * Root event ids of one partition, either streamed from a CSV key file or decoded from a binary work list.
+     */
+    private interface RootEventIdReader extends Closeable {
+        int count();
+
+        int next();
+
+        /**
+         * @return the next (at most) n root event ids, which are still returned by subsequent calls of {@link #next()}
+         */
+        List<Integer> lookAhead(int n);
+
+        /**
+         * Skips n root event ids.
+         * @return last skipped root event id as key or null if no root event id was skipped
+         */
+        String skip(int n);
+    }
+
+    private static class CsvRootEventIdReader implements RootEventIdReader {
+        private final int count;
+        private final KeyFileReader reader;
+
+        CsvRootEventIdReader(File file) throws IOException {
+            this.count = KeyFileReader.count(file, CSV_FORMAT_ROOT_EVENT_IDS);
+            this.reader = new KeyFileReader(file, CSV_FORMAT_ROOT_EVENT_IDS);
+        }
+
+        @Override
+        public int count() {
+            return count;
+        }
+
+        @Override
+        public int next() {
+            return Integer.parseInt(reader.next());
+        }
+
+        @Override
+        public List<Integer> lookAhead(int n) {
+            return reader.lookAhead(n).stream().map(Integer::parseInt).collect(Collectors.toList());
+        }
+
+        @Override
+        public String skip(int n) {
+            return reader.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class WorkListRootEventIdReader implements RootEventIdReader {
+        private final int[] rootEventIds;
+        private int index = 0;
+
+        WorkListRootEventIdReader(File file) throws IOException {
+            this.rootEventIds = WorkListFile.read(file.toPath());
+        }
+
+        @Override
+        public int count() {
+            return rootEventIds.length;
+        }
+
+        @Override
+        public int next() {
+            return rootEventIds[index++];
+        }
+
+        @Override
+        public List<Integer> lookAhead(int n) {
+            List<Integer> keys = new ArrayList<>(n);
+            for (int i = index; i < Math.min(index + n, rootEventIds.length); i++) {
+                keys.add(rootEventIds[i]);
+            }
+            return keys;
+        }
+
+        @Override
+        public String skip(int n) {
+            index = Math.min(index + n, rootEventIds.length);
+            return index > 0 && n > 0 ? String.valueOf(rootEventIds[index - 1]) : null;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * Retrieves the events of several navigation sequences with one query.
+     * @return events of each root event id in chronological order
+     */
+    private static Map<Integer, List<Event>> fetchNavigationSequences(StatelessSession session, List<Integer> rootEventIds) {
+        long startNanos = System.nanoTime();
+        List<Event> events = EventReader.read(session, EventReader.Projection.NORMALIZATION, rootEventIds);
+        Metrics.FETCH_LATENCY.recordSince(startNanos);
+
+        Map<Integer, List<Event>> navigationSequences = new HashMap<>();
+        for (Event event : events) {
+            navigationSequences.computeIfAbsent(event.getRootEventId(), k -> new ArrayList<>()).add(event);
+        }
+        return navigationSequences;
+    }
+
+    /**
+     * Normalizes and updates already retrieved events of one navigation sequence.
+     * @return number of processed events
+     */
+    private static int processNavigationSequence(SequenceNormalizer sequenceNormalizer, EventUpdateWriter writer,
+                                                 List<Event> navigationSequence) {
+        sequenceNormalizer.normalize(navigationSequence);
+        for (Event event : navigationSequence) {
+            writer.write(event);
+        }
+        return navigationSequence.size();
+    }
+
+    /**
+     * Retrieves, normalizes, and updates all events of the navigation sequence with the given root event id.
+     * @return number of processed events
+     */
+    private int processRootEventId(StatelessSession session, SequenceNormalizer sequenceNormalizer,
+                                   EventUpdateWriter writer, KeyProfiler profiler, int rootEventId) {
+        // retrieve all events for current navigation sequence in chronological order and normalize Urls
+        List<Event> navigationSequence = readNavigationSequence(session, rootEventId);
+        profiler.fetched();
+
+        // update events in database
+        return processNavigationSequence(sequenceNormalizer, writer, navigationSequence);
+    }
+
+    /**
+     * Processes all root event ids in chunks of chunkSize keys, which partitionCount worker threads take from a
+     * work-stealing scheduler instead of owning one static partition each.
+     */
+    void processLinearNavigationSequencesDynamically(int chunkSize) {
+        IntList rootEventIds = readRootEventIds();
+        // chunks are views of the primitive root event ids
+        List<Integer> rootEventIdList = rootEventIds.asList();
+        List<List<Integer>> chunks = new ArrayList<>();
+        for (int i=0; i<rootEventIds.size(); i+=chunkSize) {
+            chunks.add(rootEventIdList.subList(i, Math.min(i + chunkSize, rootEventIds.size())));
+        }
+        WorkScheduler<List<Integer>> scheduler = new WorkScheduler<>(chunks, partitionCount);
+        logger.info(rootEventIds.size() + " root event ids split into " + chunks.size() + " chunks.");
+
+        List<ChunkWorkerThread> workerThreads = new LinkedList<>();
+        logger.info("Starting dynamically scheduled processing of linear navigation sequences...");
+        openSlowKeyLog();
+
+        for (int i=0; i<partitionCount; i++) {
+            ChunkWorkerThread thread = new ChunkWorkerThread(i, scheduler);
+            workerThreads.add(thread);
+        }
+        WorkerThreads.startAndJoin(workerThreads);
+
+        closeSlowKeyLog();
+        if (scheduler.getCompletedCount() < scheduler.getChunkCount()) {
+            logger.warning((scheduler.getChunkCount() - scheduler.getCompletedCount()) + " chunks have not been completed.");
+        }
+        logger.info("Dynamically scheduled processing of linear navigation sequences finished.");
+        logNormalizationCacheStatistics();
+    }
+
+    private class ChunkWorkerThread extends Thread {
+        private final int worker;
+        private final WorkScheduler<List<Integer>> scheduler;
+
+        ChunkWorkerThread(int worker, WorkScheduler<List<Integer>> scheduler) {
+            this.worker = worker;
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void run() {
+            if (sessionFactory == null) {
+                throw new IllegalStateException("Static session factory not created yet.");
+            }
+
+            EventUpdateWriter writer = null;
+            try (StatelessSession session = sessionFactory.openStatelessSession()) {
+                writer = new EventUpdateWriter(session, EventUpdateWriter.Columns.NORMALIZATION, options);
+                SequenceNormalizer sequenceNormalizer = new SequenceNormalizer(normalizationCache);
+                WorkerMetrics workerMetrics = Metrics.registerWorker("LinearSequenceIterator-" + worker, 0);
+                KeyProfiler profiler = new KeyProfiler("LinearSequenceIterator", writer, slowKeyLog);
+                int chunkCount = 0;
+                int eventCount = 0;
+
+                WorkScheduler.Chunk<List<Integer>> chunk;
+                while ((chunk = scheduler.next(worker)) != null) {
+                    for (int rootEventId : chunk.keys) {
+                        profiler.start(String.valueOf(rootEventId));
+                        int sequenceEventCount = processRootEventId(session, sequenceNormalizer, writer, profiler, rootEventId);
+                        eventCount += sequenceEventCount;
+                        workerMetrics.keyProcessed(sequenceEventCount);
+                        writer.commitIfDue();
+                        profiler.finish(sequenceEventCount);
+                    }
+                    // a chunk is only complete once its updates are committed
+                    writer.commit();
+                    scheduler.complete(chunk);
+                    chunkCount++;
+                }
+
+                writer.close();
+                logger.info("Thread " + worker + ": " + chunkCount + " chunks with " + eventCount
+                        + " events have been processed.");
+            } catch (Exception e) {
+                logger.warning(ErrorUtils.exceptionStackTraceToString(e));
+                if (writer != null) {
+                    writer.rollback();
+                }
+            }
+        }
     }
 
     private class WorkerThread extends Thread {
@@ -187,7 +539,8 @@ public class LinearSequenceIterator {
         private final int partition;
 
         WorkerThread(int partition) {
-            this.filename = ROOT_EVENT_IDS_BASE_FILENAME + "_" + partition + ".csv";
+            this.filename = ROOT_EVENT_IDS_BASE_FILENAME + "_" + partition
+                    + (options.binaryWorkLists ? WorkListFile.FILE_EXTENSION : ".csv");
             this.partition = partition;
         }
 
@@ -202,7 +555,7 @@ public class LinearSequenceIterator {
                 throw new IllegalStateException("Static session factory not created yet.");
             }
 
-            // read root event ids from CSV file and process them
+            // read root event ids from CSV file or work list and process them
             File inputFile = Paths.get(dataDir.toString(), filename).toFile();
             if (!inputFile.exists()) {
                 throw new IllegalArgumentException("Thread " + partition + ": Error while reading input file: "
@@ -211,24 +564,36 @@ public class LinearSequenceIterator {
             logger.info("Thread " + partition + ": Reading file " + inputFile.getName() + " ...");
             logger.info("Thread " + partition + ": Processing linear navigation sequences...");
 
-            Transaction t = null; // see https://docs.jboss.org/hibernate/orm/3.3/reference/en/html/transactions.html
+            Checkpoint checkpoint = new Checkpoint(inputFile);
+            EventUpdateWriter writer = null;
             try (StatelessSession session = sessionFactory.openStatelessSession()) {
-                try (CSVParser csvParser = new CSVParser(
-                        new FileReader(inputFile), CSV_FORMAT_ROOT_EVENT_IDS.withFirstRecordAsHeader())) {
-
-                    // read all records into memory
-                    List<CSVRecord> records = csvParser.getRecords();
-                    int recordCount = records.size();
+                writer = new EventUpdateWriter(session, EventUpdateWriter.Columns.NORMALIZATION, options);
 
-                    logger.info("Thread " + partition + ": " + recordCount + " root event ids read.");
+                try (RootEventIdReader reader = options.binaryWorkLists
+                        ? new WorkListRootEventIdReader(inputFile) : new CsvRootEventIdReader(inputFile)) {
+                    int recordCount = reader.count();
+                    logger.info("Thread " + partition + ": " + recordCount + " root event ids in file.");
 
+                    int startIndex = checkpoint.start(options.resume, partition, recordCount, reader::skip, "root event id");
+                    if (options.bulkOutputDir != null) {
+                        // records the new output files, so that resuming also truncates rows written before the first commit
+                        checkpoint.save(startIndex, checkpoint.getLastCommittedKey(), writer.getCommittedOutputFileSizes());
+                    }
+                    WorkerMetrics workerMetrics = Metrics.registerWorker("LinearSequenceIterator-" + partition,
+                            recordCount - startIndex);
+                    KeyProfiler profiler = new KeyProfiler("LinearSequenceIterator", writer, slowKeyLog);
                     int eventCount = 0;
-                    final String stackOverflowUrlPrefix = "https://stackoverflow.com";
+                    SequenceNormalizer sequenceNormalizer = new SequenceNormalizer(normalizationCache);
+
+                    // events of the root event ids [recordIndex, prefetchedUntil) if fetched in batches
+                    Map<Integer, List<Event>> prefetchedSequences = null;
+                    int prefetchedUntil = startIndex;
+                    String key = checkpoint.getLastCommittedKey();
 
                     // iterate over records
-                    for (int recordIndex = 0; recordIndex < recordCount; recordIndex++) {
-                        CSVRecord record = records.get(recordIndex);
-                        Integer rootEventId = Integer.parseInt(record.get("RootEventId"));
+                    for (int recordIndex = startIndex; recordIndex < recordCount; recordIndex++) {
+                        int rootEventId = reader.next();
+                        key = String.valueOf(rootEventId);
 
                         // log only every LOG_PACE record
                         if (recordIndex == 0 || recordIndex == recordCount - 1 || recordIndex % LOG_PACE == 0) {
@@ -238,84 +603,153 @@ public class LinearSequenceIterator {
                                     + " (record " + (recordIndex + 1) + " of " + recordCount + "; " + progress + ")");
                         }
 
-                        // retrieve all events for current navigation sequence in chronological order
-                        String currentNavigationSequenceQuery = String.format("FROM Event " +
-                                        "WHERE RootEventId='%d' ORDER BY CreationDate ASC", rootEventId
-                        );
-
-                        t = session.beginTransaction();
-
-                        // save events in list and normalize Urls
-                        List<Event> navigationSequence = session.createQuery(currentNavigationSequenceQuery, Event.class)
-                                .getResultList();
-
-                        Map<String, Event> accessedPostUrls = new HashMap<>();
-                        for (int i=0; i<navigationSequence.size(); i++) {
-                            Event event = navigationSequence.get(i);
-
-                            if (event.getEventTarget().equals("Post")) {
-                                // normalize links to Stack Overflow posts
-                                event.setNormalizedUrl(URL.getNormalizedStackOverflowLink(
-                                        stackOverflowUrlPrefix + event.getUrl())
-                                        .getUrlString().substring(stackOverflowUrlPrefix.length())
-                                );
-
-                                accessedPostUrls.put(event.getUrl(), event);
-
-                                // use previously accessed post URLs to correctly set normalized URL for truncated
-                                // referrers, e.g.:
-                                //   RootEventId: 271116326
-                                //   Referrer: /questions/35352638/react-router-how-to
-                                //   Url: /questions/35352638/react-router-how-to-get-parameter-value-from-url/48256676
-                                for (Map.Entry<String, Event> accessedPostUrl : accessedPostUrls.entrySet()) {
-                                    if (accessedPostUrl.getKey().startsWith(event.getReferrer())) {
-                                        event.setNormalizedReferrer(accessedPostUrl.getValue().getNormalizedUrl());
-                                    }
-                                }
-                            }
-
-                            // detect page refreshes
-                            if (i > 0) {
-                                Event previousEvent = navigationSequence.get(i-1);
-                                boolean pageRefresh = isPageRefresh(event, previousEvent);
-                                event.setPageRefresh(pageRefresh);
-
-                                // update first event in sequence
-                                // otherwise, not all events would be marked as page refreshes in a sequence
-                                // consisting exclusively of page refreshes
-                                if (i == 1 && pageRefresh) {
-                                    previousEvent.setPageRefresh(true);
-                                    session.update(previousEvent);
-                                }
+                        profiler.start(key);
+                        int sequenceEventCount;
+                        if (options.fetchBatchSize > 1) {
+                            // the fetch time of a batch is attributed to its first root event id
+                            if (recordIndex >= prefetchedUntil) {
+                                List<Integer> batch = new ArrayList<>(options.fetchBatchSize);
+                                batch.add(rootEventId);
+                                batch.addAll(reader.lookAhead(options.fetchBatchSize - 1));
+                                prefetchedUntil = recordIndex + batch.size();
+                                prefetchedSequences = fetchNavigationSequences(session, batch);
                             }
-
-                            // extract query and fragment identifier from Url
-                            event.extractQuery();
-                            event.extractFragmentIdentifier();
-
-                            // update event in database
-                            session.update(event);
-                            eventCount++;
+                            profiler.fetched();
+                            sequenceEventCount = processNavigationSequence(sequenceNormalizer, writer,
+                                    prefetchedSequences.getOrDefault(rootEventId, Collections.emptyList()));
+                        } else {
+                            sequenceEventCount = processRootEventId(session, sequenceNormalizer, writer, profiler, rootEventId);
                         }
+                        eventCount += sequenceEventCount;
+                        workerMetrics.keyProcessed(sequenceEventCount);
 
-                        // commit transaction
-                        t.commit();
+                        // commit transaction once enough events have been updated, the checkpoint follows the commit
+                        if (writer.commitIfDue()) {
+                            checkpoint.save(recordIndex + 1, key, writer.getCommittedOutputFileSizes());
+                        }
+                        profiler.finish(sequenceEventCount);
                     }
 
+                    writer.close();
+                    if (recordCount > 0) {
+                        checkpoint.save(recordCount, key, writer.getCommittedOutputFileSizes());
+                    }
                     logger.info("Thread " + partition + ": " + eventCount + " events have been processed.");
                 }
             } catch (Exception e) {
                 logger.warning(ErrorUtils.exceptionStackTraceToString(e));
-                if (t != null) {
-                    t.rollback();
+                if (writer != null) {
+                    writer.rollback();
                 }
             }
         }
     }
 
-    private boolean isPageRefresh(Event event, Event previousEvent) {
-        return previousEvent.getEventTarget().equals(event.getEventSource())
-                && previousEvent.getUrl().equals(event.getUrl())
-                && previousEvent.getUrl().startsWith(event.getReferrer());
+    private class ScanThread extends RangeScanThread {
+        private IntList rootEventIds;
+        private int recordCount;
+        private SequenceNormalizer sequenceNormalizer;
+        private EventUpdateWriter writer;
+        private WorkerMetrics workerMetrics;
+        // events of the current root event id if it is a linear non-bot sequence, null otherwise
+        private List<Event> navigationSequence = null;
+        // index of the first root event id of the partition that is not smaller than the current one
+        private int recordIndex = 0;
+        private int sequenceCount = 0;
+        private int eventCount = 0;
+
+        ScanThread(int partition) {
+            super(sessionFactory, Paths.get(dataDir.toString(), ROOT_EVENT_IDS_BASE_FILENAME + "_" + partition
+                            + (options.binaryWorkLists ? WorkListFile.FILE_EXTENSION : ".csv")).toFile(),
+                    partition, EventUpdateWriter.Columns.NORMALIZATION, options);
+        }
+
+        // read the root event ids of the partition (file is ordered by root event id)
+        @Override
+        int readPartition(File inputFile) throws IOException {
+            try (RootEventIdReader reader = options.binaryWorkLists
+                    ? new WorkListRootEventIdReader(inputFile) : new CsvRootEventIdReader(inputFile)) {
+                rootEventIds = new IntList(reader.count());
+                for (int i = 0; i < reader.count(); i++) {
+                    int rootEventId = reader.next();
+                    if (i > 0 && rootEventId <= rootEventIds.get(i - 1)) {
+                        throw new IllegalStateException("Thread " + partition + ": Root event ids in " + inputFile.getName()
+                                + " are not ordered, retrieve them again with range routing.");
+                    }
+                    rootEventIds.add(rootEventId);
+                }
+            }
+            recordCount = rootEventIds.size();
+            if (recordCount > 0) {
+                logger.info("Thread " + partition + ": " + recordCount + " root event ids read (range "
+                        + rootEventIds.get(0) + " to " + rootEventIds.get(recordCount - 1) + ").");
+            }
+            return recordCount;
+        }
+
+        @Override
+        EventReader.Cursor openCursor(StatelessSession readSession) {
+            logger.info("Thread " + partition + ": Scanning events and normalizing linear navigation sequences...");
+            // ordered by index event_index_11 (RootEventId, CreationDate), id makes the order deterministic
+            return EventReader.scan(readSession, EventReader.Projection.NORMALIZATION,
+                    rootEventIds.get(0), rootEventIds.get(recordCount - 1));
+        }
+
+        @Override
+        void startScan(EventUpdateWriter writer, int recordCount) {
+            this.writer = writer;
+            sequenceNormalizer = new SequenceNormalizer(normalizationCache);
+            workerMetrics = Metrics.registerWorker("LinearSequenceIterator-" + partition, recordCount);
+        }
+
+        @Override
+        boolean isSameKey(Event previousEvent, Event event) {
+            return event.getRootEventId().equals(previousEvent.getRootEventId());
+        }
+
+        @Override
+        void startKey(Event event) {
+            int rootEventId = event.getRootEventId();
+
+            // the range also contains sequences that are not linear non-bot sequences, skip them
+            while (recordIndex < recordCount && rootEventIds.get(recordIndex) < rootEventId) {
+                recordIndex++;
+            }
+            if (recordIndex == recordCount || rootEventIds.get(recordIndex) != rootEventId) {
+                navigationSequence = null;
+                return;
+            }
+            navigationSequence = new ArrayList<>();
+
+            // log only every LOG_PACE root event id
+            if (recordIndex == 0 || recordIndex == recordCount - 1 || recordIndex % LOG_PACE == 0) {
+                // Locale.ROOT -> force '.' as decimal separator
+                String progress = String.format(Locale.ROOT, "%.2f%%", (((double) (recordIndex + 1)) / recordCount * 100));
+                logger.info("Thread " + partition + ": Current root event id: " + rootEventId
+                        + " (record " + (recordIndex + 1) + " of " + recordCount + "; " + progress + ")");
+            }
+        }
+
+        @Override
+        void processEvent(Event event) {
+            if (navigationSequence != null) {
+                navigationSequence.add(event);
+            }
+        }
+
+        @Override
+        void finishKey() {
+            if (navigationSequence != null && !navigationSequence.isEmpty()) {
+                eventCount += processNavigationSequence(sequenceNormalizer, writer, navigationSequence);
+                workerMetrics.keyProcessed(navigationSequence.size());
+                sequenceCount++;
+            }
+        }
+
+        @Override
+        void finishScan() {
+            logger.info("Thread " + partition + ": " + sequenceCount + " linear navigation sequences with "
+                    + eventCount + " events have been processed.");
+        }
     }
 }
@@ -2,8 +2,12 @@ package org.sotorrent.stint;
 
 import org.apache.commons.cli.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Set;
 
 public class Main {
     public static void main (String[] args) {
@@ -17,8 +21,8 @@ public class Main {
         options.addOption(dataDirOption);
 
         Option hibernateConfigFileOption = new Option("h", "hibernate-config", true,
-                "path to hibernate config file");
-        hibernateConfigFileOption.setRequired(true);
+                "path to hibernate config file (required unless file mode is used)");
+        hibernateConfigFileOption.setRequired(false);
         options.addOption(hibernateConfigFileOption);
 
         Option partitionCountOption = new Option("p", "partition-count", true,
@@ -31,11 +35,147 @@ public class Main {
         skipUserIdentifierRetrievalOption.setRequired(false);
         options.addOption(skipUserIdentifierRetrievalOption);
 
+        Option resumeOption = new Option("r", "resume", false,
+                "continue each partition from its last checkpoint in the data directory (implies skip-retrieval)");
+        resumeOption.setRequired(false);
+        options.addOption(resumeOption);
+
+        Option routingOption = new Option(null, "routing", true,
+                "assignment of keys to partitions during retrieval: 'range' (contiguous, required for scan), 'hash', or 'round-robin' (default value: range)");
+        routingOption.setRequired(false);
+        options.addOption(routingOption);
+
+        Option binaryWorkListsOption = new Option(null, "binary-work-lists", false,
+                "store root event ids as compact binary work lists instead of CSV files (both steps of process-linear)");
+        binaryWorkListsOption.setRequired(false);
+        options.addOption(binaryWorkListsOption);
+
+        Option bulkOutputOption = new Option(null, "bulk-output", false,
+                "write the computed columns to CSV files in the data directory and bulk-load them into table Event at the end instead of updating it row by row");
+        bulkOutputOption.setRequired(false);
+        options.addOption(bulkOutputOption);
+
+        Option fusedOption = new Option(null, "fused", false,
+                "also determine linear non-bot sequences (table LinearNonBotSequences) and normalize them while extracting navigation sequences, which makes process-linear unnecessary");
+        fusedOption.setRequired(false);
+        options.addOption(fusedOption);
+
+        Option sequenceTablesOption = new Option(null, "sequence-tables", false,
+                "also fill tables LinearNonBotNonPageRefreshSequences, LinearSearchSequences, LinearThreadSequences, and LinearSearchThreadSequences (process-linear or fused)");
+        sequenceTablesOption.setRequired(false);
+        options.addOption(sequenceTablesOption);
+
+        Option incrementalOption = new Option(null, "incremental", false,
+                "only process events created after the watermark of the last run and stitch them onto the last navigation sequence of their user identifier");
+        incrementalOption.setRequired(false);
+        options.addOption(incrementalOption);
+
         Option processLinearSequencesOption = new Option("l", "process-linear", false,
                 "only process linear sequences");
         processLinearSequencesOption.setRequired(false);
         options.addOption(processLinearSequencesOption);
 
+        Option scanOption = new Option("c", "scan", false,
+                "stream each partition once ordered by (UserIdentifier, CreationDate), or by (RootEventId, CreationDate) with process-linear, instead of querying every key separately");
+        scanOption.setRequired(false);
+        options.addOption(scanOption);
+
+        Option batchSizeOption = new Option("b", "batch-size", true,
+                "number of updates sent to the database in one JDBC batch (default value: 1000)");
+        batchSizeOption.setRequired(false);
+        options.addOption(batchSizeOption);
+
+        Option commitSizeOption = new Option("t", "commit-size", true,
+                "minimum number of updated events per transaction, commits happen at key boundaries (default value: 10000)");
+        commitSizeOption.setRequired(false);
+        options.addOption(commitSizeOption);
+
+        Option fetchBatchSizeOption = new Option("g", "fetch-batch-size", true,
+                "number of keys whose events are retrieved with one query, ordered by key and CreationDate (default value: 1)");
+        fetchBatchSizeOption.setRequired(false);
+        options.addOption(fetchBatchSizeOption);
+
+        Option fileModeOption = new Option("f", "file-mode", false,
+                "process " + EventFileProcessor.EVENTS_FILENAME + " in data directory without database (see sql/export/export_events.sql)");
+        fileModeOption.setRequired(false);
+        options.addOption(fileModeOption);
+
+        Option runSizeOption = new Option("n", "run-size", true,
+                "number of events per sorted run in file mode (default value: 2000000)");
+        runSizeOption.setRequired(false);
+        options.addOption(runSizeOption);
+
+        Option chunkSizeOption = new Option("k", "chunk-size", true,
+                "hand out keys in chunks of this size from a work-stealing scheduler instead of using static partitions");
+        chunkSizeOption.setRequired(false);
+        options.addOption(chunkSizeOption);
+
+        Option pipelineOption = new Option(null, "pipeline", true,
+                "process keys in reader, compute, and writer stages with the given number of threads each, e.g., 2,1,2 (default value: 2,1,2)");
+        pipelineOption.setRequired(false);
+        pipelineOption.setOptionalArg(true);
+        options.addOption(pipelineOption);
+
+        Option queueCapacityOption = new Option(null, "queue-capacity", true,
+                "number of keys buffered between two pipeline stages (default value: 1000)");
+        queueCapacityOption.setRequired(false);
+        options.addOption(queueCapacityOption);
+
+        Option normalizationCacheSizeOption = new Option(null, "normalization-cache-size", true,
+                "number of normalized post URLs cached across worker threads, 0 disables the cache (default value: 100000)");
+        normalizationCacheSizeOption.setRequired(false);
+        options.addOption(normalizationCacheSizeOption);
+
+        Option normalizationCachePolicyOption = new Option(null, "normalization-cache-policy", true,
+                "eviction policy of the normalization cache, 'lru' or 'fifo' (default value: lru)");
+        normalizationCachePolicyOption.setRequired(false);
+        options.addOption(normalizationCachePolicyOption);
+
+        Option metricsIntervalOption = new Option(null, "metrics-interval", true,
+                "append all metrics (also available over JMX) to " + Metrics.CSV_FILENAME + " in the data directory every given number of seconds");
+        metricsIntervalOption.setRequired(false);
+        options.addOption(metricsIntervalOption);
+
+        Option slowKeyThresholdOption = new Option(null, "slow-key-threshold", true,
+                "write keys taking at least this many milliseconds to " + KeyProfiler.SLOW_KEYS_FILENAME + " in the data directory");
+        slowKeyThresholdOption.setRequired(false);
+        options.addOption(slowKeyThresholdOption);
+
+        Option writeEventStoreOption = new Option("w", "write-event-store", true,
+                "convert events from 'csv' (file mode input) or 'db' (table Event) into a columnar event store in the data directory");
+        writeEventStoreOption.setRequired(false);
+        options.addOption(writeEventStoreOption);
+
+        Option eventStoreOption = new Option("e", "event-store", false,
+                "sessionize the columnar event store in the data directory (results are written to CSV files)");
+        eventStoreOption.setRequired(false);
+        options.addOption(eventStoreOption);
+
+        Option navigationThresholdOption = new Option(null, "navigation-threshold", true,
+                "maximum number of seconds between two events of a navigation sequence, event store only (default value: 360)");
+        navigationThresholdOption.setRequired(false);
+        options.addOption(navigationThresholdOption);
+
+        Option botThresholdOption = new Option(null, "bot-threshold", true,
+                "number of seconds below which repeated access to the same URL is considered bot traffic, event store only (default value: 1)");
+        botThresholdOption.setRequired(false);
+        options.addOption(botThresholdOption);
+
+        Option streamOption = new Option(null, "stream", true,
+                "sessionize an unbounded stream of CSV events and write closed navigation sequences as soon as possible: '-' (stdin/stdout) or a port on the loopback address");
+        streamOption.setRequired(false);
+        options.addOption(streamOption);
+
+        Option outOfOrderOption = new Option(null, "out-of-order", true,
+                "number of seconds an event may arrive after events created later, stream only (default value: 60)");
+        outOfOrderOption.setRequired(false);
+        options.addOption(outOfOrderOption);
+
+        Option idleTimeoutOption = new Option(null, "idle-timeout", true,
+                "number of seconds after which the state of an idle user identifier is evicted, stream only (default value: 3600)");
+        idleTimeoutOption.setRequired(false);
+        options.addOption(idleTimeoutOption);
+
         CommandLineParser commandLineParser = new DefaultParser();
         HelpFormatter commandLineFormatter = new HelpFormatter();
         CommandLine commandLine;
@@ -49,11 +189,22 @@ public class Main {
             return;
         }
 
+        boolean databaseRequired = !commandLine.hasOption("file-mode") && !commandLine.hasOption("event-store")
+                && !commandLine.hasOption("stream")
+                && !"csv".equals(commandLine.getOptionValue("write-event-store"));
+        if (databaseRequired && !commandLine.hasOption("hibernate-config")) {
+            System.out.println("Missing required option: h");
+            commandLineFormatter.printHelp("Stint", options);
+            System.exit(1);
+            return;
+        }
+
         Path dataDirPath = Paths.get(commandLine.getOptionValue("data-dir"));
-        Path hibernateConfigFilePath = Paths.get(commandLine.getOptionValue("hibernate-config"));
         int partitionCount = 4;
         boolean skipRetrieval = false;
         boolean processLinear = false;
+        boolean scan = false;
+        ProcessingOptions processingOptions = new ProcessingOptions();
 
         if (commandLine.hasOption("partition-count")) {
             partitionCount = Integer.parseInt(commandLine.getOptionValue("partition-count"));
@@ -63,27 +214,245 @@ public class Main {
             skipRetrieval = true;
         }
 
+        if (commandLine.hasOption("resume")) {
+            // only the partition workers that read their key file in order save checkpoints
+            if (commandLine.hasOption("scan") || commandLine.hasOption("pipeline")
+                    || commandLine.hasOption("chunk-size")) {
+                throw new IllegalArgumentException("Resume does not support scan, pipeline, or chunk-size.");
+            }
+            // re-splitting the keys would invalidate the checkpoints
+            skipRetrieval = true;
+            processingOptions.resume = true;
+        }
+
+        if (commandLine.hasOption("routing")) {
+            processingOptions.keyRouting = KeyPartitioner.Routing.valueOf(
+                    commandLine.getOptionValue("routing").toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+
+        if (commandLine.hasOption("binary-work-lists")) {
+            processingOptions.binaryWorkLists = true;
+        }
+
         if (commandLine.hasOption("process-linear")) {
             processLinear = true;
         }
 
+        if (commandLine.hasOption("fused")) {
+            if (processLinear) {
+                throw new IllegalArgumentException("Fused mode replaces process-linear.");
+            }
+            processingOptions.fused = true;
+        }
+
+        if (commandLine.hasOption("sequence-tables")) {
+            if (!processLinear && !processingOptions.fused) {
+                throw new IllegalArgumentException("Sequence tables require process-linear or fused mode.");
+            }
+            processingOptions.sequenceTables = true;
+        }
+
+        if (commandLine.hasOption("bulk-output")) {
+            processingOptions.bulkOutputDir = dataDirPath;
+        }
+
+        if (commandLine.hasOption("incremental")) {
+            // updates of resumed sequences and removals from the sequence tables need per-user processing in place
+            if (processLinear || commandLine.hasOption("scan") || commandLine.hasOption("pipeline")
+                    || commandLine.hasOption("chunk-size") || processingOptions.bulkOutputDir != null) {
+                throw new IllegalArgumentException("Incremental mode does not support process-linear, scan, pipeline, chunk-size, or bulk-output.");
+            }
+            processingOptions.incremental = true;
+        }
+
+        if (commandLine.hasOption("scan")) {
+            scan = true;
+            // scan mode streams the key range between the first and the last key of each partition; without
+            // retrieval, the scan checks the routing recorded with the existing key files instead
+            if (!skipRetrieval && processingOptions.keyRouting != KeyPartitioner.Routing.RANGE) {
+                throw new IllegalArgumentException("Scan mode requires range routing.");
+            }
+        }
+
+        if (commandLine.hasOption("batch-size")) {
+            processingOptions.batchSize = Integer.parseInt(commandLine.getOptionValue("batch-size"));
+        }
+
+        if (commandLine.hasOption("commit-size")) {
+            processingOptions.commitSize = Integer.parseInt(commandLine.getOptionValue("commit-size"));
+        }
+
+        if (commandLine.hasOption("fetch-batch-size")) {
+            processingOptions.fetchBatchSize = Integer.parseInt(commandLine.getOptionValue("fetch-batch-size"));
+        }
+
+        if (commandLine.hasOption("navigation-threshold")) {
+            processingOptions.navigationSequenceThresholdSeconds = Integer.parseInt(commandLine.getOptionValue("navigation-threshold"));
+        }
+
+        if (commandLine.hasOption("bot-threshold")) {
+            processingOptions.botTrafficThresholdSeconds = Integer.parseInt(commandLine.getOptionValue("bot-threshold"));
+        }
+
+        if (commandLine.getOptionValue("pipeline") != null) {
+            String[] threadCounts = commandLine.getOptionValue("pipeline").split(",");
+            if (threadCounts.length != 3) {
+                throw new IllegalArgumentException("Expected three thread counts (reader, compute, writer): "
+                        + commandLine.getOptionValue("pipeline"));
+            }
+            processingOptions.readerThreads = Integer.parseInt(threadCounts[0].trim());
+            processingOptions.computeThreads = Integer.parseInt(threadCounts[1].trim());
+            processingOptions.writerThreads = Integer.parseInt(threadCounts[2].trim());
+        }
+
+        if (commandLine.hasOption("queue-capacity")) {
+            processingOptions.queueCapacity = Integer.parseInt(commandLine.getOptionValue("queue-capacity"));
+        }
+
+        if (commandLine.hasOption("normalization-cache-size")) {
+            processingOptions.normalizationCacheSize = Integer.parseInt(commandLine.getOptionValue("normalization-cache-size"));
+        }
+
+        if (commandLine.hasOption("normalization-cache-policy")) {
+            processingOptions.normalizationCachePolicy = NormalizationCache.EvictionPolicy.valueOf(
+                    commandLine.getOptionValue("normalization-cache-policy").toUpperCase(Locale.ROOT));
+        }
+
+        if (commandLine.hasOption("slow-key-threshold")) {
+            processingOptions.slowKeyThresholdMillis = Long.parseLong(commandLine.getOptionValue("slow-key-threshold"));
+        }
+
+        if (commandLine.hasOption("out-of-order")) {
+            processingOptions.outOfOrderToleranceSeconds = Integer.parseInt(commandLine.getOptionValue("out-of-order"));
+        }
+
+        if (commandLine.hasOption("idle-timeout")) {
+            processingOptions.idleTimeoutSeconds = Integer.parseInt(commandLine.getOptionValue("idle-timeout"));
+        }
+
+        int runSize = 2000000;
+        if (commandLine.hasOption("run-size")) {
+            runSize = Integer.parseInt(commandLine.getOptionValue("run-size"));
+        }
+
+        Path eventStorePath = dataDirPath.resolve(EventStore.DEFAULT_DIRNAME);
+
+        if (commandLine.hasOption("write-event-store")) {
+            String source = commandLine.getOptionValue("write-event-store");
+            if (source.equals("csv")) {
+                EventStoreWriter.convertEventFile(new EventFileProcessor(dataDirPath, partitionCount, runSize), eventStorePath);
+            } else if (source.equals("db")) {
+                EventIterator.createSessionFactory(Paths.get(commandLine.getOptionValue("hibernate-config")));
+                EventStoreWriter.convertDatabase(EventIterator.sessionFactory, eventStorePath);
+                EventIterator.sessionFactory.close();
+            } else {
+                throw new IllegalArgumentException("Unknown event store source: " + source);
+            }
+            return;
+        }
+
+        if (commandLine.hasOption("event-store")) {
+            try {
+                EventStore eventStore = new EventStore(eventStorePath);
+                new EventStoreSessionizer(eventStore, dataDirPath.toFile(), partitionCount, processingOptions)
+                        .processEventStore();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+
+        if (commandLine.hasOption("stream")) {
+            new EventStreamProcessor(processingOptions).processStream(commandLine.getOptionValue("stream"));
+            return;
+        }
+
+        if (commandLine.hasOption("file-mode")) {
+            EventFileProcessor eventFileProcessor = new EventFileProcessor(dataDirPath, partitionCount, runSize);
+            eventFileProcessor.processEventFile();
+            return;
+        }
+
+        Path hibernateConfigFilePath = Paths.get(commandLine.getOptionValue("hibernate-config"));
+
+        if (commandLine.hasOption("metrics-interval")) {
+            try {
+                Metrics.startCsvDump(dataDirPath.toFile(), Integer.parseInt(commandLine.getOptionValue("metrics-interval")));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        EventUpdateWriter.Columns columns = processLinear ? EventUpdateWriter.Columns.NORMALIZATION
+                : processingOptions.fused ? EventUpdateWriter.Columns.FUSED : EventUpdateWriter.Columns.SEQUENCE;
+        Set<SequenceTable> sequenceTables = SequenceTable.filledBy(columns, processingOptions);
+        if (processingOptions.bulkOutputDir != null && !processingOptions.resume) {
+            try {
+                BulkOutput.deleteFiles(processingOptions.bulkOutputDir, columns, sequenceTables);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
         if (processLinear) {
             LinearSequenceIterator.createSessionFactory(hibernateConfigFilePath);
-            LinearSequenceIterator linearSequenceIterator = new LinearSequenceIterator(dataDirPath, partitionCount);
+            LinearSequenceIterator linearSequenceIterator = new LinearSequenceIterator(dataDirPath, partitionCount, processingOptions);
             if (!skipRetrieval) {
                 linearSequenceIterator.extractSaveAndSplitLinearNavigationSequences();
             }
-            linearSequenceIterator.processLinearNavigationSequences();
+            if (!sequenceTables.isEmpty() && !processingOptions.resume) {
+                SequenceTable.createTables(LinearSequenceIterator.sessionFactory, sequenceTables);
+            }
+            if (scan) {
+                linearSequenceIterator.processLinearNavigationSequencesByScan();
+            } else if (commandLine.hasOption("pipeline")) {
+                linearSequenceIterator.processLinearNavigationSequencesPipelined();
+            } else if (commandLine.hasOption("chunk-size")) {
+                linearSequenceIterator.processLinearNavigationSequencesDynamically(
+                        Integer.parseInt(commandLine.getOptionValue("chunk-size")));
+            } else {
+                linearSequenceIterator.processLinearNavigationSequences();
+            }
+            if (processingOptions.bulkOutputDir != null) {
+                BulkOutput.load(LinearSequenceIterator.sessionFactory, processingOptions.bulkOutputDir, columns, sequenceTables);
+            }
             LinearSequenceIterator.sessionFactory.close();
 
         } else {
             EventIterator.createSessionFactory(hibernateConfigFilePath);
-            EventIterator eventIterator = new EventIterator(dataDirPath, partitionCount);
+            EventIterator eventIterator = new EventIterator(dataDirPath, partitionCount, processingOptions);
+            try {
+                eventIterator.beginRun();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
             if (!skipRetrieval) {
                 eventIterator.extractSaveAndSplitUserIdentifiers();
             }
-            eventIterator.processEvents();
+            // incremental runs add to the tables of earlier runs
+            if (!sequenceTables.isEmpty() && !processingOptions.resume && !processingOptions.incremental) {
+                SequenceTable.createTables(EventIterator.sessionFactory, sequenceTables);
+            }
+            if (scan) {
+                eventIterator.processEventsByScan();
+            } else if (commandLine.hasOption("pipeline")) {
+                eventIterator.processEventsPipelined();
+            } else if (commandLine.hasOption("chunk-size")) {
+                eventIterator.processEventsDynamically(Integer.parseInt(commandLine.getOptionValue("chunk-size")));
+            } else {
+                eventIterator.processEvents();
+            }
+            if (processingOptions.bulkOutputDir != null) {
+                BulkOutput.load(EventIterator.sessionFactory, processingOptions.bulkOutputDir, columns, sequenceTables);
+            }
+            try {
+                eventIterator.endRun();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
             EventIterator.sessionFactory.close();
         }
+
+        Metrics.stopCsvDump();
     }
 }
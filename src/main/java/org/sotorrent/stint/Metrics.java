@@ -0,0 +1,160 @@
+package org.sotorrent.stint;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.util.LogUtils;
+import org.sotorrent.util.exceptions.ErrorUtils;
+
+import javax.management.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the metrics of a run, exposed over JMX (domain org.sotorrent.stint, e.g., in JConsole or VisualVM):
+ * latency histograms of fetches, updates, and commits, progress of each worker, and queue depths of the pipeline.
+ * Optionally, all values are periodically appended to a CSV file in the data directory.
+ */
+class Metrics {
+
+    static final String JMX_DOMAIN = "org.sotorrent.stint";
+    static final String CSV_FILENAME = "metrics.csv";
+
+    // latency of the queries retrieving the events of one key
+    static final LatencyHistogram FETCH_LATENCY = new LatencyHistogram();
+    // latency of one JDBC batch of updates
+    static final LatencyHistogram UPDATE_LATENCY = new LatencyHistogram();
+    // latency of one commit
+    static final LatencyHistogram COMMIT_LATENCY = new LatencyHistogram();
+
+    private static Logger logger = null;
+
+    private static final CSVFormat CSV_FORMAT_METRICS;
+    private static final Map<ObjectName, Object> registeredBeans = new ConcurrentSkipListMap<>();
+    private static ScheduledExecutorService csvDumpExecutor = null;
+    private static CSVPrinter csvPrinter = null;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(Metrics.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for output
+        CSV_FORMAT_METRICS = CSVFormat.DEFAULT
+                .withHeader("Timestamp", "Name", "Attribute", "Value")
+                .withDelimiter(',')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("");
+
+        register("type=Latency,name=fetch", FETCH_LATENCY);
+        register("type=Latency,name=update", UPDATE_LATENCY);
+        register("type=Latency,name=commit", COMMIT_LATENCY);
+    }
+
+    private Metrics() {}
+
+    /**
+     * @param name e.g., EventIterator-0
+     * @param totalKeys number of keys assigned to the worker, 0 if unknown
+     */
+    static WorkerMetrics registerWorker(String name, long totalKeys) {
+        WorkerMetrics workerMetrics = new WorkerMetrics(totalKeys);
+        register("type=Worker,name=" + name, workerMetrics);
+        return workerMetrics;
+    }
+
+    static void registerQueue(String name, BlockingQueue<?> queue) {
+        register("type=Queue,name=" + name, new QueueMetricsMXBean() {
+            @Override
+            public int getDepth() {
+                return queue.size();
+            }
+
+            @Override
+            public int getRemainingCapacity() {
+                return queue.remainingCapacity();
+            }
+        });
+    }
+
+    private static void register(String properties, Object bean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":" + properties);
+            // replace metrics of a previous run in the same JVM
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(bean, objectName);
+            registeredBeans.put(objectName, bean);
+        } catch (JMException e) {
+            logger.warning(ErrorUtils.exceptionStackTraceToString(e));
+        }
+    }
+
+    /**
+     * Appends the values of all registered metrics to metrics.csv in the data directory every intervalSeconds.
+     */
+    static synchronized void startCsvDump(File dataDir, int intervalSeconds) throws IOException {
+        if (csvDumpExecutor != null) {
+            throw new IllegalStateException("CSV dump already started.");
+        }
+
+        File outputFile = Paths.get(dataDir.toString(), CSV_FILENAME).toFile();
+        logger.info("Writing metrics to " + outputFile.getName() + " every " + intervalSeconds + " seconds...");
+        csvPrinter = new CSVPrinter(new BufferedWriter(new FileWriter(outputFile)), CSV_FORMAT_METRICS);
+
+        csvDumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-csv-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        csvDumpExecutor.scheduleAtFixedRate(Metrics::dumpCsv, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes the final values and closes the CSV file.
+     */
+    static synchronized void stopCsvDump() {
+        if (csvDumpExecutor == null) {
+            return;
+        }
+        csvDumpExecutor.shutdown();
+        try {
+            csvDumpExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            dumpCsv();
+            csvPrinter.close();
+        } catch (InterruptedException | IOException e) {
+            logger.warning(ErrorUtils.exceptionStackTraceToString(e));
+        }
+        csvDumpExecutor = null;
+        csvPrinter = null;
+    }
+
+    private static synchronized void dumpCsv() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String timestamp = Instant.now().toString();
+        try {
+            for (ObjectName objectName : registeredBeans.keySet()) {
+                for (MBeanAttributeInfo attribute : server.getMBeanInfo(objectName).getAttributes()) {
+                    csvPrinter.printRecord(timestamp, objectName.getKeyProperty("type") + "/"
+                            + objectName.getKeyProperty("name"), attribute.getName(),
+                            server.getAttribute(objectName, attribute.getName()));
+                }
+            }
+            csvPrinter.flush();
+        } catch (JMException | IOException e) {
+            logger.warning(ErrorUtils.exceptionStackTraceToString(e));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.sotorrent.stint;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Thread-safe, size-bounded cache for normalized URLs, shared by all worker threads. The cache is split into
+ * segments with separate locks to reduce contention; each segment evicts entries according to the eviction policy
+ * once it is full. The capacity is split evenly, hence it is rounded down to a multiple of the number of segments,
+ * and a capacity below SEGMENT_COUNT uses one segment per entry. Normalization happens outside of the locks, so two threads may normalize the same URL
+ * concurrently, which is harmless, because normalization is deterministic.
+ */
+class NormalizationCache {
+
+    enum EvictionPolicy {
+        // evict least recently used entry
+        LRU,
+        // evict oldest entry
+        FIFO
+    }
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments;
+    // configured capacity rounded down to a multiple of the number of segments
+    private final int capacity;
+    private final EvictionPolicy evictionPolicy;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    NormalizationCache(int capacity, EvictionPolicy evictionPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+        }
+        this.evictionPolicy = evictionPolicy;
+
+        // fewer segments for small capacities, so that the cache never holds more entries than configured
+        int segmentCount = Math.min(SEGMENT_COUNT, capacity);
+        int segmentCapacity = capacity / segmentCount;
+        this.capacity = segmentCount * segmentCapacity;
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentCapacity, evictionPolicy == EvictionPolicy.LRU);
+        }
+    }
+
+    /**
+     * @return cached value for the given URL or, if not cached, the result of normalize (which is then cached)
+     */
+    String get(String url, Function<String, String> normalize) {
+        Segment segment = segments[(url.hashCode() & 0x7fffffff) % segments.length];
+
+        String normalizedUrl;
+        synchronized (segment) {
+            normalizedUrl = segment.get(url);
+        }
+        if (normalizedUrl != null) {
+            hitCount.increment();
+            return normalizedUrl;
+        }
+
+        missCount.increment();
+        normalizedUrl = normalize.apply(url);
+        synchronized (segment) {
+            segment.put(url, normalizedUrl);
+        }
+        return normalizedUrl;
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        long hits = getHitCount();
+        long lookups = hits + getMissCount();
+        // Locale.ROOT -> force '.' as decimal separator
+        String hitRate = String.format(Locale.ROOT, "%.2f%%", lookups == 0 ? 0.0 : ((double) hits) / lookups * 100);
+        return "NormalizationCache (" + evictionPolicy + ", " + size() + " of " + capacity + " entries): "
+                + hits + " hits, " + getMissCount() + " misses (hit rate " + hitRate + ")";
+    }
+
+    private static class Segment extends LinkedHashMap<String, String> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity, boolean accessOrder) {
+            super(16, 0.75f, accessOrder);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.sotorrent.stint;
+
+import java.nio.file.Path;
+
+/**
+ * Tuning parameters shared by {@link EventIterator} and {@link LinearSequenceIterator}.
+ */
+class ProcessingOptions {
+    // number of UPDATE statements sent to the database in one JDBC batch
+    int batchSize = 1000;
+    // minimum number of updated events per transaction (commits only happen at key boundaries)
+    int commitSize = 10000;
+    // number of keys whose events are retrieved with one query (1: one query per key)
+    int fetchBatchSize = 1;
+    // assignment of keys to partitions when the keys are retrieved (see KeyPartitioner), scan mode requires RANGE
+    KeyPartitioner.Routing keyRouting = KeyPartitioner.Routing.RANGE;
+    // store root event ids as sorted, delta-encoded binary work lists instead of CSV files (see WorkListFile)
+    boolean binaryWorkLists = false;
+    // directory for the CSV files of bulk output, null to update table Event in place (see BulkOutput)
+    Path bulkOutputDir = null;
+    // classify and normalize linear non-bot sequences while sessionizing (see SequenceClassifier)
+    boolean fused = false;
+    // also fill the analysis tables of linear sequences, e.g., LinearSearchSequences (see SequenceTable)
+    boolean sequenceTables = false;
+    // only process events created after the watermark of the last run (see Watermark)
+    boolean incremental = false;
+    // continue partitions from their last checkpoint instead of from the first record (see Checkpoint)
+    boolean resume = false;
+    // threads per stage and capacity (in keys) of the queues between the stages (see EventPipeline)
+    int readerThreads = 2;
+    int computeThreads = 1;
+    int writerThreads = 2;
+    int queueCapacity = 1000;
+    // number of normalized post URLs cached across worker threads (0 disables the cache), see NormalizationCache
+    int normalizationCacheSize = 100000;
+    NormalizationCache.EvictionPolicy normalizationCachePolicy = NormalizationCache.EvictionPolicy.LRU;
+    // keys taking at least this many milliseconds are written to slow_keys.csv (0 disables the file), see KeyProfiler
+    long slowKeyThresholdMillis = 0;
+    // event stream only (see StreamingSessionizer): maximum delay of an event behind the latest creation date, and
+    // time after which the state of an idle user identifier is evicted
+    int outOfOrderToleranceSeconds = 60;
+    int idleTimeoutSeconds = 3600;
+    // thresholds used when sessionizing an event store (see EventStoreSessionizer)
+    int navigationSequenceThresholdSeconds = Sessionizer.NAVIGATION_SEQUENCE_THRESHOLD_SECONDS;
+    int botTrafficThresholdSeconds = Sessionizer.BOT_TRAFFIC_THRESHOLD_SECONDS;
+}
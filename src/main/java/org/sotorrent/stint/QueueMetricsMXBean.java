@@ -0,0 +1,9 @@
+package org.sotorrent.stint;
+
+/**
+ * JMX view of a queue between two pipeline stages, see {@link EventPipeline}.
+ */
+public interface QueueMetricsMXBean {
+    int getDepth();
+    int getRemainingCapacity();
+}
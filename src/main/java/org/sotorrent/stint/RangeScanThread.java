@@ -0,0 +1,155 @@
+package org.sotorrent.stint;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.sotorrent.util.LogUtils;
+import org.sotorrent.util.exceptions.ErrorUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * Skeleton of the scan workers of {@link EventIterator} and {@link LinearSequenceIterator}: reads the key range of
+ * one partition, streams the events of the range in key order, and detects the boundaries between keys. Subclasses
+ * process the events of each key, the writer commits at key boundaries if due. A streaming result set blocks its
+ * connection, hence updates are sent through a second session.
+ */
+abstract class RangeScanThread extends Thread {
+
+    private static Logger logger = null;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(RangeScanThread.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private final SessionFactory sessionFactory;
+    private final File inputFile;
+    private final EventUpdateWriter.Columns columns;
+    private final ProcessingOptions options;
+    final int partition;
+
+    RangeScanThread(SessionFactory sessionFactory, File inputFile, int partition, EventUpdateWriter.Columns columns,
+                    ProcessingOptions options) {
+        this.sessionFactory = sessionFactory;
+        this.inputFile = inputFile;
+        this.partition = partition;
+        this.columns = columns;
+        this.options = options;
+    }
+
+    /**
+     * Reads the keys of the partition file, which is ordered by key.
+     * @return number of keys
+     */
+    abstract int readPartition(File inputFile) throws IOException;
+
+    /**
+     * @return cursor over the events of the key range of the partition, ordered by key
+     */
+    abstract EventReader.Cursor openCursor(StatelessSession readSession);
+
+    /**
+     * Called once before the first event with the writer for the updates.
+     */
+    abstract void startScan(EventUpdateWriter writer, int recordCount);
+
+    abstract boolean isSameKey(Event previousEvent, Event event);
+
+    /**
+     * Called with the first event of each key, before the event is passed to {@link #processEvent(Event)}.
+     */
+    abstract void startKey(Event event);
+
+    abstract void processEvent(Event event);
+
+    /**
+     * Called after the last event of each key.
+     */
+    abstract void finishKey() throws SQLException;
+
+    /**
+     * Called after all events have been processed and committed.
+     */
+    abstract void finishScan();
+
+    /**
+     * Called once all events of the partition have been processed and committed (also if the partition is empty).
+     * Not called if the worker exits abnormally, e.g., because the partition file is missing or reading it failed.
+     */
+    void completed() {}
+
+    @Override
+    public void run() {
+        scan();
+        logger.info("File " + inputFile.getName() + " has been processed.");
+    }
+
+    private void scan() {
+        if (sessionFactory == null) {
+            throw new IllegalStateException("Static session factory not created yet.");
+        }
+
+        if (!inputFile.exists()) {
+            throw new IllegalArgumentException("Thread " + partition + ": Error while reading input file: "
+                    + inputFile);
+        }
+        logger.info("Thread " + partition + ": Reading file " + inputFile.getName() + " ...");
+
+        int recordCount;
+        try {
+            recordCount = readPartition(inputFile);
+        } catch (IOException e) {
+            logger.warning(ErrorUtils.exceptionStackTraceToString(e));
+            return;
+        }
+
+        if (recordCount == 0) {
+            logger.info("Thread " + partition + ": Partition is empty.");
+            completed();
+            return;
+        }
+
+        EventUpdateWriter writer = null;
+        try (StatelessSession readSession = sessionFactory.openStatelessSession();
+             StatelessSession writeSession = sessionFactory.openStatelessSession()) {
+            writer = new EventUpdateWriter(writeSession, columns, options);
+            startScan(writer, recordCount);
+
+            EventReader.Cursor cursor = openCursor(readSession);
+            Event previousEvent = null;
+            Event event;
+            while ((event = cursor.next()) != null) {
+                // key boundary in the ordered stream
+                if (previousEvent == null || !isSameKey(previousEvent, event)) {
+                    if (previousEvent != null) {
+                        finishKey();
+                        writer.commitIfDue();
+                    }
+                    startKey(event);
+                }
+                processEvent(event);
+                previousEvent = event;
+            }
+            cursor.close();
+
+            if (previousEvent != null) {
+                finishKey();
+            }
+            writer.close();
+            finishScan();
+            completed();
+        } catch (Exception e) {
+            logger.warning(ErrorUtils.exceptionStackTraceToString(e));
+            if (writer != null) {
+                writer.rollback();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.sotorrent.stint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Fused mode: collects the sessionized events of one user identifier and decides which of its navigation sequences
+ * are linear non-bot sequences, i.e., the user identifier has no bot traffic and the sequence has no gap (as table
+ * LinearNonBotSequences in sql/import/import_from_csv.sql). These sequences are normalized as in
+ * {@link LinearSequenceIterator} and their events are marked, then all events are passed on. Thus, linear navigation
+ * sequences do not need to be retrieved a second time.
+ */
+class SequenceClassifier implements Sessionizer.EventSink {
+
+    private final Sessionizer.EventSink sink;
+    private final SequenceNormalizer sequenceNormalizer;
+    // events of the current user identifier in chronological order, i.e., sequence by sequence
+    private final List<Event> userEvents = new ArrayList<>();
+    private int linearNonBotSequenceCount = 0;
+    // incremental mode: bot traffic in events of the user identifier that are not passed to this classifier
+    private boolean priorBotTraffic = false;
+    // whether the last finished user identifier is a possible bot
+    private boolean botTraffic = false;
+
+    SequenceClassifier(Sessionizer.EventSink sink, SequenceNormalizer sequenceNormalizer) {
+        this.sink = sink;
+        this.sequenceNormalizer = sequenceNormalizer;
+    }
+
+    @Override
+    public void write(Event event) {
+        userEvents.add(event);
+    }
+
+    @Override
+    public void finishKey() {
+        // possible bot: any event of the user identifier is bot traffic
+        botTraffic = priorBotTraffic;
+        for (Event event : userEvents) {
+            if (event.getBotTraffic()) {
+                botTraffic = true;
+                break;
+            }
+        }
+
+        int sequenceStart = 0;
+        while (sequenceStart < userEvents.size()) {
+            Integer rootEventId = userEvents.get(sequenceStart).getRootEventId();
+            int sequenceEnd = sequenceStart + 1;
+            // events without root event id are not part of a sequence
+            while (rootEventId != null && sequenceEnd < userEvents.size()
+                    && Objects.equals(userEvents.get(sequenceEnd).getRootEventId(), rootEventId)) {
+                sequenceEnd++;
+            }
+
+            List<Event> sequence = userEvents.subList(sequenceStart, sequenceEnd);
+            if (rootEventId != null && !botTraffic && !hasGap(sequence)) {
+                // marks the events, see SequenceTable
+                sequenceNormalizer.normalize(sequence);
+                linearNonBotSequenceCount++;
+            }
+            sequenceStart = sequenceEnd;
+        }
+
+        for (Event event : userEvents) {
+            sink.write(event);
+        }
+        userEvents.clear();
+        priorBotTraffic = false;
+        sink.finishKey();
+    }
+
+    /**
+     * Must be called before the events of a user identifier are written, applies to this user identifier only.
+     */
+    void setPriorBotTraffic(boolean priorBotTraffic) {
+        this.priorBotTraffic = priorBotTraffic;
+    }
+
+    boolean isBotTraffic() {
+        return botTraffic;
+    }
+
+    int getLinearNonBotSequenceCount() {
+        return linearNonBotSequenceCount;
+    }
+
+    private static boolean hasGap(List<Event> sequence) {
+        for (Event event : sequence) {
+            if (event.getGapInSequence()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,220 @@
+package org.sotorrent.stint;
+
+import org.sotorrent.util.URL;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Processes one linear navigation sequence: normalizes post URLs and referrers, detects page refreshes, extracts
+ * query and fragment identifier, and marks the events with the sequence tables the sequence belongs to.
+ */
+class SequenceNormalizer {
+
+    private static final String STACK_OVERFLOW_URL_PREFIX = "https://stackoverflow.com";
+
+    // shared by all normalizers, may be null
+    private final NormalizationCache normalizationCache;
+
+    SequenceNormalizer() {
+        this(null);
+    }
+
+    SequenceNormalizer(NormalizationCache normalizationCache) {
+        this.normalizationCache = normalizationCache;
+    }
+
+    /**
+     * @param navigationSequence events of one navigation sequence in chronological order (modified in place)
+     */
+    void normalize(List<Event> navigationSequence) {
+        // index of the last access of each post URL and of each prefix of the post URLs
+        PostUrlIndex accessedPostUrls = new PostUrlIndex();
+        for (int i=0; i<navigationSequence.size(); i++) {
+            Event event = navigationSequence.get(i);
+
+            if (event.getEventTarget().equals("Post")) {
+                // normalize links to Stack Overflow posts
+                event.setNormalizedUrl(normalizationCache == null
+                        ? normalizePostUrl(event.getUrl())
+                        : normalizationCache.get(event.getUrl(), SequenceNormalizer::normalizePostUrl)
+                );
+
+                // use previously accessed post URLs to correctly set normalized URL for truncated
+                // referrers, e.g.:
+                //   RootEventId: 271116326
+                //   Referrer: /questions/35352638/react-router-how-to
+                //   Url: /questions/35352638/react-router-how-to-get-parameter-value-from-url/48256676
+                Event referrerEvent = findReferrerEvent(navigationSequence, accessedPostUrls, event);
+                if (referrerEvent != null) {
+                    event.setNormalizedReferrer(referrerEvent.getNormalizedUrl());
+                }
+
+                accessedPostUrls.put(event.getUrl(), i);
+            }
+
+            // detect page refreshes
+            if (i > 0) {
+                Event previousEvent = navigationSequence.get(i-1);
+                boolean pageRefresh = isPageRefresh(event, previousEvent);
+                event.setPageRefresh(pageRefresh);
+
+                // update first event in sequence
+                // otherwise, not all events would be marked as page refreshes in a sequence
+                // consisting exclusively of page refreshes
+                if (i == 1 && pageRefresh) {
+                    previousEvent.setPageRefresh(true);
+                }
+            }
+
+            // extract query and fragment identifier from Url
+            event.extractQuery();
+            event.extractFragmentIdentifier();
+        }
+
+        classify(navigationSequence);
+    }
+
+    /**
+     * Same classification as the queries in sql/import/import_from_csv.sql and sql/analysis.sql, but without joins
+     * over table Event (see {@link SequenceTable}). As there, a sequence belongs to LinearNonBotNonPageRefreshSequences
+     * if at least one of its events is not a page refresh, i.e., only sequences consisting exclusively of page
+     * refreshes are excluded.
+     */
+    private static void classify(List<Event> navigationSequence) {
+        if (navigationSequence.isEmpty()) {
+            return;
+        }
+
+        boolean nonPageRefresh = false;
+        boolean search = false;
+        boolean thread = false;
+        long lastCreationTime = navigationSequence.get(navigationSequence.size()-1).getCreationTime();
+        for (Event event : navigationSequence) {
+            nonPageRefresh |= !event.getPageRefresh();
+            search |= event.getEventTarget().equals("Search");
+            // as MAX(CreationDate), the last creation date may be shared by several events
+            thread |= event.getCreationTime() == lastCreationTime && event.getEventTarget().equals("Post");
+        }
+
+        int sequenceTables = SequenceTable.LINEAR_NON_BOT.mask();
+        if (nonPageRefresh) {
+            sequenceTables |= SequenceTable.LINEAR_NON_BOT_NON_PAGE_REFRESH.mask();
+            if (search) {
+                sequenceTables |= SequenceTable.LINEAR_SEARCH.mask();
+            }
+            if (thread) {
+                sequenceTables |= SequenceTable.LINEAR_THREAD.mask();
+            }
+            if (search && thread) {
+                sequenceTables |= SequenceTable.LINEAR_SEARCH_THREAD.mask();
+            }
+        }
+        for (Event event : navigationSequence) {
+            event.setSequenceTables(sequenceTables);
+        }
+    }
+
+    /**
+     * Resolves a (possibly truncated) referrer to the post page it most likely refers to: the accessed post URL
+     * equal to the referrer, otherwise the most recently accessed post URL that starts with the referrer, because
+     * the referrer is the page visited last, otherwise the URL of the event itself, if it starts with the referrer.
+     * Both lookups take O(|referrer|), independent of the number of accessed post URLs (see {@link PostUrlIndex}).
+     * @return event whose normalized URL is the normalized referrer, or null if there is none
+     */
+    private static Event findReferrerEvent(List<Event> navigationSequence, PostUrlIndex accessedPostUrls,
+                                            Event event) {
+        String referrer = event.getReferrer();
+        PostUrlIndex.Node node = accessedPostUrls.find(referrer);
+        if (node != null) {
+            int index = node.lastIndex >= 0 ? node.lastIndex : node.lastPrefixIndex;
+            return navigationSequence.get(index);
+        }
+        return event.getUrl().startsWith(referrer) ? event : null;
+    }
+
+    private static String normalizePostUrl(String url) {
+        return URL.getNormalizedStackOverflowLink(STACK_OVERFLOW_URL_PREFIX + url)
+                .getUrlString().substring(STACK_OVERFLOW_URL_PREFIX.length());
+    }
+
+    static boolean isPageRefresh(Event event, Event previousEvent) {
+        return previousEvent.getEventTarget().equals(event.getEventSource())
+                && previousEvent.getUrl().equals(event.getUrl())
+                && previousEvent.getUrl().startsWith(event.getReferrer());
+    }
+
+    /**
+     * Trie of the post URLs accessed in one navigation sequence. Each node stores the index of the last access of
+     * any URL starting with the node's prefix, which is updated along the path of each inserted URL. Thus, the most
+     * recently accessed URL starting with a prefix is found by walking the prefix once, instead of comparing all
+     * URLs in the range of the prefix.
+     */
+    private static class PostUrlIndex {
+
+        static class Node {
+            // index of the last access of the URL ending at this node, -1 if there is none
+            int lastIndex = -1;
+            // index of the last access of any URL starting with the prefix of this node
+            int lastPrefixIndex = -1;
+            private char[] labels = null;
+            private Node[] children = null;
+            private int childCount = 0;
+
+            private Node child(char label) {
+                for (int i=0; i<childCount; i++) {
+                    if (labels[i] == label) {
+                        return children[i];
+                    }
+                }
+                return null;
+            }
+
+            private Node addChild(char label) {
+                if (labels == null) {
+                    labels = new char[2];
+                    children = new Node[2];
+                } else if (childCount == labels.length) {
+                    labels = Arrays.copyOf(labels, childCount * 2);
+                    children = Arrays.copyOf(children, childCount * 2);
+                }
+                Node child = new Node();
+                labels[childCount] = label;
+                children[childCount] = child;
+                childCount++;
+                return child;
+            }
+        }
+
+        private final Node root = new Node();
+
+        void put(String url, int index) {
+            Node node = root;
+            node.lastPrefixIndex = index;
+            for (int i=0; i<url.length(); i++) {
+                char label = url.charAt(i);
+                Node child = node.child(label);
+                if (child == null) {
+                    child = node.addChild(label);
+                }
+                node = child;
+                node.lastPrefixIndex = index;
+            }
+            node.lastIndex = index;
+        }
+
+        /**
+         * @return node of the given prefix, or null if no accessed URL starts with it
+         */
+        Node find(String prefix) {
+            if (root.lastPrefixIndex < 0) {
+                return null;
+            }
+            Node node = root;
+            for (int i=0; i<prefix.length() && node != null; i++) {
+                node = node.child(prefix.charAt(i));
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.sotorrent.stint;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Tables of root event ids that classify linear navigation sequences (see sql/import/import_from_csv.sql and
+ * sql/analysis.sql). {@link SequenceNormalizer} marks the events of each sequence it processes, and
+ * {@link EventUpdateWriter} inserts the root event ids, so that the tables do not have to be derived afterwards with
+ * joins over table Event.
+ */
+enum SequenceTable {
+    LINEAR_NON_BOT("LinearNonBotSequences"),
+    // linear non-bot sequences that do not consist exclusively of page refreshes
+    LINEAR_NON_BOT_NON_PAGE_REFRESH("LinearNonBotNonPageRefreshSequences"),
+    // ... containing a search event
+    LINEAR_SEARCH("LinearSearchSequences"),
+    // ... ending in a thread
+    LINEAR_THREAD("LinearThreadSequences"),
+    // ... containing a search event and ending in a thread
+    LINEAR_SEARCH_THREAD("LinearSearchThreadSequences");
+
+    private static final Set<SequenceTable> ANALYSIS_TABLES = EnumSet.of(LINEAR_NON_BOT_NON_PAGE_REFRESH,
+            LINEAR_SEARCH, LINEAR_THREAD, LINEAR_SEARCH_THREAD);
+
+    private final String tableName;
+
+    SequenceTable(String tableName) {
+        this.tableName = tableName;
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    int mask() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * @return tables filled by the writers of the given processing phase
+     */
+    static Set<SequenceTable> filledBy(EventUpdateWriter.Columns columns, ProcessingOptions options) {
+        Set<SequenceTable> tables = EnumSet.noneOf(SequenceTable.class);
+        if (columns == EventUpdateWriter.Columns.SEQUENCE) {
+            return tables;
+        }
+        // process-linear reads table LinearNonBotSequences, fused mode creates it
+        if (columns == EventUpdateWriter.Columns.FUSED) {
+            tables.add(LINEAR_NON_BOT);
+        }
+        if (options.sequenceTables) {
+            tables.addAll(ANALYSIS_TABLES);
+        }
+        return tables;
+    }
+
+    /**
+     * (Re-)creates the given tables, which are filled while the events are processed.
+     */
+    static void createTables(SessionFactory sessionFactory, Set<SequenceTable> tables) {
+        Transaction t = null;
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            t = session.beginTransaction();
+            Connection connection = Jdbc.connection(session);
+            try (Statement statement = connection.createStatement()) {
+                for (SequenceTable table : tables) {
+                    statement.executeUpdate("DROP TABLE IF EXISTS `" + table.tableName + "`");
+                    statement.executeUpdate("CREATE TABLE `" + table.tableName + "` (RootEventId INT NOT NULL, PRIMARY KEY (RootEventId))");
+                }
+            }
+            t.commit();
+        } catch (SQLException e) {
+            if (t != null && t.isActive()) {
+                t.rollback();
+            }
+            throw new IllegalStateException("Error while creating tables " + tables, e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.sotorrent.stint;
+
+/**
+ * Splits the chronologically ordered events of one user identifier into navigation sequences and sets
+ * RootEventId, DiffSeconds, BotTraffic, and GapInSequence.
+ * Each event is passed to the sink exactly once, as soon as its values cannot change anymore. Only the last event of
+ * the open sequence is kept, hence the memory does not grow with the length of a sequence.
+ * Call {@link #finish()} after the last event of a user identifier.
+ */
+class Sessionizer {
+
+    static final int NAVIGATION_SEQUENCE_THRESHOLD_SECONDS = 360;
+    static final int BOT_TRAFFIC_THRESHOLD_SECONDS = 1;
+
+    interface EventSink {
+        void write(Event event);
+
+        /**
+         * Called after all events of a user identifier have been written.
+         */
+        default void finishKey() {}
+    }
+
+    private final EventSink sink;
+    // last event of the open navigation sequence, not written yet, because a successor may still change its values
+    private Event previousEvent = null;
+    // id of the first event of the open navigation sequence
+    private int rootEventId;
+    // false while the open navigation sequence consists of a single event
+    private boolean multipleEvents = false;
+    // last event of a sequence closed with endSequence(), the next event's DiffSeconds refers to it
+    private Event closedEvent = null;
+
+    Sessionizer(EventSink sink) {
+        this.sink = sink;
+    }
+
+    void processEvent(Event currentEvent) {
+        if (previousEvent != null) {
+            // determine time difference to predecessor
+            currentEvent.setDiffSeconds(previousEvent);
+
+            // gap in event stream -> start new event sequence
+            if (currentEvent.getDiffSeconds() > NAVIGATION_SEQUENCE_THRESHOLD_SECONDS) {
+                closeSequence();
+            } else {
+                // determine whether sequence could be bot traffic
+                // (access to same URL in short time frame)
+                currentEvent.setBotTraffic(
+                        currentEvent.getDiffSeconds() < BOT_TRAFFIC_THRESHOLD_SECONDS
+                                && UrlParts.equalsTrimmed(currentEvent.getUrl(), previousEvent.getUrl())
+                );
+                // determine whether there is a gap in the sequence
+                // (traffic not covered by the dataset or non-linear sequence)
+                // check prefix, because referrers are often truncated
+                currentEvent.setGapInSequence(
+                        !previousEvent.getEventTarget().equals(currentEvent.getEventSource())
+                                || !previousEvent.getUrl().startsWith(currentEvent.getReferrer())
+                );
+                // previous event has a successor in the same sequence -> its values are final
+                sink.write(previousEvent);
+                multipleEvents = true;
+            }
+        } else if (closedEvent != null) {
+            // the sequence has been closed early, a gap is guaranteed
+            currentEvent.setDiffSeconds(closedEvent);
+        }
+        closedEvent = null;
+
+        // first event of a new sequence
+        if (previousEvent == null) {
+            rootEventId = currentEvent.getId();
+            multipleEvents = false;
+        }
+
+        // set root event id
+        currentEvent.setRootEventId(rootEventId);
+        previousEvent = currentEvent;
+    }
+
+    /**
+     * Closes the open navigation sequence after the last event of a user identifier has been processed.
+     */
+    void finish() {
+        closeSequence();
+        closedEvent = null;
+        sink.finishKey();
+    }
+
+    /**
+     * Closes the open navigation sequence once it is known that the next event of the user identifier, if any, will
+     * follow after a gap (see {@link StreamingSessionizer}). Unlike {@link #finish()}, the user identifier continues.
+     */
+    void endSequence() {
+        if (previousEvent == null) {
+            return;
+        }
+        closedEvent = previousEvent;
+        closeSequence();
+    }
+
+    private void closeSequence() {
+        if (previousEvent == null) {
+            return;
+        }
+
+        if (!multipleEvents) {
+            // not a sequence
+            previousEvent.setRootEventId(null);
+        }
+        sink.write(previousEvent);
+
+        previousEvent = null;
+    }
+}
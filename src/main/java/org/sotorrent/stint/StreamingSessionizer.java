@@ -0,0 +1,239 @@
+package org.sotorrent.stint;
+
+import java.util.*;
+
+/**
+ * Online counterpart of {@link EventIterator} and {@link LinearSequenceIterator} for an unbounded stream of events of
+ * many user identifiers, which may arrive out of order by up to the out-of-order tolerance. Events are buffered until
+ * the event-time watermark (latest creation date minus the tolerance) passes them, later events are dropped. Then,
+ * they are passed to a {@link Sessionizer} per user identifier in (CreationDate, Id) order.
+ * A navigation sequence is closed as soon as the watermark is NAVIGATION_SEQUENCE_THRESHOLD_SECONDS past its last
+ * event. Linear sequences of user identifiers without bot traffic so far are normalized (see
+ * {@link SequenceNormalizer}), then the sequence is passed to the sink. The state of a user identifier is evicted
+ * once it has been idle for the idle timeout, afterwards, its next event has no DiffSeconds.
+ * While no events arrive, {@link #advanceIdle(long)} moves the watermark with processing time, so that open
+ * sequences are still closed. The class is not thread-safe.
+ */
+class StreamingSessionizer {
+
+    interface SequenceSink {
+        /**
+         * @param sequence events of a closed navigation sequence in chronological order, or a single event (no
+         *                 RootEventId)
+         */
+        void write(List<Event> sequence);
+    }
+
+    private static final Comparator<Event> EVENT_TIME_ORDER = Comparator
+            .comparingLong(Event::getCreationTime)
+            .thenComparingInt(Event::getId);
+
+    private final SequenceSink sink;
+    private final long outOfOrderToleranceMillis;
+    private final long idleTimeoutMillis;
+    private final SequenceNormalizer sequenceNormalizer = new SequenceNormalizer();
+
+    // events that the watermark has not passed yet
+    private final PriorityQueue<Event> pendingEvents = new PriorityQueue<>(EVENT_TIME_ORDER);
+    // user identifiers with an open sequence, ordered by the creation time of their last event, because events are
+    // released in chronological order and a user identifier is moved to the end with each event
+    private final LinkedHashMap<String, UserState> openUsers = new LinkedHashMap<>();
+    // user identifiers whose last sequence has been closed, in the same order, kept until the idle timeout
+    private final LinkedHashMap<String, UserState> idleUsers = new LinkedHashMap<>();
+
+    private long maxCreationTime = Long.MIN_VALUE;
+    // all events created at or before the watermark (epoch milliseconds) have been released
+    private long watermark = Long.MIN_VALUE;
+    private long droppedEventCount = 0;
+    private long sequenceCount = 0;
+    private long evictedUserCount = 0;
+
+    StreamingSessionizer(SequenceSink sink, int outOfOrderToleranceSeconds, int idleTimeoutSeconds) {
+        if (idleTimeoutSeconds <= Sessionizer.NAVIGATION_SEQUENCE_THRESHOLD_SECONDS) {
+            throw new IllegalArgumentException("Idle timeout must exceed "
+                    + Sessionizer.NAVIGATION_SEQUENCE_THRESHOLD_SECONDS + " seconds.");
+        }
+        this.sink = sink;
+        this.outOfOrderToleranceMillis = outOfOrderToleranceSeconds * 1000L;
+        this.idleTimeoutMillis = idleTimeoutSeconds * 1000L;
+    }
+
+    /**
+     * @return false if the event has been dropped, because the watermark has already passed it
+     */
+    boolean processEvent(Event event) {
+        if (event.getCreationTime() <= watermark) {
+            droppedEventCount++;
+            return false;
+        }
+
+        pendingEvents.add(event);
+        if (event.getCreationTime() > maxCreationTime) {
+            maxCreationTime = event.getCreationTime();
+            advanceWatermark(maxCreationTime - outOfOrderToleranceMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Advances the watermark, e.g., if no events have arrived for a while: releases all pending events created at or
+     * before it, closes the sequences that no later event can continue, and evicts idle user identifiers.
+     * @param creationTime epoch milliseconds
+     */
+    void advanceWatermark(long creationTime) {
+        if (creationTime <= watermark) {
+            return;
+        }
+        watermark = creationTime;
+
+        while (!pendingEvents.isEmpty() && pendingEvents.peek().getCreationTime() <= watermark) {
+            release(pendingEvents.poll());
+        }
+
+        // later events are created after the watermark
+        Iterator<UserState> openIterator = openUsers.values().iterator();
+        while (openIterator.hasNext()) {
+            UserState userState = openIterator.next();
+            if (!isGap(userState.lastCreationTime, watermark + 1)) {
+                break;
+            }
+            openIterator.remove();
+            closeSequence(userState);
+            idleUsers.put(userState.userIdentifier, userState);
+        }
+
+        Iterator<UserState> idleIterator = idleUsers.values().iterator();
+        while (idleIterator.hasNext()) {
+            UserState userState = idleIterator.next();
+            if (watermark - userState.lastCreationTime < idleTimeoutMillis) {
+                break;
+            }
+            idleIterator.remove();
+            evictedUserCount++;
+        }
+    }
+
+    /**
+     * Advances the watermark while no events arrive, assuming that event time passes like processing time: the
+     * watermark is moved by the processing time since the latest event arrived. Events that arrive later, but were
+     * created before the watermark, are dropped.
+     * @param idleMillis processing time since the latest event arrived
+     */
+    void advanceIdle(long idleMillis) {
+        if (maxCreationTime == Long.MIN_VALUE) {
+            // no events yet
+            return;
+        }
+        advanceWatermark(maxCreationTime - outOfOrderToleranceMillis + idleMillis);
+    }
+
+    /**
+     * Releases all pending events and closes all open sequences, e.g., at the end of the stream.
+     */
+    void close() {
+        while (!pendingEvents.isEmpty()) {
+            release(pendingEvents.poll());
+        }
+        for (UserState userState : openUsers.values()) {
+            closeSequence(userState);
+        }
+        openUsers.clear();
+        idleUsers.clear();
+    }
+
+    long getWatermark() {
+        return watermark;
+    }
+
+    long getDroppedEventCount() {
+        return droppedEventCount;
+    }
+
+    long getSequenceCount() {
+        return sequenceCount;
+    }
+
+    long getEvictedUserCount() {
+        return evictedUserCount;
+    }
+
+    /**
+     * @return number of user identifiers whose state is kept
+     */
+    int getUserCount() {
+        return openUsers.size() + idleUsers.size();
+    }
+
+    private void release(Event event) {
+        String userIdentifier = event.getUserIdentifier();
+        UserState userState = openUsers.remove(userIdentifier);
+        if (userState != null) {
+            // a gap between two released events closes the open sequence before the watermark does
+            if (isGap(userState.lastCreationTime, event.getCreationTime())) {
+                closeSequence(userState);
+            }
+        } else {
+            userState = idleUsers.remove(userIdentifier);
+            if (userState == null) {
+                userState = new UserState(userIdentifier);
+            }
+        }
+
+        userState.sessionizer.processEvent(event);
+        userState.lastCreationTime = event.getCreationTime();
+        openUsers.put(userIdentifier, userState);
+    }
+
+    private void closeSequence(UserState userState) {
+        userState.sessionizer.endSequence();
+        emit(userState);
+    }
+
+    private void emit(UserState userState) {
+        List<Event> sequence = new ArrayList<>(userState.sequence);
+        userState.sequence.clear();
+
+        // as LinearNonBotSequences (see SequenceClassifier), but only considering the events seen so far
+        if (sequence.size() > 1 && !userState.botTraffic && !hasGap(sequence)) {
+            sequenceNormalizer.normalize(sequence);
+        }
+        sink.write(sequence);
+        sequenceCount++;
+    }
+
+    // same rounding as Sessionizer
+    private static boolean isGap(long fromCreationTime, long toCreationTime) {
+        return (toCreationTime - fromCreationTime) / 1000 > Sessionizer.NAVIGATION_SEQUENCE_THRESHOLD_SECONDS;
+    }
+
+    private static boolean hasGap(List<Event> sequence) {
+        for (Event event : sequence) {
+            if (event.getGapInSequence()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Open sequence of one user identifier: its events are collected as soon as the sessionizer has set their values.
+     */
+    private static class UserState implements Sessionizer.EventSink {
+        private final String userIdentifier;
+        private final Sessionizer sessionizer = new Sessionizer(this);
+        private final List<Event> sequence = new ArrayList<>();
+        private long lastCreationTime;
+        // possible bot: any event of the user identifier seen so far is bot traffic
+        private boolean botTraffic = false;
+
+        UserState(String userIdentifier) {
+            this.userIdentifier = userIdentifier;
+        }
+
+        @Override
+        public void write(Event event) {
+            sequence.add(event);
+            botTraffic |= event.getBotTraffic();
+        }
+    }
+}
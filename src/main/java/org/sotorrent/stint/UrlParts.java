@@ -0,0 +1,74 @@
+package org.sotorrent.stint;
+
+/**
+ * Decomposes URLs and referrers into query and fragment identifier by scanning their characters once, without
+ * regular expressions. Boundaries follow the patterns previously used by {@link Event}: the query starts after the
+ * first '?' and ends before the next '#' ("\\?[^#]*"), the fragment identifier starts after the first '#' (even if
+ * it precedes the first '?') and ends before the next line terminator, because '.' in "#.*" does not match line
+ * terminators.
+ */
+final class UrlParts {
+
+    private UrlParts() {}
+
+    /**
+     * @return query without leading '?' or null if the URL does not have a query
+     */
+    static String query(String url) {
+        int start = url.indexOf('?');
+        if (start < 0) {
+            return null;
+        }
+        int end = url.indexOf('#', start + 1);
+        return url.substring(start + 1, end < 0 ? url.length() : end);
+    }
+
+    /**
+     * @return fragment identifier without leading '#' or null if the URL does not have one
+     */
+    static String fragmentIdentifier(String url) {
+        int start = url.indexOf('#');
+        if (start < 0) {
+            return null;
+        }
+        int end = start + 1;
+        while (end < url.length() && !isLineTerminator(url.charAt(end))) {
+            end++;
+        }
+        return url.substring(start + 1, end);
+    }
+
+    // line terminators of java.util.regex.Pattern without UNIX_LINES
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Same result as a.trim().equals(b.trim()), without creating trimmed copies.
+     */
+    static boolean equalsTrimmed(String a, String b) {
+        int aStart = trimStart(a);
+        int aEnd = trimEnd(a, aStart);
+        int bStart = trimStart(b);
+        int bEnd = trimEnd(b, bStart);
+        int length = aEnd - aStart;
+        return length == bEnd - bStart && a.regionMatches(aStart, b, bStart, length);
+    }
+
+    // String.trim() removes all characters up to and including U+0020
+    private static int trimStart(String value) {
+        int start = 0;
+        while (start < value.length() && value.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String value, int start) {
+        int end = value.length();
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+}
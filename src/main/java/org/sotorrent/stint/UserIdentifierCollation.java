@@ -0,0 +1,30 @@
+package org.sotorrent.stint;
+
+import java.util.Locale;
+
+/**
+ * Compares user identifiers like MySQL compares column UserIdentifier (collation utf8mb4_unicode_ci, see
+ * sql/import/import_from_csv.sql): case-insensitive and, as PAD SPACE collation, ignoring trailing spaces. Thus,
+ * the order of the user identifier files and the matches of UserIdentifier IN (...) agree with the database. This is
+ * exact for user identifiers of ASCII letters, digits, and spaces; accents and punctuation are neither folded nor
+ * weighted like in the database.
+ */
+final class UserIdentifierCollation {
+
+    private UserIdentifierCollation() {}
+
+    static int compare(String userIdentifier1, String userIdentifier2) {
+        return key(userIdentifier1).compareTo(key(userIdentifier2));
+    }
+
+    /**
+     * @return key that is equal for all user identifiers the database considers equal
+     */
+    static String key(String userIdentifier) {
+        int end = userIdentifier.length();
+        while (end > 0 && userIdentifier.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return userIdentifier.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,98 @@
+package org.sotorrent.stint;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Creation time (epoch seconds) up to which all events of table Event have been sessionized. Each run of
+ * {@link EventIterator} first records the latest creation time as pending watermark, which only becomes the
+ * watermark once all workers have finished. An incremental run then only processes events created after the
+ * watermark and up to the pending one. Resumed runs keep their pending watermark, so that they process the same
+ * events as the interrupted run.
+ */
+class Watermark {
+
+    static final String FILE_NAME = "watermark.properties";
+    // no watermark has been saved yet
+    static final long NONE = Long.MIN_VALUE;
+
+    private final Path file;
+    private long creationTime = NONE;
+    private long pendingCreationTime = NONE;
+
+    Watermark(File dataDir) {
+        this.file = dataDir.toPath().resolve(FILE_NAME);
+    }
+
+    long getCreationTime() {
+        return creationTime;
+    }
+
+    long getPendingCreationTime() {
+        return pendingCreationTime;
+    }
+
+    /**
+     * Loads a previously saved watermark, if one exists.
+     * @return true if a watermark file was loaded
+     */
+    boolean load() throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        creationTime = parse(properties.getProperty("creationTime"));
+        pendingCreationTime = parse(properties.getProperty("pendingCreationTime"));
+        return true;
+    }
+
+    /**
+     * Records the creation time the current run processes events up to.
+     */
+    void begin(long pendingCreationTime) throws IOException {
+        this.pendingCreationTime = pendingCreationTime;
+        save();
+    }
+
+    /**
+     * Advances the watermark to the pending creation time, must only be called after all events up to it have been
+     * committed.
+     */
+    void commit() throws IOException {
+        if (pendingCreationTime == NONE) {
+            // table Event was empty
+            return;
+        }
+        creationTime = pendingCreationTime;
+        pendingCreationTime = NONE;
+        save();
+    }
+
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        if (creationTime != NONE) {
+            properties.setProperty("creationTime", String.valueOf(creationTime));
+        }
+        if (pendingCreationTime != NONE) {
+            properties.setProperty("pendingCreationTime", String.valueOf(pendingCreationTime));
+        }
+
+        // write to temporary file first, a crash while writing must not corrupt the last watermark
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile)) {
+            properties.store(writer, "watermark");
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long parse(String value) {
+        return value == null ? NONE : Long.parseLong(value);
+    }
+}
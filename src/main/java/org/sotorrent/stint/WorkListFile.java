@@ -0,0 +1,116 @@
+package org.sotorrent.stint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary work list of sorted integer keys (e.g., root event ids). Layout: magic number, number of keys, and CRC32
+ * checksum of the payload, followed by the payload, in which each key is stored as varint-encoded difference to its
+ * predecessor (the first key as difference to Integer.MIN_VALUE). For dense ids, most keys take one or two bytes.
+ */
+class WorkListFile {
+
+    static final String FILE_EXTENSION = ".bin";
+
+    private static final int MAGIC = 0x53574c31; // "SWL1"
+    private static final int HEADER_SIZE = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // a difference between two ints takes at most 33 bits, i.e., 5 varint bytes
+    private static final int MAX_VARINT_SIZE = 5;
+
+    private WorkListFile() {}
+
+    /**
+     * Writes keys[from, to), which must be sorted in ascending order.
+     */
+    static void write(Path file, int[] keys, int from, int to) throws IOException {
+        CRC32 checksum = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // header is written last, once the checksum is known
+            channel.position(HEADER_SIZE);
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long previous = Integer.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                long delta = keys[i] - previous;
+                if (delta < 0) {
+                    throw new IllegalArgumentException("Keys are not sorted: " + keys[i] + " follows " + previous + ".");
+                }
+                if (buffer.remaining() < MAX_VARINT_SIZE) {
+                    flush(channel, buffer, checksum);
+                }
+                while (delta >= 0x80) {
+                    buffer.put((byte) (delta | 0x80));
+                    delta >>>= 7;
+                }
+                buffer.put((byte) delta);
+                previous = keys[i];
+            }
+            flush(channel, buffer, checksum);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(to - from).putLong(checksum.getValue()).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer, CRC32 checksum) throws IOException {
+        buffer.flip();
+        checksum.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Maps the file into memory and decodes all keys.
+     * @throws IllegalStateException if the file is not a work list or is corrupted
+     */
+    static int[] read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IllegalStateException("Not a work list file: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalStateException("Not a work list file: " + file);
+            }
+            int count = buffer.getInt();
+            long expectedChecksum = buffer.getLong();
+
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.duplicate());
+            if (checksum.getValue() != expectedChecksum) {
+                throw new IllegalStateException("Checksum mismatch in work list file: " + file);
+            }
+
+            int[] keys = new int[count];
+            long previous = Integer.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get();
+                    delta |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                previous += delta;
+                keys[i] = (int) previous;
+            }
+            if (buffer.hasRemaining()) {
+                throw new IllegalStateException("Work list file " + file + " contains more than " + count + " keys.");
+            }
+            return keys;
+        }
+    }
+}
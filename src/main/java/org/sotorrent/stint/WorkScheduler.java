@@ -0,0 +1,113 @@
+package org.sotorrent.stint;
+
+import org.sotorrent.util.LogUtils;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.logging.Logger;
+
+/**
+ * Hands out chunks of keys to worker threads. Each worker initially owns a contiguous block of chunks and takes
+ * chunks from the head of its own deque; once it runs dry, it steals chunks from the tail of the other workers'
+ * deques. Thus, workers that got keys with few events help the ones stuck with heavy keys (e.g., bots).
+ *
+ * @param <C> type of a chunk of keys
+ */
+class WorkScheduler<C> {
+
+    private static Logger logger = null;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(WorkScheduler.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static class Chunk<C> {
+        final int index;
+        final C keys;
+
+        Chunk(int index, C keys) {
+            this.index = index;
+            this.keys = keys;
+        }
+    }
+
+    private final ConcurrentLinkedDeque<Chunk<C>>[] deques;
+    private final int chunkCount;
+    private final BitSet completedChunks;
+    private int completedCount = 0;
+    private int stolenCount = 0;
+
+    @SuppressWarnings("unchecked")
+    WorkScheduler(List<C> chunks, int workerCount) {
+        this.chunkCount = chunks.size();
+        this.completedChunks = new BitSet(chunkCount);
+        this.deques = (ConcurrentLinkedDeque<Chunk<C>>[]) new ConcurrentLinkedDeque<?>[workerCount];
+
+        for (int worker = 0; worker < workerCount; worker++) {
+            deques[worker] = new ConcurrentLinkedDeque<>();
+            int from = (int) ((long) chunkCount * worker / workerCount);
+            int to = (int) ((long) chunkCount * (worker + 1) / workerCount);
+            for (int index = from; index < to; index++) {
+                deques[worker].addLast(new Chunk<>(index, chunks.get(index)));
+            }
+        }
+    }
+
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * @return next chunk for the given worker or null if no chunks are left
+     */
+    Chunk<C> next(int worker) {
+        Chunk<C> chunk = deques[worker].pollFirst();
+        if (chunk != null) {
+            return chunk;
+        }
+
+        // steal from the tail of the other workers' deques
+        for (int i = 1; i < deques.length; i++) {
+            int victim = (worker + i) % deques.length;
+            chunk = deques[victim].pollLast();
+            if (chunk != null) {
+                synchronized (this) {
+                    stolenCount++;
+                }
+                return chunk;
+            }
+        }
+        return null;
+    }
+
+    synchronized void complete(Chunk<C> chunk) {
+        if (completedChunks.get(chunk.index)) {
+            throw new IllegalStateException("Chunk " + chunk.index + " completed twice.");
+        }
+        completedChunks.set(chunk.index);
+        completedCount++;
+
+        if (completedCount == chunkCount || completedCount % 100 == 0) {
+            // Locale.ROOT -> force '.' as decimal separator
+            String progress = String.format(Locale.ROOT, "%.2f%%", ((double) completedCount) / chunkCount * 100);
+            logger.info(completedCount + " of " + chunkCount + " chunks completed (" + progress + ", "
+                    + stolenCount + " stolen)");
+        }
+    }
+
+    synchronized boolean isCompleted(int chunkIndex) {
+        return completedChunks.get(chunkIndex);
+    }
+
+    synchronized int getCompletedCount() {
+        return completedCount;
+    }
+}
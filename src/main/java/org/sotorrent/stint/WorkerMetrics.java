@@ -0,0 +1,73 @@
+package org.sotorrent.stint;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of one worker thread (or pipeline): processed keys and events, throughput since the start, and the
+ * estimated time until all keys of the worker are processed.
+ */
+class WorkerMetrics implements WorkerMetricsMXBean {
+
+    private final long totalKeys;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder processedKeys = new LongAdder();
+    private final LongAdder processedEvents = new LongAdder();
+
+    /**
+     * @param totalKeys number of keys assigned to the worker, 0 if unknown (e.g., work stealing)
+     */
+    WorkerMetrics(long totalKeys) {
+        this.totalKeys = totalKeys;
+    }
+
+    void keyProcessed(int eventCount) {
+        processedKeys.increment();
+        processedEvents.add(eventCount);
+    }
+
+    @Override
+    public long getProcessedKeys() {
+        return processedKeys.sum();
+    }
+
+    @Override
+    public long getProcessedEvents() {
+        return processedEvents.sum();
+    }
+
+    @Override
+    public long getTotalKeys() {
+        return totalKeys;
+    }
+
+    @Override
+    public double getKeysPerSecond() {
+        return processedKeys.sum() / getElapsedSeconds();
+    }
+
+    @Override
+    public double getEventsPerSecond() {
+        return processedEvents.sum() / getElapsedSeconds();
+    }
+
+    @Override
+    public double getProgressPercent() {
+        return totalKeys == 0 ? 0 : ((double) processedKeys.sum()) / totalKeys * 100;
+    }
+
+    /**
+     * @return estimated remaining seconds or -1 if unknown
+     */
+    @Override
+    public long getEtaSeconds() {
+        double keysPerSecond = getKeysPerSecond();
+        if (totalKeys == 0 || keysPerSecond == 0) {
+            return -1;
+        }
+        return (long) ((totalKeys - processedKeys.sum()) / keysPerSecond);
+    }
+
+    private double getElapsedSeconds() {
+        return Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+    }
+}
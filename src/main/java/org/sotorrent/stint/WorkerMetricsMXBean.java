@@ -0,0 +1,14 @@
+package org.sotorrent.stint;
+
+/**
+ * JMX view of the progress of one worker thread, see {@link WorkerMetrics}.
+ */
+public interface WorkerMetricsMXBean {
+    long getProcessedKeys();
+    long getProcessedEvents();
+    long getTotalKeys();
+    double getKeysPerSecond();
+    double getEventsPerSecond();
+    double getProgressPercent();
+    long getEtaSeconds();
+}
@@ -0,0 +1,42 @@
+package org.sotorrent.stint;
+
+import org.sotorrent.util.LogUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Starts the worker threads of one processing step and waits until all of them have terminated.
+ */
+final class WorkerThreads {
+
+    private static Logger logger = null;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(WorkerThreads.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private WorkerThreads() {}
+
+    static void startAndJoin(List<? extends Thread> threads) {
+        for (int i=0; i<threads.size(); i++) {
+            threads.get(i).start();
+            logger.info("Thread " + i + " started...");
+        }
+
+        try {
+            for (int i=0; i<threads.size(); i++) {
+                threads.get(i).join();
+                logger.info("Thread " + i + " terminated.");
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.sotorrent.stint;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BulkOutputTest {
+
+    @Test
+    void testFilesAreNumberedInCreationOrder() throws IOException {
+        Path dataDir = Files.createTempDirectory("bulk_output");
+        try {
+            for (int i = 0; i < 11; i++) {
+                BulkOutput.open(dataDir, EventUpdateWriter.Columns.SEQUENCE).close();
+            }
+            BulkOutput.OutputFile outputFile = BulkOutput.open(dataDir, EventUpdateWriter.Columns.SEQUENCE);
+            outputFile.close();
+            assertEquals("Event_sequence_000000011.csv", outputFile.getPath().getFileName().toString());
+            BulkOutput.OutputFile sequenceTableFile = BulkOutput.open(dataDir, SequenceTable.LINEAR_SEARCH);
+            sequenceTableFile.close();
+            assertEquals("LinearSearchSequences_000000000.csv", sequenceTableFile.getPath().getFileName().toString());
+        } finally {
+            deleteDirectory(dataDir);
+        }
+    }
+
+    @Test
+    void testRollbackAndTruncateKeepCommittedRows() throws IOException {
+        Path dataDir = Files.createTempDirectory("bulk_output");
+        try {
+            BulkOutput.OutputFile outputFile = BulkOutput.open(dataDir, SequenceTable.LINEAR_SEARCH);
+            outputFile.getPrinter().printRecord(1);
+            outputFile.commit();
+            long committedSize = outputFile.getCommittedSize();
+            outputFile.getPrinter().printRecord(2);
+            // rows beyond the buffer size reach the file before the next commit
+            for (int i = 0; i < 10000; i++) {
+                outputFile.getPrinter().printRecord(3);
+            }
+            outputFile.rollback();
+            assertEquals("1\n", new String(Files.readAllBytes(outputFile.getPath()), StandardCharsets.UTF_8));
+
+            // e.g., a killed process that left a half-written row
+            Files.write(outputFile.getPath(), "4".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            BulkOutput.truncate(outputFile.getPath(), committedSize);
+            assertEquals(committedSize, Files.size(outputFile.getPath()));
+        } finally {
+            deleteDirectory(dataDir);
+        }
+    }
+
+    @Test
+    void testNullAndEmptyValuesStayDistinct() throws IOException {
+        Path dataDir = Files.createTempDirectory("bulk_output");
+        try {
+            Event event = new Event(1, null, "user", new Date(0), null, "Post", "Search", "/questions/1",
+                    "/search?", null, null, false, false, false);
+            event.extractQuery();
+            event.extractFragmentIdentifier();
+            assertEquals("", event.getQuery());
+            assertNull(event.getFragmentIdentifier());
+
+            BulkOutput.OutputFile outputFile = BulkOutput.open(dataDir, EventUpdateWriter.Columns.NORMALIZATION);
+            BulkOutput.print(outputFile.getPrinter(), EventUpdateWriter.Columns.NORMALIZATION, event);
+            outputFile.close();
+            assertEquals("\"1\",\"\",NULL,NULL,NULL,\"0\"\n",
+                    new String(Files.readAllBytes(outputFile.getPath()), StandardCharsets.UTF_8));
+        } finally {
+            deleteDirectory(dataDir);
+        }
+    }
+
+    @Test
+    void testCheckpointTruncatesOutputFilesOnResume() throws IOException {
+        Path dataDir = Files.createTempDirectory("bulk_output");
+        try {
+            Path partitionFile = Files.createFile(dataDir.resolve("user_identifiers_0.csv"));
+            BulkOutput.OutputFile outputFile = BulkOutput.open(dataDir, EventUpdateWriter.Columns.SEQUENCE);
+            outputFile.getPrinter().printRecord(1, 1, null, 0, 0);
+            outputFile.commit();
+            Checkpoint checkpoint = new Checkpoint(partitionFile.toFile());
+            checkpoint.save(1, "a", Collections.singletonMap(outputFile.getPath(), outputFile.getCommittedSize()));
+            outputFile.getPrinter().printRecord(2, 1, 10, 0, 0);
+            outputFile.close();
+
+            Checkpoint resumed = new Checkpoint(partitionFile.toFile());
+            assertEquals(1, resumed.start(true, 0, 2, n -> "a", "user identifier"));
+            assertEquals("\"1\",\"1\",NULL,\"0\",\"0\"\n",
+                    new String(Files.readAllBytes(outputFile.getPath()), StandardCharsets.UTF_8));
+        } finally {
+            deleteDirectory(dataDir);
+        }
+    }
+
+    private static void deleteDirectory(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
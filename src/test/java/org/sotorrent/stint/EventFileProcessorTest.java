@@ -0,0 +1,173 @@
+package org.sotorrent.stint;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventFileProcessorTest {
+    private static final String[] USER_IDENTIFIERS = {"u1", "u2", "u3", "u4", "u5"};
+    private static final String[] EVENT_TARGETS = {"Home", "Search", "Post", "Post", "Post"};
+
+    /**
+     * Random events in the order of their ids, which is not the user order.
+     */
+    private static List<Event> randomEvents(long seed, int count) {
+        Random random = new Random(seed);
+        Map<String, Long> lastSeconds = new HashMap<>();
+        Map<String, Event> lastEvents = new HashMap<>();
+        List<Event> events = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            String userIdentifier = USER_IDENTIFIERS[random.nextInt(USER_IDENTIFIERS.length)];
+            // mostly short steps, sometimes a gap that ends the navigation sequence
+            long step = random.nextInt(10) == 0 ? 400 + random.nextInt(1000) : 1 + random.nextInt(120);
+            long seconds = lastSeconds.merge(userIdentifier, step, Long::sum);
+            String eventSource = EVENT_TARGETS[random.nextInt(EVENT_TARGETS.length)];
+            String eventTarget = EVENT_TARGETS[random.nextInt(EVENT_TARGETS.length)];
+            String referrer = "/questions/" + random.nextInt(5);
+            // mostly linear: the event follows the previous event of the user identifier
+            Event lastEvent = lastEvents.get(userIdentifier);
+            if (lastEvent != null && random.nextInt(4) != 0) {
+                eventSource = lastEvent.getEventTarget();
+                referrer = lastEvent.getUrl();
+            }
+            String url = eventTarget.equals("Post") ? "/questions/" + random.nextInt(5) + "?a=1#x" : "/search?q=a,\"b\"";
+            Event event = new Event(id, null, userIdentifier, new Date(seconds * 1000), null, eventSource, eventTarget,
+                    referrer, url, null, null, false, false, false);
+            events.add(event);
+            lastEvents.put(userIdentifier, event);
+        }
+        return events;
+    }
+
+    private static Event copy(Event event) {
+        return new Event(event.getId(), null, event.getUserIdentifier(), event.getCreationDate(), null,
+                event.getEventSource(), event.getEventTarget(), event.getReferrer(), event.getUrl(), null, null,
+                false, false, false);
+    }
+
+    @Test
+    void testProcessEventFileMatchesSessionizer() throws IOException {
+        List<Event> events = randomEvents(42, 500);
+        Path dataDir = Files.createTempDirectory("file_mode");
+        try {
+            try (CSVPrinter csvPrinter = new CSVPrinter(Files.newBufferedWriter(
+                    dataDir.resolve(EventFileProcessor.EVENTS_FILENAME)), EventFileProcessor.CSV_FORMAT_EVENTS)) {
+                for (Event event : events) {
+                    EventFileProcessor.printEvent(csvPrinter, event);
+                }
+            }
+
+            // expected: events sorted in memory, sessionized and classified per user identifier
+            List<Event> expected = events.stream()
+                    .map(EventFileProcessorTest::copy)
+                    .sorted(EventFileProcessor.USER_ORDER)
+                    .collect(Collectors.toList());
+            List<Event> written = new ArrayList<>();
+            SequenceClassifier classifier = new SequenceClassifier(written::add, new SequenceNormalizer());
+            Sessionizer sessionizer = new Sessionizer(classifier);
+            String userIdentifier = null;
+            for (Event event : expected) {
+                if (!event.getUserIdentifier().equals(userIdentifier)) {
+                    sessionizer.finish();
+                    userIdentifier = event.getUserIdentifier();
+                }
+                sessionizer.processEvent(event);
+            }
+            sessionizer.finish();
+            assertEquals(expected.size(), written.size());
+            // linear non-bot sequences are identified without root_event_ids.csv
+            assertTrue(classifier.getLinearNonBotSequenceCount() > 0);
+            assertTrue(expected.stream().anyMatch(event -> event.getQuery() == null));
+
+            // small runs, so that several runs are sorted in parallel and merged
+            new EventFileProcessor(dataDir, 2, 37).processEventFile();
+
+            List<CSVRecord> records;
+            try (CSVParser csvParser = new CSVParser(Files.newBufferedReader(dataDir.resolve("Event_processed.csv")),
+                    EventFileProcessor.CSV_FORMAT_EVENTS)) {
+                records = csvParser.getRecords();
+            }
+            assertEquals(expected.size(), records.size());
+            for (int i = 0; i < records.size(); i++) {
+                CSVRecord record = records.get(i);
+                assertImportable(record);
+
+                Event actual = EventFileProcessor.parseEvent(record);
+                Event expectedEvent = expected.get(i);
+                // ordered by (UserIdentifier, CreationDate, Id)
+                assertEquals(expectedEvent.getId(), actual.getId());
+                assertEquals(expectedEvent.getRootEventId(), actual.getRootEventId());
+                assertEquals(expectedEvent.getDiffSeconds(), actual.getDiffSeconds());
+                assertEquals(expectedEvent.getBotTraffic(), actual.getBotTraffic());
+                assertEquals(expectedEvent.getGapInSequence(), actual.getGapInSequence());
+                assertEquals(expectedEvent.getCreationDate(), actual.getCreationDate());
+                assertEquals(expectedEvent.getUrl(), actual.getUrl());
+
+                // all URLs have a query, it is only extracted from the events of linear non-bot sequences
+                assertEquals(expectedEvent.getQuery(), actual.getQuery(), record.toString());
+                assertEquals(expectedEvent.getNormalizedUrl(), actual.getNormalizedUrl(), record.toString());
+                assertEquals(expectedEvent.getNormalizedReferrer(), actual.getNormalizedReferrer(), record.toString());
+                assertEquals(expectedEvent.getPageRefresh(), actual.getPageRefresh(), record.toString());
+            }
+
+            // run files are removed after the merge
+            try (Stream<Path> files = Files.list(dataDir)) {
+                assertTrue(files.noneMatch(file -> file.getFileName().toString().startsWith("event_run")));
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dataDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    void testFailedSortDeletesRunFiles() throws IOException {
+        Path dataDir = Files.createTempDirectory("file_mode");
+        try {
+            try (CSVPrinter csvPrinter = new CSVPrinter(Files.newBufferedWriter(
+                    dataDir.resolve(EventFileProcessor.EVENTS_FILENAME)), EventFileProcessor.CSV_FORMAT_EVENTS)) {
+                for (Event event : randomEvents(7, 100)) {
+                    EventFileProcessor.printEvent(csvPrinter, event);
+                }
+                // malformed id after several runs have been written
+                csvPrinter.printRecord("x", "", "u1", "2018-01-01 00:00:00");
+            }
+
+            assertThrows(IllegalStateException.class,
+                    () -> new EventFileProcessor(dataDir, 2, 10).processEventFile());
+            try (Stream<Path> files = Files.list(dataDir)) {
+                assertTrue(files.noneMatch(file -> file.getFileName().toString().startsWith("event_run")));
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dataDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Checks that a record has the layout expected by sql/import/import_events.sql: 16 columns, empty strings for
+     * NULL, CreationDate as DATETIME, and booleans as 0 or 1.
+     */
+    private static void assertImportable(CSVRecord record) {
+        assertEquals(16, record.size(), record.toString());
+        Integer.parseInt(record.get(0));
+        assertTrue(record.get(1) == null || record.get(1).matches("\\d+"), record.toString());
+        assertTrue(record.get(3).matches("\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}"), record.toString());
+        assertTrue(record.get(4) == null || record.get(4).matches("\\d+"), record.toString());
+        for (int column = 13; column <= 15; column++) {
+            assertTrue(record.get(column).equals("0") || record.get(column).equals("1"), record.toString());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.sotorrent.stint;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EventStoreTest {
+    private static final String[] EVENT_TYPES = {"Home", "Post", "Search", "QuestionsList"};
+    private static final String[] URLS = {"/", "/questions/1", "/questions/1 ", "/questions/2/title", "/search?q=ü"};
+
+    @Test
+    void testSessionizationMatchesSessionizer() throws IOException {
+        // synthetic events of several users, ordered by (UserIdentifier, CreationDate, Id)
+        Random random = new Random(42);
+        List<Event> events = new ArrayList<>();
+        int id = 1;
+        for (int user = 0; user < 50; user++) {
+            long seconds = 1512090000L;
+            int userEventCount = 1 + random.nextInt(user % 10 == 0 ? 100 : 5);
+            String previousUrl = "/";
+            for (int i = 0; i < userEventCount; i++) {
+                seconds += random.nextInt(4) == 0 ? 400 + random.nextInt(1000) : random.nextInt(3);
+                String url = URLS[random.nextInt(URLS.length)];
+                String referrer = random.nextBoolean() ? previousUrl.substring(0, random.nextInt(previousUrl.length() + 1)) : url;
+                events.add(new Event(id++, null, String.format("user%03d", user), new Date(seconds * 1000), null,
+                        EVENT_TYPES[random.nextInt(EVENT_TYPES.length)], EVENT_TYPES[random.nextInt(EVENT_TYPES.length)],
+                        referrer, url, null, null, false, false, false));
+                previousUrl = url;
+            }
+        }
+
+        Path storeDir = Files.createTempDirectory("event_store");
+        try (EventStoreWriter writer = new EventStoreWriter(storeDir)) {
+            for (Event event : events) {
+                writer.add(event);
+            }
+        }
+
+        EventStore eventStore = new EventStore(storeDir);
+        assertEquals(events.size(), eventStore.getRowCount());
+        assertEquals(50, eventStore.getUserCount());
+        assertEquals(events.get(3).getUrl(), eventStore.getUrl(3));
+
+        // expected values
+        Sessionizer sessionizer = new Sessionizer(event -> {});
+        String currentUserIdentifier = null;
+        for (Event event : events) {
+            if (!event.getUserIdentifier().equals(currentUserIdentifier)) {
+                sessionizer.finish();
+                currentUserIdentifier = event.getUserIdentifier();
+            }
+            sessionizer.processEvent(event);
+        }
+        sessionizer.finish();
+
+        // actual values, sessionized in two partitions
+        EventStoreSessionizer eventStoreSessionizer = new EventStoreSessionizer(eventStore, storeDir.toFile(), 2,
+                new ProcessingOptions());
+        int[] boundaries = eventStore.splitUserCodes(2);
+        List<Integer> writtenRows = new ArrayList<>();
+        for (int partition = 0; partition < 2; partition++) {
+            eventStoreSessionizer.sessionizeUsers(boundaries[partition], boundaries[partition + 1],
+                    (row, rootEventId, diffSeconds, botTraffic, gapInSequence) -> {
+                        Event expected = events.get(row);
+                        writtenRows.add(row);
+                        assertEquals(expected.getRootEventId() == null ? EventStoreSessionizer.NULL_ROOT_EVENT_ID
+                                : expected.getRootEventId(), rootEventId, "RootEventId of row " + row);
+                        assertEquals(expected.getDiffSeconds() == null ? EventStoreSessionizer.NULL_DIFF_SECONDS
+                                : expected.getDiffSeconds(), diffSeconds, "DiffSeconds of row " + row);
+                        assertEquals(expected.getBotTraffic(), botTraffic, "BotTraffic of row " + row);
+                        assertEquals(expected.getGapInSequence(), gapInSequence, "GapInSequence of row " + row);
+                    });
+        }
+
+        // every row is written exactly once, in order
+        for (int row = 0; row < events.size(); row++) {
+            assertEquals(Integer.valueOf(row), writtenRows.get(row));
+        }
+
+        for (File file : Objects.requireNonNull(storeDir.toFile().listFiles())) {
+            file.delete();
+        }
+        Files.delete(storeDir);
+    }
+}
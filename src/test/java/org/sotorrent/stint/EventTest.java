@@ -2,7 +2,10 @@ package org.sotorrent.stint;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Date;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 class EventTest {
     @Test
@@ -86,4 +89,19 @@ class EventTest {
         event.extractFragmentIdentifier();
         assertEquals("22XOR(if(now()=sysdate()%2csleep(6)%2c0))OR#22*/", event.getFragmentIdentifier());
     }
+
+    @Test
+    void testCreationTime() {
+        Event event = new Event();
+        assertNull(event.getCreationDate());
+
+        event.setCreationDate(new Date(1512090000000L));
+        assertEquals(1512090000000L, event.getCreationTime());
+
+        Event nextEvent = new Event();
+        nextEvent.setCreationTime(1512090361000L);
+        assertEquals(new Date(1512090361000L), nextEvent.getCreationDate());
+        nextEvent.setDiffSeconds(event);
+        assertEquals(361L, (long) nextEvent.getDiffSeconds());
+    }
 }
@@ -0,0 +1,31 @@
+package org.sotorrent.stint;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IntListTest {
+
+    @Test
+    void testAddSortAndView() {
+        IntList list = new IntList(1);
+        for (int i = 0; i < 1000; i++) {
+            list.add(999 - i);
+        }
+        assertEquals(1000, list.size());
+        assertEquals(999, list.get(0));
+
+        list.sort();
+        assertEquals(0, list.get(0));
+        assertEquals(999, list.get(999));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(1000));
+
+        List<Integer> view = list.asList();
+        assertEquals(Arrays.asList(10, 11, 12), view.subList(10, 13));
+        assertThrows(UnsupportedOperationException.class, () -> view.add(1));
+    }
+}
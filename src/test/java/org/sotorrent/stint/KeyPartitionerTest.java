@@ -0,0 +1,178 @@
+package org.sotorrent.stint;
+
+import org.apache.commons.csv.CSVFormat;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyPartitionerTest {
+    private static final CSVFormat CSV_FORMAT_KEYS = CSVFormat.DEFAULT.withHeader("Key");
+
+    @Test
+    void testRangeRoutingWritesContiguousPartitions() throws IOException {
+        File dataDir = Files.createTempDirectory("key_partitioner").toFile();
+        try {
+            List<List<String>> partitions = partition(dataDir, KeyPartitioner.Routing.RANGE, 10, 3);
+            assertEquals(Arrays.asList("0", "1", "2"), partitions.get(0));
+            assertEquals(Arrays.asList("3", "4", "5"), partitions.get(1));
+            assertEquals(Arrays.asList("6", "7", "8", "9"), partitions.get(2));
+        } finally {
+            deleteRecursively(dataDir);
+        }
+    }
+
+    @Test
+    void testHashAndRoundRobinRoutingCoverAllKeys() throws IOException {
+        File dataDir = Files.createTempDirectory("key_partitioner").toFile();
+        try {
+            for (KeyPartitioner.Routing routing : Arrays.asList(KeyPartitioner.Routing.HASH,
+                    KeyPartitioner.Routing.ROUND_ROBIN)) {
+                Set<String> keys = new HashSet<>();
+                for (List<String> partition : partition(dataDir, routing, 100, 4)) {
+                    assertTrue(partition.size() > 0);
+                    keys.addAll(partition);
+                }
+                assertEquals(100, keys.size());
+            }
+        } finally {
+            deleteRecursively(dataDir);
+        }
+    }
+
+    @Test
+    void testIntKeysAreRoutedLikeBoxedKeys() throws IOException {
+        File dataDir = Files.createTempDirectory("key_partitioner").toFile();
+        try {
+            for (KeyPartitioner.Routing routing : KeyPartitioner.Routing.values()) {
+                List<List<String>> intPartitions = partition(dataDir, routing, 100, 4);
+                try (KeyPartitioner partitioner = new KeyPartitioner(dataDir, "keys", CSV_FORMAT_KEYS, 4, routing)) {
+                    for (int i = 0; i < 100; i++) {
+                        partitioner.add(Integer.valueOf(i));
+                    }
+                    partitioner.complete();
+                }
+                for (int i = 0; i < 4; i++) {
+                    assertEquals(intPartitions.get(i), readKeys(new File(dataDir, "keys_" + i + ".csv")));
+                }
+                assertEquals(100, readKeys(new File(dataDir, "keys.csv")).size());
+            }
+        } finally {
+            deleteRecursively(dataDir);
+        }
+    }
+
+    @Test
+    void testIncompleteRetrievalDeletesKeyFiles() throws IOException {
+        File dataDir = Files.createTempDirectory("key_partitioner").toFile();
+        try {
+            for (KeyPartitioner.Routing routing : KeyPartitioner.Routing.values()) {
+                assertThrows(IllegalStateException.class, () -> {
+                    try (KeyPartitioner partitioner = new KeyPartitioner(dataDir, "keys", CSV_FORMAT_KEYS, 3, routing)) {
+                        for (int i = 0; i < 10; i++) {
+                            partitioner.add(i);
+                        }
+                        // the cursor over the keys fails before complete is called
+                        throw new IllegalStateException("Cursor failed.");
+                    }
+                });
+                String[] files = dataDir.list();
+                assertNotNull(files);
+                assertEquals(0, files.length);
+            }
+        } finally {
+            deleteRecursively(dataDir);
+        }
+    }
+
+    @Test
+    void testScanModeChecksRecordedRouting() throws IOException {
+        File dataDir = Files.createTempDirectory("key_partitioner").toFile();
+        try {
+            // no key files yet
+            assertThrows(IllegalStateException.class,
+                    () -> KeyPartitioner.requireRangeRouting(dataDir, "keys", ".csv", 3));
+
+            partition(dataDir, KeyPartitioner.Routing.RANGE, 10, 3);
+            KeyPartitioner.requireRangeRouting(dataDir, "keys", ".csv", 3);
+            // other partition count or binary work lists instead of CSV key files
+            assertThrows(IllegalStateException.class,
+                    () -> KeyPartitioner.requireRangeRouting(dataDir, "keys", ".csv", 4));
+            assertThrows(IllegalStateException.class,
+                    () -> KeyPartitioner.requireRangeRouting(dataDir, "keys", WorkListFile.FILE_EXTENSION, 3));
+
+            // key files written by an earlier run with hash routing, whatever the current command line says
+            partition(dataDir, KeyPartitioner.Routing.HASH, 10, 3);
+            assertThrows(IllegalStateException.class,
+                    () -> KeyPartitioner.requireRangeRouting(dataDir, "keys", ".csv", 3));
+        } finally {
+            deleteRecursively(dataDir);
+        }
+    }
+
+    @Test
+    void testLookAheadDoesNotConsumeKeys() throws IOException {
+        File dataDir = Files.createTempDirectory("key_partitioner").toFile();
+        try {
+            partition(dataDir, KeyPartitioner.Routing.RANGE, 5, 1);
+            File keyFile = new File(dataDir, "keys_0.csv");
+            assertEquals(5, KeyFileReader.count(keyFile, CSV_FORMAT_KEYS));
+            try (KeyFileReader reader = new KeyFileReader(keyFile, CSV_FORMAT_KEYS)) {
+                assertEquals("0", reader.next());
+                assertEquals(Arrays.asList("1", "2"), reader.lookAhead(2));
+                assertEquals("2", reader.skip(2));
+                assertEquals(Arrays.asList("3", "4"), reader.lookAhead(5));
+                assertEquals("3", reader.next());
+                assertEquals("4", reader.next());
+                assertNull(reader.next());
+            }
+        } finally {
+            deleteRecursively(dataDir);
+        }
+    }
+
+    private static List<List<String>> partition(File dataDir, KeyPartitioner.Routing routing,
+                                                int keyCount, int partitionCount) throws IOException {
+        try (KeyPartitioner partitioner = new KeyPartitioner(dataDir, "keys", CSV_FORMAT_KEYS, partitionCount, routing)) {
+            for (int i = 0; i < keyCount; i++) {
+                partitioner.add(i);
+            }
+            partitioner.complete();
+        }
+
+        List<List<String>> partitions = new ArrayList<>();
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(readKeys(new File(dataDir, "keys_" + i + ".csv")));
+        }
+        return partitions;
+    }
+
+    private static List<String> readKeys(File keyFile) throws IOException {
+        List<String> keys = new ArrayList<>();
+        try (KeyFileReader reader = new KeyFileReader(keyFile, CSV_FORMAT_KEYS)) {
+            String key;
+            while ((key = reader.next()) != null) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static void deleteRecursively(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,136 @@
+package org.sotorrent.stint;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NormalizationCacheTest {
+
+    // "Aa" and "BB" have the same hash code, hence these URLs have the same hash code and share one segment
+    private static final String URL_A = "/questions/1/AaAa";
+    private static final String URL_B = "/questions/1/AaBB";
+    private static final String URL_C = "/questions/1/BBAa";
+
+    private final AtomicInteger normalizeCount = new AtomicInteger();
+    private final Function<String, String> normalize = url -> {
+        normalizeCount.incrementAndGet();
+        return url.toLowerCase();
+    };
+
+    @Test
+    void testLruEviction() {
+        // 32 entries in 16 segments -> two entries per segment
+        NormalizationCache cache = new NormalizationCache(32, NormalizationCache.EvictionPolicy.LRU);
+        cache.get(URL_A, normalize);
+        cache.get(URL_B, normalize);
+        // access A again, B is now least recently used
+        cache.get(URL_A, normalize);
+        cache.get(URL_C, normalize);
+        assertEquals(3, normalizeCount.get());
+
+        assertEquals("/questions/1/aaaa", cache.get(URL_A, normalize));
+        assertEquals(3, normalizeCount.get());
+        assertEquals("/questions/1/aabb", cache.get(URL_B, normalize));
+        assertEquals(4, normalizeCount.get());
+    }
+
+    @Test
+    void testFifoEviction() {
+        NormalizationCache cache = new NormalizationCache(32, NormalizationCache.EvictionPolicy.FIFO);
+        cache.get(URL_A, normalize);
+        cache.get(URL_B, normalize);
+        // access A again, A is still the oldest entry
+        cache.get(URL_A, normalize);
+        cache.get(URL_C, normalize);
+        assertEquals(3, normalizeCount.get());
+
+        assertEquals("/questions/1/aabb", cache.get(URL_B, normalize));
+        assertEquals(3, normalizeCount.get());
+        assertEquals("/questions/1/aaaa", cache.get(URL_A, normalize));
+        assertEquals(4, normalizeCount.get());
+    }
+
+    @Test
+    void testSizeBound() {
+        for (NormalizationCache.EvictionPolicy evictionPolicy : NormalizationCache.EvictionPolicy.values()) {
+            NormalizationCache cache = new NormalizationCache(64, evictionPolicy);
+            for (int i = 0; i < 1000; i++) {
+                cache.get("/questions/" + i, normalize);
+                assertTrue(cache.size() <= 64);
+            }
+            assertEquals(64, cache.size());
+        }
+    }
+
+    @Test
+    void testSizeBoundOfSmallCapacities() {
+        for (int capacity : new int[] {1, 5, 17, 40}) {
+            NormalizationCache cache = new NormalizationCache(capacity, NormalizationCache.EvictionPolicy.LRU);
+            for (int i = 0; i < 1000; i++) {
+                cache.get("/questions/" + i, normalize);
+                assertTrue(cache.size() <= capacity, cache.toString());
+            }
+        }
+        // rounded down to a multiple of the number of segments
+        assertTrue(new NormalizationCache(40, NormalizationCache.EvictionPolicy.FIFO).toString().contains(" of 32 entries"));
+    }
+
+    @Test
+    void testHitAndMissCounts() {
+        NormalizationCache cache = new NormalizationCache(96, NormalizationCache.EvictionPolicy.LRU);
+        assertEquals("NormalizationCache (LRU, 0 of 96 entries): 0 hits, 0 misses (hit rate 0.00%)",
+                cache.toString());
+
+        for (int i = 0; i < 3; i++) {
+            cache.get("/questions/1", normalize);
+            cache.get("/questions/2", normalize);
+        }
+        cache.get("/questions/3", normalize);
+
+        assertEquals(4, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(3, normalizeCount.get());
+        assertEquals("NormalizationCache (LRU, 3 of 96 entries): 4 hits, 3 misses (hit rate 57.14%)",
+                cache.toString());
+    }
+
+    @Test
+    void testDisabledCache() {
+        // a cache size of 0 disables the cache (see ProcessingOptions.normalizationCacheSize)
+        assertThrows(IllegalArgumentException.class,
+                () -> new NormalizationCache(0, NormalizationCache.EvictionPolicy.LRU));
+
+        // without cache, the normalizer normalizes each URL directly and yields the same result
+        List<Event> uncached = sequence();
+        List<Event> cached = sequence();
+        new SequenceNormalizer().normalize(uncached);
+        NormalizationCache cache = new NormalizationCache(100, NormalizationCache.EvictionPolicy.LRU);
+        new SequenceNormalizer(cache).normalize(cached);
+        for (int i = 0; i < uncached.size(); i++) {
+            assertEquals(cached.get(i).getNormalizedUrl(), uncached.get(i).getNormalizedUrl());
+            assertEquals(cached.get(i).getNormalizedReferrer(), uncached.get(i).getNormalizedReferrer());
+        }
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    private static List<Event> sequence() {
+        List<Event> events = new ArrayList<>();
+        int id = 1;
+        for (String url : Arrays.asList("/questions/1/a?b=1", "/questions/2/c#d", "/questions/1/a?b=1")) {
+            events.add(new Event(id, 1, "user", new Date(id * 1000L), null, "Post", "Post",
+                    id == 1 ? "" : "/questions/1/a", url, null, null, false, false, false));
+            id++;
+        }
+        return events;
+    }
+}
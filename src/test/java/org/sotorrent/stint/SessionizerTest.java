@@ -0,0 +1,220 @@
+package org.sotorrent.stint;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionizerTest {
+    private static Event event(int id, long seconds, String eventSource, String eventTarget,
+                               String referrer, String url) {
+        return new Event(id, null, "user", new Date(seconds * 1000), null, eventSource, eventTarget,
+                referrer, url, null, null, false, false, false);
+    }
+
+    @Test
+    void testNavigationSequences() {
+        List<Event> written = new LinkedList<>();
+        Sessionizer sessionizer = new Sessionizer(written::add);
+
+        Event e1 = event(1, 0, "Home", "Post", "/", "/questions/1");
+        Event e2 = event(2, 30, "Post", "Post", "/questions/1", "/questions/2");
+        Event e3 = event(3, 60, "Search", "Post", "/search?q=x", "/questions/3");
+        Event e4 = event(4, 1000, "Home", "Search", "/", "/search?q=y"); // gap -> single event
+        Event e5 = event(5, 2000, "Home", "Post", "/", "/questions/5"); // gap -> new sequence
+        Event e6 = event(6, 2000, "Post", "Post", "/questions/5", "/questions/5");
+
+        for (Event event : List.of(e1, e2, e3, e4, e5, e6)) {
+            sessionizer.processEvent(event);
+        }
+        sessionizer.finish();
+
+        // every event is written exactly once, in order
+        assertEquals(List.of(e1, e2, e3, e4, e5, e6), written);
+
+        assertEquals(Integer.valueOf(1), e1.getRootEventId());
+        assertEquals(Integer.valueOf(1), e2.getRootEventId());
+        assertEquals(Integer.valueOf(1), e3.getRootEventId());
+        assertNull(e4.getRootEventId());
+        assertEquals(Integer.valueOf(5), e5.getRootEventId());
+        assertEquals(Integer.valueOf(5), e6.getRootEventId());
+
+        assertNull(e1.getDiffSeconds());
+        assertEquals(Long.valueOf(30), e2.getDiffSeconds());
+        assertEquals(Long.valueOf(940), e4.getDiffSeconds());
+
+        assertFalse(e2.getGapInSequence());
+        assertTrue(e3.getGapInSequence());
+        assertFalse(e4.getGapInSequence()); // first event after a gap is not flagged
+
+        assertFalse(e5.getBotTraffic());
+        assertTrue(e6.getBotTraffic());
+    }
+
+    @Test
+    void testSingleEventAtEnd() {
+        List<Event> written = new LinkedList<>();
+        Sessionizer sessionizer = new Sessionizer(written::add);
+
+        Event e1 = event(1, 0, "Home", "Post", "/", "/questions/1");
+        Event e2 = event(2, 10, "Post", "Post", "/questions/1", "/questions/2");
+        Event e3 = event(3, 500, "Post", "Post", "/questions/2", "/questions/3");
+
+        sessionizer.processEvent(e1);
+        sessionizer.processEvent(e2);
+        sessionizer.processEvent(e3);
+        assertEquals(List.of(e1, e2), written);
+
+        sessionizer.finish();
+        assertEquals(List.of(e1, e2, e3), written);
+        assertEquals(Integer.valueOf(1), e2.getRootEventId());
+        assertNull(e3.getRootEventId());
+    }
+
+    @Test
+    void testLinearNonBotSequenceClassification() {
+        List<Event> written = new LinkedList<>();
+        Sessionizer sessionizer = new Sessionizer(new SequenceClassifier(written::add, new SequenceNormalizer()));
+
+        Event e1 = event(1, 0, "Home", "Post", "/", "/questions/1/title");
+        Event e2 = event(2, 30, "Post", "Post", "/questions/1/title", "/questions/2?s=1");
+        Event e3 = event(3, 1000, "Home", "Post", "/", "/questions/3");
+        Event e4 = event(4, 1010, "Search", "Post", "/search?q=x", "/questions/4"); // gap -> non-linear
+
+        for (Event event : List.of(e1, e2, e3, e4)) {
+            sessionizer.processEvent(event);
+        }
+        // events are passed on once the user identifier is finished
+        assertTrue(written.isEmpty());
+        sessionizer.finish();
+        assertEquals(List.of(e1, e2, e3, e4), written);
+
+        assertTrue(e1.isInSequenceTable(SequenceTable.LINEAR_NON_BOT));
+        assertTrue(e2.isInSequenceTable(SequenceTable.LINEAR_NON_BOT));
+        assertNotNull(e1.getNormalizedUrl());
+        assertEquals("s=1", e2.getQuery());
+        assertFalse(e3.isInSequenceTable(SequenceTable.LINEAR_NON_BOT));
+        assertFalse(e4.isInSequenceTable(SequenceTable.LINEAR_NON_BOT));
+        assertNull(e4.getNormalizedUrl());
+
+        // bot traffic in any sequence excludes all sequences of the user identifier
+        written.clear();
+        Event e5 = event(5, 0, "Home", "Post", "/", "/questions/5");
+        Event e6 = event(6, 30, "Post", "Post", "/questions/5", "/questions/6");
+        Event e7 = event(7, 1000, "Home", "Post", "/", "/questions/7");
+        Event e8 = event(8, 1000, "Post", "Post", "/questions/7", "/questions/7");
+        for (Event event : List.of(e5, e6, e7, e8)) {
+            sessionizer.processEvent(event);
+        }
+        sessionizer.finish();
+        assertTrue(e8.getBotTraffic());
+        assertFalse(e5.isInSequenceTable(SequenceTable.LINEAR_NON_BOT));
+        assertFalse(e6.isInSequenceTable(SequenceTable.LINEAR_NON_BOT));
+    }
+
+    @Test
+    void testSequenceTables() {
+        SequenceNormalizer sequenceNormalizer = new SequenceNormalizer();
+
+        // containing a search event and ending in a thread
+        List<Event> searchThread = List.of(
+                event(1, 0, "Home", "Search", "/", "/search?q=x"),
+                event(2, 10, "Search", "Post", "/search?q=x", "/questions/1"));
+        sequenceNormalizer.normalize(searchThread);
+        for (SequenceTable table : SequenceTable.values()) {
+            assertTrue(searchThread.get(0).isInSequenceTable(table));
+        }
+
+        // ending elsewhere
+        List<Event> search = List.of(
+                event(3, 0, "Home", "Search", "/", "/search?q=x"),
+                event(4, 10, "Search", "Post", "/search?q=x", "/questions/1"),
+                event(5, 20, "Post", "Home", "/questions/1", "/"));
+        sequenceNormalizer.normalize(search);
+        assertTrue(search.get(0).isInSequenceTable(SequenceTable.LINEAR_SEARCH));
+        assertFalse(search.get(0).isInSequenceTable(SequenceTable.LINEAR_THREAD));
+        assertFalse(search.get(0).isInSequenceTable(SequenceTable.LINEAR_SEARCH_THREAD));
+
+        // sequences consisting exclusively of page refreshes are excluded from the analysis tables
+        List<Event> pageRefresh = List.of(
+                event(6, 0, "Home", "Post", "/", "/questions/1"),
+                event(7, 10, "Post", "Post", "/questions/1", "/questions/1"));
+        sequenceNormalizer.normalize(pageRefresh);
+        assertTrue(pageRefresh.get(1).getPageRefresh());
+        assertTrue(pageRefresh.get(0).isInSequenceTable(SequenceTable.LINEAR_NON_BOT));
+        assertFalse(pageRefresh.get(0).isInSequenceTable(SequenceTable.LINEAR_NON_BOT_NON_PAGE_REFRESH));
+        assertFalse(pageRefresh.get(0).isInSequenceTable(SequenceTable.LINEAR_THREAD));
+
+        // ... but not sequences that also contain other events (WHERE PageRefresh = 0 in import_from_csv.sql)
+        List<Event> partialPageRefresh = List.of(
+                event(8, 0, "Home", "Search", "/", "/search?q=x"),
+                event(9, 10, "Search", "Post", "/search?q=x", "/questions/1"),
+                event(10, 20, "Post", "Post", "/questions/1", "/questions/1"));
+        sequenceNormalizer.normalize(partialPageRefresh);
+        assertTrue(partialPageRefresh.get(2).getPageRefresh());
+        assertTrue(partialPageRefresh.get(0).isInSequenceTable(SequenceTable.LINEAR_NON_BOT_NON_PAGE_REFRESH));
+        assertTrue(partialPageRefresh.get(0).isInSequenceTable(SequenceTable.LINEAR_SEARCH_THREAD));
+    }
+
+    @Test
+    void testTruncatedReferrers() {
+        SequenceNormalizer sequenceNormalizer = new SequenceNormalizer();
+        List<Event> sequence = List.of(
+                event(1, 0, "Home", "Post", "/", "/questions/1/java-io"),
+                event(2, 10, "Post", "Post", "/questions/1/java-io", "/questions/1/java-ioexception"),
+                event(3, 20, "Post", "Post", "/questions/1/java-ioexception", "/questions/1/java-io-file"),
+                // exact match, although more recent URLs start with the referrer
+                event(4, 30, "Post", "Post", "/questions/1/java-io", "/questions/2"),
+                // several extensions of the truncated referrer, the most recently accessed one wins
+                event(5, 40, "Post", "Post", "/questions/1/java-i", "/questions/3"),
+                event(6, 50, "Post", "Post", "/questions/1/java-ioe", "/questions/4"),
+                // no match
+                event(7, 60, "Post", "Post", "/questions/9", "/questions/5"),
+                // only the URL of the event itself starts with the referrer
+                event(8, 70, "Post", "Post", "/questions/6/a", "/questions/6/a-b"));
+        sequenceNormalizer.normalize(sequence);
+
+        assertEquals(sequence.get(0).getNormalizedUrl(), sequence.get(3).getNormalizedReferrer());
+        assertEquals(sequence.get(2).getNormalizedUrl(), sequence.get(4).getNormalizedReferrer());
+        assertEquals(sequence.get(1).getNormalizedUrl(), sequence.get(5).getNormalizedReferrer());
+        assertNull(sequence.get(6).getNormalizedReferrer());
+        assertEquals(sequence.get(7).getNormalizedUrl(), sequence.get(7).getNormalizedReferrer());
+    }
+
+    @Test
+    void testIncrementalRunStitchesOntoLastSequence() {
+        // previous run: the last sequence of the user identifier is the single event e3
+        Event e1 = event(1, 0, "Home", "Post", "/", "/questions/1");
+        Event e2 = event(2, 30, "Post", "Post", "/questions/1", "/questions/2");
+        Event e3 = event(3, 1000, "Home", "Post", "/", "/questions/3");
+        Sessionizer sessionizer = new Sessionizer(event -> {});
+        for (Event event : List.of(e1, e2, e3)) {
+            sessionizer.processEvent(event);
+        }
+        sessionizer.finish();
+        assertNull(e3.getRootEventId());
+
+        // incremental run: the last sequence (with its stored DiffSeconds) and the new events
+        Event e3Stored = event(3, 1000, "Home", "Post", "/", "/questions/3");
+        e3Stored.setDiffSeconds(e3.getDiffSeconds());
+        Event e4 = event(4, 1100, "Post", "Post", "/questions/3", "/questions/4");
+        Event e5 = event(5, 2000, "Home", "Post", "/", "/questions/5");
+        List<Event> written = new LinkedList<>();
+        sessionizer = new Sessionizer(written::add);
+        for (Event event : List.of(e3Stored, e4, e5)) {
+            sessionizer.processEvent(event);
+        }
+        sessionizer.finish();
+
+        assertEquals(List.of(e3Stored, e4, e5), written);
+        assertEquals(Integer.valueOf(3), e3Stored.getRootEventId());
+        assertEquals(Long.valueOf(970), e3Stored.getDiffSeconds());
+        assertEquals(Integer.valueOf(3), e4.getRootEventId());
+        assertEquals(Long.valueOf(100), e4.getDiffSeconds());
+        assertNull(e5.getRootEventId());
+        assertEquals(Long.valueOf(900), e5.getDiffSeconds());
+    }
+}
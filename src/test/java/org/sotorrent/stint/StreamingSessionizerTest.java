@@ -0,0 +1,107 @@
+package org.sotorrent.stint;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingSessionizerTest {
+    private static Event event(int id, String userIdentifier, long seconds, String eventSource, String eventTarget,
+                               String referrer, String url) {
+        return new Event(id, null, userIdentifier, new Date(seconds * 1000), null, eventSource, eventTarget,
+                referrer, url, null, null, false, false, false);
+    }
+
+    @Test
+    void testSequencesAreClosedByWatermark() {
+        List<List<Event>> written = new ArrayList<>();
+        StreamingSessionizer sessionizer = new StreamingSessionizer(written::add, 60, 3600);
+
+        // out of order within the tolerance
+        Event a2 = event(2, "a", 30, "Post", "Post", "/questions/1", "/questions/2");
+        Event a1 = event(1, "a", 0, "Home", "Post", "/", "/questions/1");
+        assertTrue(sessionizer.processEvent(a2));
+        assertTrue(sessionizer.processEvent(a1));
+        assertTrue(written.isEmpty());
+
+        // watermark 440s: no later event can continue the sequence of a
+        Event b1 = event(3, "b", 500, "Home", "Post", "/", "/questions/3");
+        sessionizer.processEvent(b1);
+        assertEquals(List.of(List.of(a1, a2)), written);
+        assertEquals(Integer.valueOf(1), a2.getRootEventId());
+        assertEquals(Long.valueOf(30), a2.getDiffSeconds());
+        assertFalse(a2.getPageRefresh());
+        assertNotNull(a1.getNormalizedUrl()); // linear non-bot sequence
+
+        // the watermark has passed the event
+        assertFalse(sessionizer.processEvent(event(4, "a", 100, "Home", "Post", "/", "/questions/4")));
+        assertEquals(1, sessionizer.getDroppedEventCount());
+
+        // the state of a is kept until the idle timeout
+        Event a3 = event(5, "a", 1000, "Home", "Post", "/", "/questions/5");
+        sessionizer.processEvent(a3);
+        sessionizer.close();
+        assertEquals(3, written.size());
+        assertNull(a3.getRootEventId());
+        assertEquals(Long.valueOf(970), a3.getDiffSeconds());
+    }
+
+    @Test
+    void testIdleUserIdentifiersAreEvicted() {
+        List<List<Event>> written = new ArrayList<>();
+        StreamingSessionizer sessionizer = new StreamingSessionizer(written::add, 0, 3600);
+
+        sessionizer.processEvent(event(1, "a", 0, "Home", "Post", "/", "/questions/1"));
+        sessionizer.processEvent(event(2, "b", 5000, "Home", "Post", "/", "/questions/2"));
+        assertEquals(1, sessionizer.getEvictedUserCount());
+        assertEquals(1, sessionizer.getUserCount());
+
+        Event a2 = event(3, "a", 6000, "Home", "Post", "/", "/questions/3");
+        sessionizer.processEvent(a2);
+        sessionizer.close();
+        assertNull(a2.getDiffSeconds());
+        assertEquals(3, sessionizer.getSequenceCount());
+    }
+
+    @Test
+    void testIdleInputAdvancesWatermark() {
+        List<List<Event>> written = new ArrayList<>();
+        StreamingSessionizer sessionizer = new StreamingSessionizer(written::add, 60, 3600);
+
+        // no events yet
+        sessionizer.advanceIdle(1000000);
+        assertEquals(Long.MIN_VALUE, sessionizer.getWatermark());
+
+        Event a1 = event(1, "a", 0, "Home", "Post", "/", "/questions/1");
+        sessionizer.processEvent(a1);
+        sessionizer.advanceIdle(300 * 1000);
+        assertTrue(written.isEmpty());
+
+        // 60s tolerance + 360s threshold after the last event, without further events
+        sessionizer.advanceIdle(421 * 1000);
+        assertEquals(List.of(List.of(a1)), written);
+    }
+
+    @Test
+    void testMalformedLinesAreSkipped() {
+        String input = "1,a,2020-01-01 00:00:00,Home,Post,/,/questions/1\n"
+                + "x,a,2020-01-01 00:00:10,Post,Post,/questions/1,/questions/2\n"
+                + "3,a,2020-01-01 00:00:20,Post,Post\n"
+                + "4,a,not a date,Post,Post,/questions/1,/questions/2\n"
+                + "5,a,2020-01-01 00:00:30,Post,Post,/questions/1,/questions/5\n";
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new EventStreamProcessor(new ProcessingOptions()).processStream(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), output);
+
+        String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("1,1,"));
+        assertTrue(lines[1].startsWith("5,1,"));
+    }
+}
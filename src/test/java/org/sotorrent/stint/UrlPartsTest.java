@@ -0,0 +1,61 @@
+package org.sotorrent.stint;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UrlPartsTest {
+    // patterns previously used by Event
+    private static final Pattern QUERY_PATTERN = Pattern.compile("\\?[^#]*");
+    private static final Pattern FRAGMENT_IDENTIFIER_PATTERN = Pattern.compile("#.*");
+
+    @Test
+    void testBoundaries() {
+        String url = "/questions/3625659/java-io-ioexception?answertab=active#23tab-top";
+        assertEquals("answertab=active", UrlParts.query(url));
+        assertEquals("23tab-top", UrlParts.fragmentIdentifier(url));
+
+        assertEquals(null, UrlParts.query("/questions"));
+        assertEquals(null, UrlParts.fragmentIdentifier("/questions"));
+        assertEquals("", UrlParts.query("/search?"));
+        assertEquals("x", UrlParts.query("/a#b?x"));
+        assertEquals("b?x", UrlParts.fragmentIdentifier("/a#b?x"));
+        assertEquals("ans", UrlParts.fragmentIdentifier("/q/1#ans\r"));
+        assertEquals("ans", UrlParts.fragmentIdentifier("/q/1#ans\r\nx"));
+        assertEquals("x\r\n", UrlParts.query("/q?x\r\n#y"));
+    }
+
+    @Test
+    void testMatchesRegularExpressions() {
+        Random random = new Random(42);
+        char[] alphabet = {'/', 'a', 'q', '?', '#', '=', '&', ' ', '\t', '\r', '\n', '\u0085', '\u2028', '\u2029'};
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder url = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                url.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            String value = url.toString();
+
+            Matcher queryMatcher = QUERY_PATTERN.matcher(value);
+            assertEquals(queryMatcher.find() ? queryMatcher.group(0).substring(1) : null, UrlParts.query(value), value);
+            Matcher fragmentIdentifierMatcher = FRAGMENT_IDENTIFIER_PATTERN.matcher(value);
+            assertEquals(fragmentIdentifierMatcher.find() ? fragmentIdentifierMatcher.group(0).substring(1) : null,
+                    UrlParts.fragmentIdentifier(value), value);
+        }
+    }
+
+    @Test
+    void testEqualsTrimmed() {
+        String[] values = {"", " ", "/a", " /a", "/a ", "\t/a\n", "/a /b", "/a/b", " /a /b "};
+        for (String a : values) {
+            for (String b : values) {
+                assertEquals(a.trim().equals(b.trim()), UrlParts.equalsTrimmed(a, b), "'" + a + "' vs. '" + b + "'");
+            }
+        }
+    }
+}
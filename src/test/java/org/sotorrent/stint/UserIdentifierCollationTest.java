@@ -0,0 +1,31 @@
+package org.sotorrent.stint;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserIdentifierCollationTest {
+
+    @Test
+    void testCaseInsensitiveOrder() {
+        // ordered as by ORDER BY UserIdentifier, not by String.compareTo
+        List<String> userIdentifiers = Arrays.asList("0a1", "A0b", "a0C", "B", "c");
+        for (int i = 1; i < userIdentifiers.size(); i++) {
+            assertTrue(UserIdentifierCollation.compare(userIdentifiers.get(i - 1), userIdentifiers.get(i)) < 0);
+        }
+        assertTrue("B".compareTo("a0C") < 0);
+    }
+
+    @Test
+    void testPadSpaceAndCaseEquality() {
+        assertEquals(0, UserIdentifierCollation.compare("abc", "ABC  "));
+        assertEquals(UserIdentifierCollation.key("abc"), UserIdentifierCollation.key("ABC  "));
+        assertNotEquals(UserIdentifierCollation.key("abc"), UserIdentifierCollation.key(" abc"));
+        assertNotEquals(UserIdentifierCollation.key("abc"), UserIdentifierCollation.key("abd"));
+    }
+}
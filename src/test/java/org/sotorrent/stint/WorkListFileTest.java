@@ -0,0 +1,72 @@
+package org.sotorrent.stint;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkListFileTest {
+
+    @Test
+    void testRoundTrip() throws IOException {
+        Random random = new Random(42);
+        int[] keys = new int[100000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(20000000);
+        }
+        keys[0] = Integer.MIN_VALUE;
+        keys[1] = Integer.MAX_VALUE;
+        Arrays.sort(keys);
+
+        Path file = Files.createTempFile("work_list", WorkListFile.FILE_EXTENSION);
+        try {
+            WorkListFile.write(file, keys, 0, keys.length);
+            assertArrayEquals(keys, WorkListFile.read(file));
+            // dense ids take far less than four bytes each
+            assertTrue(Files.size(file) < 3L * keys.length);
+
+            WorkListFile.write(file, keys, 10, 20);
+            assertArrayEquals(Arrays.copyOfRange(keys, 10, 20), WorkListFile.read(file));
+
+            WorkListFile.write(file, keys, 0, 0);
+            assertEquals(0, WorkListFile.read(file).length);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testUnsortedKeysAreRejected() throws IOException {
+        Path file = Files.createTempFile("work_list", WorkListFile.FILE_EXTENSION);
+        try {
+            assertThrows(IllegalArgumentException.class, () -> WorkListFile.write(file, new int[]{2, 1}, 0, 2));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testCorruptedFileIsRejected() throws IOException {
+        Path file = Files.createTempFile("work_list", WorkListFile.FILE_EXTENSION);
+        try {
+            WorkListFile.write(file, new int[]{1, 2, 3, 500, 70000}, 0, 5);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{0x7f}), Files.size(file) - 1);
+            }
+            assertThrows(IllegalStateException.class, () -> WorkListFile.read(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
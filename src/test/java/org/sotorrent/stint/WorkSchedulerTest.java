@@ -0,0 +1,96 @@
+package org.sotorrent.stint;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkSchedulerTest {
+
+    private static List<Integer> chunks(int chunkCount) {
+        List<Integer> chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            chunks.add(i * 10);
+        }
+        return chunks;
+    }
+
+    @Test
+    void testOwnChunksThenStealing() {
+        // worker 0 owns chunks 0-2, worker 1 owns chunks 3-5
+        WorkScheduler<Integer> scheduler = new WorkScheduler<>(chunks(6), 2);
+        assertEquals(6, scheduler.getChunkCount());
+
+        for (int i = 0; i < 3; i++) {
+            WorkScheduler.Chunk<Integer> chunk = scheduler.next(0);
+            assertEquals(i, chunk.index);
+            assertEquals(i * 10, (int) chunk.keys);
+        }
+
+        // worker 0 ran dry and steals from the tail of worker 1's deque
+        assertEquals(5, scheduler.next(0).index);
+        assertEquals(4, scheduler.next(0).index);
+        assertEquals(3, scheduler.next(1).index);
+        assertNull(scheduler.next(0));
+        assertNull(scheduler.next(1));
+    }
+
+    @Test
+    void testCompletionTracking() {
+        WorkScheduler<Integer> scheduler = new WorkScheduler<>(chunks(4), 3);
+        WorkScheduler.Chunk<Integer> chunk = scheduler.next(2);
+        assertFalse(scheduler.isCompleted(chunk.index));
+
+        scheduler.complete(chunk);
+        assertTrue(scheduler.isCompleted(chunk.index));
+        assertEquals(1, scheduler.getCompletedCount());
+        assertThrows(IllegalStateException.class, () -> scheduler.complete(chunk));
+        assertEquals(1, scheduler.getCompletedCount());
+    }
+
+    @Test
+    void testConcurrentWorkersCompleteEachChunkOnce() throws InterruptedException {
+        int chunkCount = 1000;
+        int workerCount = 4;
+        WorkScheduler<Integer> scheduler = new WorkScheduler<>(chunks(chunkCount), workerCount);
+        BitSet processed = new BitSet(chunkCount);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            int worker = i;
+            threads.add(new Thread(() -> {
+                WorkScheduler.Chunk<Integer> chunk;
+                while ((chunk = scheduler.next(worker)) != null) {
+                    // worker 0 is slow, the others steal its chunks
+                    if (worker == 0) {
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    synchronized (processed) {
+                        processed.set(chunk.index);
+                    }
+                    scheduler.complete(chunk);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(chunkCount, scheduler.getCompletedCount());
+        assertEquals(chunkCount, processed.cardinality());
+    }
+}